@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * Conversion interval that drops to the fastest interval when any channel moves, then
+ * grows by a quarter with each quiet conversion until it reaches the slowest interval.
+ * <p>
+ * A channel moves when it changes by more than the delta threshold since the last
+ * conversion, or when its variance, an exponentially weighted average of the squared
+ * difference from its mean, is over the variance threshold. The variance catches a
+ * signal that changes quickly in small steps.
+ */
+/* package */ final class AdaptiveConversionRate {
+
+  /**
+   * weight of each conversion in the mean and variance
+   */
+  private static final double WEIGHT = 0.125;
+
+  private final int fastestMs;
+  private final int slowestMs;
+  private final int deltaThreshold;
+  private final int varianceThreshold;
+
+  private final int[] last;
+  private final double[] mean;
+  private final double[] variance;
+  private boolean primed = false;
+  private volatile int intervalMs;
+
+  /**
+   * @param channels number of channels
+   * @param fastestMs interval while a channel is moving
+   * @param slowestMs interval when every channel has been still for a while
+   * @param deltaThreshold change between conversions that counts as moving
+   * @param varianceThreshold variance that counts as moving, 0 to ignore the variance
+   */
+  AdaptiveConversionRate(int channels, int fastestMs, int slowestMs, int deltaThreshold,
+                         int varianceThreshold) {
+    if (fastestMs <= 0 || slowestMs < fastestMs) throw new IllegalArgumentException("invalid intervals");
+    if (deltaThreshold < 0 || varianceThreshold < 0) throw new IllegalArgumentException("invalid threshold");
+    this.fastestMs = fastestMs;
+    this.slowestMs = slowestMs;
+    this.deltaThreshold = deltaThreshold;
+    this.varianceThreshold = varianceThreshold;
+    last = new int[channels];
+    mean = new double[channels];
+    variance = new double[channels];
+    intervalMs = slowestMs;
+  }
+
+  /**
+   * Take the values of a conversion
+   * @param values the value of each channel
+   * @return time until the next conversion in milliseconds
+   */
+  int update(int[] values) {
+    boolean moving = false;
+    for (int i = 0; i < last.length; i++) {
+      int value = values[i];
+      if (!primed) {
+        mean[i] = value;
+      } else {
+        moving |= Math.abs(value - last[i]) > deltaThreshold;
+        double difference = value - mean[i];
+        mean[i] += WEIGHT * difference;
+        variance[i] += WEIGHT * (difference * difference - variance[i]);
+        moving |= varianceThreshold > 0 && variance[i] > varianceThreshold;
+      }
+      last[i] = value;
+    }
+    primed = true;
+
+    int interval = moving ? fastestMs : Math.min(slowestMs, intervalMs + intervalMs / 4 + 1);
+    intervalMs = interval;
+    return interval;
+  }
+
+  /**
+   * @return the current conversion interval in milliseconds
+   */
+  int getIntervalMs() {
+    return intervalMs;
+  }
+}
@@ -15,7 +15,29 @@
  */
 package nz.geek.android.things.driver.adc;
 
+import java.util.concurrent.Executor;
+
 public interface Adc {
+
+  interface ChangeListener {
+    /**
+     * Called when the value of a channel has changed by more than the deadband
+     * @param channel the channel
+     * @param value the new value
+     */
+    void onChannelChanged(int channel, int value);
+  }
+
+  interface AlarmListener {
+    /**
+     * Called when an alarm is raised or cleared
+     * @param channel the channel
+     * @param value the value that raised or cleared the alarm
+     * @param active true when raised, false when cleared
+     */
+    void onAlarm(int channel, int value, boolean active);
+  }
+
   /**
    * Start the ADC conversion process
    */
@@ -34,6 +56,94 @@ public interface Adc {
    */
   int readChannel(int channel);
 
+  /**
+   * Non-blocking read of every channel, the values all from the latest conversion. Use this
+   * rather than {@link #readChannel(int)} for each channel when values are combined.
+   * @param dst filled with the value of each channel, at least 4 long
+   * @return sequence number of the conversion, counting from 1, 0 before the first
+   */
+  long readChannels(int[] dst);
+
+  /**
+   * Non-blocking read of every channel, with the sequence number and time of the
+   * conversion the values are from
+   * @param sample filled with the values of the latest conversion
+   */
+  void readChannels(AdcSample sample);
+
+  /**
+   * @return time between conversions in milliseconds, the current interval when the rate
+   * adapts to the signal
+   */
+  int getConversionRate();
+
+  /**
+   * @return time the latest valid reading was taken, in nanoseconds of
+   * {@code SystemClock.elapsedRealtimeNanos()}, -1 before the first
+   */
+  long getSampleTime();
+
+  /**
+   * @return statistics of the time between samples since conversions were first started or
+   * the statistics were reset
+   */
+  SampleTiming getSampleTiming();
+
+  /**
+   * Clear the statistics of the time between samples
+   */
+  void resetSampleTiming();
+
+  /**
+   * Listen for changes of a channel. Each new value is checked on the sampling thread, the
+   * listener is called with the first value and then whenever the value differs from the
+   * last value it was called with by more than the deadband.
+   * @param channel channel to listen to
+   * @param deadband change ignored, 0 for every change
+   * @param executor executor the listener is called on, null for the sampling thread
+   * @param listener the listener
+   */
+  void addChangeListener(int channel, int deadband, Executor executor, ChangeListener listener);
+
+  /**
+   * Raise an alarm when a channel crosses a threshold. The alarm is cleared once the value
+   * is back past the threshold by the hysteresis.
+   * @param channel channel to watch
+   * @param threshold the threshold
+   * @param above true to raise the alarm above the threshold, false below
+   * @param hysteresis distance back past the threshold that clears the alarm
+   * @param executor executor the listener is called on, null for the sampling thread
+   * @param listener the listener
+   */
+  void addThresholdAlarm(int channel, int threshold, boolean above, int hysteresis,
+                         Executor executor, AlarmListener listener);
+
+  /**
+   * Raise an alarm when a channel leaves the window [low:high]. The alarm is cleared once
+   * the value is back inside the window by the hysteresis.
+   * @param channel channel to watch
+   * @param low lowest value inside the window
+   * @param high highest value inside the window
+   * @param hysteresis distance inside the window that clears the alarm, at most half the
+   *                   width of the window
+   * @param executor executor the listener is called on, null for the sampling thread
+   * @param listener the listener
+   */
+  void addWindowAlarm(int channel, int low, int high, int hysteresis,
+                      Executor executor, AlarmListener listener);
+
+  /**
+   * Stop calling a listener
+   * @param listener the listener
+   */
+  void removeChangeListener(ChangeListener listener);
+
+  /**
+   * Remove every alarm of a listener
+   * @param listener the listener
+   */
+  void removeAlarmListener(AlarmListener listener);
+
   /**
    * clean up any threads
    */
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * A filter applied to each sample of an ADC channel, see
+ * {@link I2cAdc.I2cAdcBuilder#withFilter(int, AdcFilter...)}. A filter keeps state between
+ * samples, so each channel needs filters of its own. Filters are called on the sampling
+ * thread and must not allocate.
+ */
+public interface AdcFilter {
+  /**
+   * @param sample the next sample
+   * @return the filtered value
+   */
+  int filter(int sample);
+
+  /**
+   * Forget previous samples
+   */
+  void reset();
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * A set of values of every channel from a single conversion, filled by
+ * {@link Adc#readChannels(AdcSample)}. Reuse one to read without allocating.
+ */
+public final class AdcSample {
+
+  final int[] values;
+  private long sequence;
+  private long time = -1;
+
+  /**
+   * @param channels number of channels, 4 for a PCF8591
+   */
+  public AdcSample(int channels) {
+    values = new int[channels];
+  }
+
+  void set(long sequence, long time) {
+    this.sequence = sequence;
+    this.time = time;
+  }
+
+  /**
+   * @param channel the channel
+   * @return the value of the channel
+   */
+  public int getValue(int channel) {
+    return values[channel];
+  }
+
+  public int getChannelCount() {
+    return values.length;
+  }
+
+  /**
+   * @return number of the conversion, counting from 1, 0 before the first. A gap between
+   * sets read means conversions were missed.
+   */
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return time the values were sampled, in nanoseconds of
+   * {@code SystemClock.elapsedRealtimeNanos()}, -1 before the first
+   */
+  public long getSampleTime() {
+    return time;
+  }
+}
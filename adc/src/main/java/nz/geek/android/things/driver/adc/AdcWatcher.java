@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Checks each new value of a channel against the change listeners and alarms of the
+ * channel, on the sampling thread. Listeners are called on their executor, or on the
+ * sampling thread when they have none.
+ * <p>
+ * A change listener is called when the value differs from the last value it was given by
+ * more than its deadband. An alarm is raised when the value leaves its window and cleared
+ * when the value is back inside the window by the hysteresis, a threshold alarm is a
+ * window open at one end.
+ */
+/* package */ final class AdcWatcher {
+
+  private static final Watch[] NO_WATCHES = new Watch[0];
+
+  /**
+   * watches by channel, replaced rather than changed so they can be checked without locking
+   */
+  private volatile Watch[][] watches;
+
+  AdcWatcher(int channels) {
+    watches = new Watch[channels][];
+    Arrays.fill(watches, NO_WATCHES);
+  }
+
+  synchronized void addChangeListener(int channel, int deadband, Executor executor,
+                                      Adc.ChangeListener listener) {
+    if (deadband < 0) throw new IllegalArgumentException("invalid deadband");
+    add(channel, new ChangeWatch(executor, listener, deadband));
+  }
+
+  synchronized void addAlarm(int channel, int low, int high, int hysteresis, Executor executor,
+                             Adc.AlarmListener listener) {
+    if (low > high) throw new IllegalArgumentException("low above high");
+    if (hysteresis < 0) throw new IllegalArgumentException("invalid hysteresis");
+    // the alarm clears inside the window by the hysteresis from both edges
+    if (2L * hysteresis > (long) high - low) throw new IllegalArgumentException("hysteresis wider than window");
+    add(channel, new AlarmWatch(executor, listener, low, high, hysteresis));
+  }
+
+  private void add(int channel, Watch watch) {
+    Watch[][] next = watches.clone();
+    next[channel] = Arrays.copyOf(next[channel], next[channel].length + 1);
+    next[channel][next[channel].length - 1] = watch;
+    watches = next;
+  }
+
+  /**
+   * Remove every watch of the given listener
+   * @param listener a change or alarm listener
+   */
+  synchronized void remove(Object listener) {
+    Watch[][] next = watches.clone();
+    for (int channel = 0; channel < next.length; channel++) {
+      int kept = 0;
+      Watch[] channelWatches = next[channel];
+      Watch[] remaining = new Watch[channelWatches.length];
+      for (Watch watch : channelWatches) {
+        if (watch.listener != listener) remaining[kept++] = watch;
+      }
+      if (kept != channelWatches.length) {
+        next[channel] = kept == 0 ? NO_WATCHES : Arrays.copyOf(remaining, kept);
+      }
+    }
+    watches = next;
+  }
+
+  /**
+   * Check a new value of a channel, on the sampling thread
+   * @param channel the channel
+   * @param value the new value
+   */
+  void evaluate(int channel, int value) {
+    Watch[] channelWatches = watches[channel];
+    for (int i = 0; i < channelWatches.length; i++) {
+      channelWatches[i].evaluate(channel, value);
+    }
+  }
+
+  private abstract static class Watch {
+    final Executor executor;
+    final Object listener;
+
+    Watch(Executor executor, Object listener) {
+      this.executor = executor;
+      this.listener = listener;
+    }
+
+    /**
+     * check a value, state is only touched on the sampling thread
+     */
+    abstract void evaluate(int channel, int value);
+
+    void deliver(Delivery delivery) {
+      if (executor != null) {
+        executor.execute(delivery);
+      } else {
+        delivery.run();
+      }
+    }
+  }
+
+  private static final class ChangeWatch extends Watch {
+    private final int deadband;
+    private boolean reported = false;
+    private int lastReported;
+
+    ChangeWatch(Executor executor, Adc.ChangeListener listener, int deadband) {
+      super(executor, listener);
+      this.deadband = deadband;
+    }
+
+    @Override
+    void evaluate(int channel, int value) {
+      if (reported && Math.abs(value - lastReported) <= deadband) return;
+      reported = true;
+      lastReported = value;
+      deliver(new Delivery(this, channel, value, false));
+    }
+  }
+
+  private static final class AlarmWatch extends Watch {
+    private final int low;
+    private final int high;
+    private final int hysteresis;
+    private boolean active = false;
+
+    AlarmWatch(Executor executor, Adc.AlarmListener listener, int low, int high, int hysteresis) {
+      super(executor, listener);
+      this.low = low;
+      this.high = high;
+      this.hysteresis = hysteresis;
+    }
+
+    @Override
+    void evaluate(int channel, int value) {
+      boolean next;
+      if (active) {
+        // long arithmetic, a threshold alarm's open end is at the limit of int
+        next = value < (long) low + hysteresis || value > (long) high - hysteresis;
+      } else {
+        next = value < low || value > high;
+      }
+      if (next == active) return;
+      active = next;
+      deliver(new Delivery(this, channel, value, active));
+    }
+  }
+
+  /**
+   * a call to a listener, made on its executor
+   */
+  private static final class Delivery implements Runnable {
+    private final Watch watch;
+    private final int channel;
+    private final int value;
+    private final boolean active;
+
+    Delivery(Watch watch, int channel, int value, boolean active) {
+      this.watch = watch;
+      this.channel = channel;
+      this.value = value;
+      this.active = active;
+    }
+
+    @Override
+    public void run() {
+      if (watch instanceof ChangeWatch) {
+        ((Adc.ChangeListener) watch.listener).onChannelChanged(channel, value);
+      } else {
+        ((Adc.AlarmListener) watch.listener).onAlarm(channel, value, active);
+      }
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * Exponential moving average, each sample moves the value by alpha of the difference.
+ * A small alpha smooths more and responds more slowly. The first sample is taken as is.
+ */
+public final class EmaFilter implements AdcFilter {
+
+  private static final int FRACTION_BITS = 16;
+  private static final long HALF = 1L << (FRACTION_BITS - 1);
+
+  /**
+   * alpha and the value, in fixed point with {@link #FRACTION_BITS} fraction bits
+   */
+  private final long alpha;
+  private long value;
+  private boolean primed = false;
+
+  /**
+   * @param alpha weight of each new sample (0:1], 0.5 averages the last value and the sample
+   */
+  public EmaFilter(float alpha) {
+    if (!(alpha > 0 && alpha <= 1)) throw new IllegalArgumentException("alpha out of range");
+    this.alpha = Math.round(alpha * (1 << FRACTION_BITS));
+  }
+
+  @Override
+  public int filter(int sample) {
+    long scaled = (long) sample << FRACTION_BITS;
+    if (!primed) {
+      value = scaled;
+      primed = true;
+    } else {
+      value += (alpha * (scaled - value)) >> FRACTION_BITS;
+    }
+    return (int) ((value + HALF) >> FRACTION_BITS);
+  }
+
+  @Override
+  public void reset() {
+    primed = false;
+  }
+}
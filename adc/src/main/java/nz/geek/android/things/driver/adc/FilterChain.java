@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * The filters of one channel, applied in order.
+ */
+/* package */ final class FilterChain {
+
+  private final AdcFilter[] filters;
+
+  FilterChain(AdcFilter[] filters) {
+    this.filters = filters.clone();
+  }
+
+  /**
+   * @param sample the sample read
+   * @return the sample after every filter
+   */
+  int apply(int sample) {
+    int value = sample;
+    for (AdcFilter filter : filters) {
+      value = filter.filter(value);
+    }
+    return value;
+  }
+
+  void reset() {
+    for (AdcFilter filter : filters) {
+      filter.reset();
+    }
+  }
+}
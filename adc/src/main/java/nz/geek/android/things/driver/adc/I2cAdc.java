@@ -17,8 +17,12 @@ package nz.geek.android.things.driver.adc;
 
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import java.util.concurrent.Executor;
 
 import nz.geek.android.things.driver.pcf8591.Pcf8591;
+import nz.geek.android.things.driver.scheduler.BusScheduler;
 
 import static nz.geek.android.things.driver.pcf8591.Pcf8591.ANALOG_OUTPUT_ENABLE;
 import static nz.geek.android.things.driver.pcf8591.Pcf8591.MODE_FOUR_SINGLE_ENDED;
@@ -34,51 +38,210 @@ public class I2cAdc implements Adc {
    */
   private static final int DEFAULT_RATE = 500;
 
+  /**
+   * filter of channels without one of their own, the two sample average of earlier versions
+   */
+  private static final float DEFAULT_EMA_ALPHA = 0.5f;
+
   private static final int NUM_CHANNELS = 4;
   private static final int CHANNEL_MAX = 3;
   private static final int CHANNEL_MIN = 0;
+  private static final int MAX_OVERSAMPLING_BITS = 4;
+  private static final long NANOS_PER_MILLI = 1000000L;
+
+  /**
+   * filtered values of the conversion in progress, only used on the sampling thread
+   */
+  private final int[] values = new int[NUM_CHANNELS];
+  private final int[] rawValues = new int[NUM_CHANNELS];
+  private final int[] sums = new int[NUM_CHANNELS];
+
+  /**
+   * filters of each channel, only used on the sampling thread
+   */
+  private final FilterChain[] filters = new FilterChain[NUM_CHANNELS];
+
+  /**
+   * listeners and alarms, checked against each new value
+   */
+  private final AdcWatcher watcher = new AdcWatcher(NUM_CHANNELS);
 
-  private int[] values = new int[NUM_CHANNELS];
+  /**
+   * adapts the time between conversions to the signal, null for the fixed conversion rate
+   */
+  private final AdaptiveConversionRate adaptiveRate;
 
+  /**
+   * extra bits of resolution, each conversion sums 4^n reads and drops n bits
+   */
+  private final int oversamplingBits;
+
+  /**
+   * schedules conversions and times the samples
+   */
+  private final SampleClock sampleClock;
+
+  /**
+   * values of the latest conversion, as read by the application
+   */
+  private final SampleBuffer published = new SampleBuffer(NUM_CHANNELS);
+
+  /**
+   * own thread and handler, null when conversions run on a {@link BusScheduler}
+   */
   private final HandlerThread handlerThread;
   private final Handler handler;
+  private final BusScheduler scheduler;
   private final AdcReaderRunnable adcReaderRunnable = new AdcReaderRunnable();
   private final Pcf8591 pcf8591;
   private final int conversionRate;
 
-  private I2cAdc(int address, int mode, int conversionRate, String bus) {
-    this.conversionRate = conversionRate;
-    handlerThread = new HandlerThread(I2cAdc.class.getSimpleName());
-    handlerThread.start();
-    handler = new Handler(handlerThread.getLooper());
+  private I2cAdc(I2cAdcBuilder builder) {
+    this.conversionRate = builder.rate;
+    this.scheduler = builder.scheduler;
+    this.oversamplingBits = builder.oversamplingBits;
+    this.sampleClock = new SampleClock(builder.fixedRate);
+    if (builder.fastestMs > 0) {
+      adaptiveRate = new AdaptiveConversionRate(NUM_CHANNELS, builder.fastestMs, builder.slowestMs,
+          builder.deltaThreshold, builder.varianceThreshold);
+    } else {
+      adaptiveRate = null;
+    }
+    for (int i = 0; i < NUM_CHANNELS; i++) {
+      AdcFilter[] chain = builder.filters[i];
+      if (chain == null) chain = new AdcFilter[] {new EmaFilter(DEFAULT_EMA_ALPHA)};
+      filters[i] = new FilterChain(chain);
+    }
+    String bus = builder.bus;
+    int address = builder.address;
+    if (scheduler != null) {
+      handlerThread = null;
+      handler = null;
+    } else {
+      handlerThread = new HandlerThread(I2cAdc.class.getSimpleName());
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
     if (bus != null) {
       pcf8591 = Pcf8591.create(address, bus);
+    } else if (scheduler != null) {
+      pcf8591 = Pcf8591.create(address, scheduler.getBus());
     } else {
       pcf8591 = Pcf8591.create(address);
     }
-    pcf8591.configure(ANALOG_OUTPUT_ENABLE | mode);
+    pcf8591.configure(ANALOG_OUTPUT_ENABLE | builder.mode);
   }
 
   @Override
   public int readChannel(int channel) {
     if (channel < CHANNEL_MIN || channel > CHANNEL_MAX) return -1;
-    return values[channel];
+    return published.get(channel);
+  }
+
+  @Override
+  public long readChannels(int[] dst) {
+    if (dst.length < NUM_CHANNELS) throw new IllegalArgumentException("too few channels");
+    return published.read(dst);
+  }
+
+  @Override
+  public void readChannels(AdcSample sample) {
+    if (sample.getChannelCount() < NUM_CHANNELS) throw new IllegalArgumentException("too few channels");
+    published.read(sample);
+  }
+
+  @Override
+  public int getConversionRate() {
+    return adaptiveRate != null ? adaptiveRate.getIntervalMs() : conversionRate;
+  }
+
+  @Override
+  public long getSampleTime() {
+    return published.getTime();
+  }
+
+  @Override
+  public SampleTiming getSampleTiming() {
+    return sampleClock.getTiming();
+  }
+
+  @Override
+  public void resetSampleTiming() {
+    sampleClock.reset();
+  }
+
+  @Override
+  public void addChangeListener(int channel, int deadband, Executor executor, ChangeListener listener) {
+    checkChannel(channel);
+    watcher.addChangeListener(channel, deadband, executor, listener);
+  }
+
+  @Override
+  public void addThresholdAlarm(int channel, int threshold, boolean above, int hysteresis,
+                                Executor executor, AlarmListener listener) {
+    checkChannel(channel);
+    if (above) {
+      watcher.addAlarm(channel, Integer.MIN_VALUE, threshold, hysteresis, executor, listener);
+    } else {
+      watcher.addAlarm(channel, threshold, Integer.MAX_VALUE, hysteresis, executor, listener);
+    }
+  }
+
+  @Override
+  public void addWindowAlarm(int channel, int low, int high, int hysteresis,
+                             Executor executor, AlarmListener listener) {
+    checkChannel(channel);
+    watcher.addAlarm(channel, low, high, hysteresis, executor, listener);
+  }
+
+  @Override
+  public void removeChangeListener(ChangeListener listener) {
+    watcher.remove(listener);
+  }
+
+  @Override
+  public void removeAlarmListener(AlarmListener listener) {
+    watcher.remove(listener);
+  }
+
+  /**
+   * @return true when each conversion schedules the next, false when the scheduler repeats it
+   */
+  private boolean reschedules() {
+    return scheduler == null || adaptiveRate != null || sampleClock.isFixedRate();
+  }
+
+  private static void checkChannel(int channel) {
+    if (channel < CHANNEL_MIN || channel > CHANNEL_MAX) throw new IllegalArgumentException("invalid channel");
   }
 
   @Override
   public void startConversions() {
-    handler.post(adcReaderRunnable);
+    sampleClock.start(SystemClock.elapsedRealtimeNanos());
+    if (scheduler != null && reschedules()) {
+      scheduler.post(BusScheduler.PRIORITY_POLL, adcReaderRunnable);
+    } else if (scheduler != null) {
+      scheduler.schedulePeriodic(BusScheduler.PRIORITY_POLL, adcReaderRunnable, 0, conversionRate);
+    } else {
+      handler.post(adcReaderRunnable);
+    }
   }
 
   @Override
   public void stopConversions() {
-    handler.removeCallbacks(adcReaderRunnable);
+    if (scheduler != null) {
+      scheduler.removeCallbacks(adcReaderRunnable);
+    } else {
+      handler.removeCallbacks(adcReaderRunnable);
+    }
   }
 
   @Override
   public void close() {
     stopConversions();
-    handlerThread.quitSafely();
+    if (handlerThread != null) {
+      handlerThread.quitSafely();
+    }
     pcf8591.close();
   }
 
@@ -92,6 +255,14 @@ public class I2cAdc implements Adc {
     private int mode;
     private int rate = DEFAULT_RATE;
     private String bus = null;
+    private BusScheduler scheduler = null;
+    private final AdcFilter[][] filters = new AdcFilter[NUM_CHANNELS][];
+    private int oversamplingBits = 0;
+    private int fastestMs = 0;
+    private int slowestMs;
+    private int deltaThreshold;
+    private int varianceThreshold;
+    private boolean fixedRate = false;
 
     public I2cAdcBuilder address(int address) {
       this.address = address;
@@ -128,19 +299,144 @@ public class I2cAdc implements Adc {
       return this;
     }
 
+    /**
+     * Run conversions on the given {@link BusScheduler} instead of a thread of their own.
+     * If no bus is given with {@link #withBus(String)} the scheduler's bus is used.
+     * @param scheduler the scheduler of the I2C bus the ADC is connected to
+     * @return the builder
+     */
+    public I2cAdcBuilder withScheduler(BusScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Filter the samples of a channel with the given filters, applied in order. Without
+     * this a channel averages each sample with the last value, an {@link EmaFilter} with
+     * an alpha of 0.5.
+     * <pre>
+     * builder.withFilter(0, new MedianFilter(5), new EmaFilter(0.2f))
+     * </pre>
+     * @param channel the channel [0:3]
+     * @param filters filters for this channel only, none for raw samples
+     * @return the builder
+     */
+    public I2cAdcBuilder withFilter(int channel, AdcFilter... filters) {
+      checkChannel(channel);
+      for (int i = 0; i < NUM_CHANNELS; i++) {
+        if (i == channel || this.filters[i] == null) continue;
+        for (AdcFilter filter : filters) {
+          for (AdcFilter other : this.filters[i]) {
+            if (filter == other) throw new IllegalArgumentException("filter used by another channel");
+          }
+        }
+      }
+      this.filters[channel] = filters.clone();
+      return this;
+    }
+
+    /**
+     * Oversample and decimate for extra resolution. Each conversion reads every channel
+     * 4^bits times and sums the reads, dropping bits. Channel values then range over
+     * [0:(256 << bits) - 1]. Noise of at least a bit is needed for the extra bits to mean
+     * anything.
+     * @param bits extra bits [0:4], 0 for a single read per conversion
+     * @return the builder
+     */
+    public I2cAdcBuilder withOversampling(int bits) {
+      if (bits < 0 || bits > MAX_OVERSAMPLING_BITS) throw new IllegalArgumentException("invalid oversampling");
+      this.oversamplingBits = bits;
+      return this;
+    }
+
+    /**
+     * Adapt the time between conversions to the signal instead of converting at the rate
+     * given with {@link #withConversionRate(int)}. Conversions run at the fastest interval
+     * while any channel is moving, and slow down to the slowest interval once every channel
+     * has been still for a while. Thresholds are in filtered channel values.
+     * @param fastestMs interval while a channel is moving
+     * @param slowestMs interval when every channel is still
+     * @param deltaThreshold change between conversions that counts as moving
+     * @param varianceThreshold variance of a channel that counts as moving, 0 to ignore it
+     * @return the builder
+     */
+    public I2cAdcBuilder withAdaptiveRate(int fastestMs, int slowestMs, int deltaThreshold,
+                                          int varianceThreshold) {
+      if (fastestMs <= 0 || slowestMs < fastestMs) throw new IllegalArgumentException("invalid intervals");
+      if (deltaThreshold < 0 || varianceThreshold < 0) throw new IllegalArgumentException("invalid threshold");
+      this.fastestMs = fastestMs;
+      this.slowestMs = slowestMs;
+      this.deltaThreshold = deltaThreshold;
+      this.varianceThreshold = varianceThreshold;
+      return this;
+    }
+
+    /**
+     * Convert at fixed times, each due a whole number of periods after
+     * {@link #startConversions()} on the {@link SystemClock#elapsedRealtimeNanos()} clock.
+     * Without this each conversion is due a period after the last one ran, so the rate
+     * drifts by the time a conversion takes. A conversion running later than the next due
+     * time skips it, see {@link SampleTiming#getOverruns()}. Combines with
+     * {@link #withAdaptiveRate(int, int, int, int)}, the period being the current interval.
+     * @return the builder
+     */
+    public I2cAdcBuilder withFixedRate() {
+      this.fixedRate = true;
+      return this;
+    }
+
     public I2cAdc build() {
-      return new I2cAdc(address, mode, rate, bus);
+      return new I2cAdc(this);
+    }
+  }
+
+  /**
+   * Read every channel, summing and decimating the reads when oversampling
+   * @return true when every read succeeded
+   */
+  private boolean convert() {
+    int reads = 1 << (2 * oversamplingBits);
+    for (int i = 0; i < NUM_CHANNELS; i++) {
+      sums[i] = 0;
+    }
+    for (int read = 0; read < reads; read++) {
+      if (!pcf8591.readAllChannels(rawValues)) return false;
+      for (int i = 0; i < NUM_CHANNELS; i++) {
+        sums[i] += rawValues[i];
+      }
+    }
+    for (int i = 0; i < NUM_CHANNELS; i++) {
+      sums[i] >>= oversamplingBits;
     }
+    return true;
   }
 
   private class AdcReaderRunnable implements Runnable {
     @Override
     public void run() {
-      int[] rawValues = pcf8591.readAllChannels();
-      for (int i = 0; i < CHANNEL_MAX; i++) {
-        values[i] = (values[i] + rawValues[i]) / 2;
+      long start = SystemClock.elapsedRealtimeNanos();
+      if (convert()) {
+        // stamped half way through the reads, they're spread over the conversion
+        long time = start + (SystemClock.elapsedRealtimeNanos() - start) / 2;
+        sampleClock.sampled(time);
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+          values[i] = filters[i].apply(sums[i]);
+        }
+        published.publish(values, time);
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+          watcher.evaluate(i, values[i]);
+        }
+        if (adaptiveRate != null) adaptiveRate.update(values);
+      }
+      int period = adaptiveRate != null ? adaptiveRate.getIntervalMs() : conversionRate;
+      long delay = sampleClock.next(SystemClock.elapsedRealtimeNanos(), period * NANOS_PER_MILLI);
+      if (!reschedules()) return;
+      long delayMs = (delay + NANOS_PER_MILLI / 2) / NANOS_PER_MILLI;
+      if (scheduler != null) {
+        scheduler.postDelayed(BusScheduler.PRIORITY_POLL, this, delayMs);
+      } else {
+        handler.postDelayed(this, delayMs);
       }
-      handler.postDelayed(this, conversionRate);
     }
   }
 }
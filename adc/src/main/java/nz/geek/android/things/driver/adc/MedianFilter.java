@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * Median of the last N samples, rejects spikes shorter than half the length without
+ * smoothing edges. Odd lengths work best, with an even number of samples the two middle
+ * samples are averaged.
+ * <p>
+ * The samples are kept in arrival order and in sorted order, each sample replaces the
+ * oldest in the sorted samples in O(N).
+ */
+public final class MedianFilter implements AdcFilter {
+
+  private final int[] samples;
+  private final int[] sorted;
+  private int next = 0;
+  private int count = 0;
+
+  /**
+   * @param length number of samples the median is taken of
+   */
+  public MedianFilter(int length) {
+    if (length < 1) throw new IllegalArgumentException("invalid length");
+    samples = new int[length];
+    sorted = new int[length];
+  }
+
+  @Override
+  public int filter(int sample) {
+    if (count == samples.length) {
+      remove(samples[next]);
+    }
+    insert(sample);
+    samples[next] = sample;
+    next = (next + 1) % samples.length;
+    return (sorted[(count - 1) / 2] + sorted[count / 2] + 1) / 2;
+  }
+
+  private void remove(int sample) {
+    int i = 0;
+    while (sorted[i] != sample) {
+      i++;
+    }
+    System.arraycopy(sorted, i + 1, sorted, i, count - i - 1);
+    count--;
+  }
+
+  private void insert(int sample) {
+    int i = count;
+    while (i > 0 && sorted[i - 1] > sample) {
+      sorted[i] = sorted[i - 1];
+      i--;
+    }
+    sorted[i] = sample;
+    count++;
+  }
+
+  @Override
+  public void reset() {
+    next = 0;
+    count = 0;
+  }
+}
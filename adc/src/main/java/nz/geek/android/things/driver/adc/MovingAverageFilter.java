@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * Average of the last N samples, or of every sample until there are N.
+ */
+public final class MovingAverageFilter implements AdcFilter {
+
+  private final int[] samples;
+  private int next = 0;
+  private int count = 0;
+  private long sum = 0;
+
+  /**
+   * @param length number of samples averaged
+   */
+  public MovingAverageFilter(int length) {
+    if (length < 1) throw new IllegalArgumentException("invalid length");
+    samples = new int[length];
+  }
+
+  @Override
+  public int filter(int sample) {
+    if (count == samples.length) {
+      sum -= samples[next];
+    } else {
+      count++;
+    }
+    samples[next] = sample;
+    sum += sample;
+    next = (next + 1) % samples.length;
+    return (int) ((sum + count / 2) / count);
+  }
+
+  @Override
+  public void reset() {
+    next = 0;
+    count = 0;
+    sum = 0;
+  }
+}
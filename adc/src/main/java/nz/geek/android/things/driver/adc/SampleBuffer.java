@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The latest values of every channel, published by the sampling thread and read from any
+ * as a set from a single conversion.
+ * <p>
+ * A seqlock, the sequence is odd while a set is being written. A reader copies the set and
+ * tries again if the sequence changed or was odd, so the sampler never waits on a reader.
+ * The values are held in an {@link AtomicIntegerArray} so each read is ordered between the
+ * reads of the sequence.
+ */
+/* package */ final class SampleBuffer {
+
+  private final AtomicIntegerArray values;
+  private volatile long time = -1;
+  private volatile long sequence = 0;
+
+  SampleBuffer(int channels) {
+    values = new AtomicIntegerArray(channels);
+  }
+
+  /**
+   * Publish a set of values, only called from the sampling thread
+   * @param newValues value of each channel
+   * @param sampleTime time the values were sampled
+   */
+  void publish(int[] newValues, long sampleTime) {
+    long next = sequence + 1;
+    sequence = next;
+    for (int i = 0; i < newValues.length; i++) {
+      values.set(i, newValues[i]);
+    }
+    time = sampleTime;
+    sequence = next + 1;
+  }
+
+  /**
+   * @param channel the channel
+   * @return the latest value of the channel
+   */
+  int get(int channel) {
+    return values.get(channel);
+  }
+
+  long getTime() {
+    return time;
+  }
+
+  int getChannelCount() {
+    return values.length();
+  }
+
+  /**
+   * Copy the latest set of values
+   * @param dst filled with the value of each channel, at least as long as the channels
+   * @return the sequence number of the set, 0 before the first
+   */
+  long read(int[] dst) {
+    while (true) {
+      long before = sequence;
+      if ((before & 1) == 0) {
+        for (int i = 0; i < values.length(); i++) {
+          dst[i] = values.get(i);
+        }
+        if (sequence == before) return before / 2;
+      }
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Copy the latest set of values and the time they were sampled
+   * @param sample filled with the set, with at least as many channels
+   */
+  void read(AdcSample sample) {
+    int[] dst = sample.values;
+    while (true) {
+      long before = sequence;
+      if ((before & 1) == 0) {
+        for (int i = 0; i < values.length(); i++) {
+          dst[i] = values.get(i);
+        }
+        long sampleTime = time;
+        if (sequence == before) {
+          sample.set(before / 2, sampleTime);
+          return;
+        }
+      }
+      Thread.yield();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * Schedules conversions and keeps running statistics of the time between samples. Times
+ * are in nanoseconds, taken by the caller from {@code SystemClock.elapsedRealtimeNanos()}.
+ * <p>
+ * At a fixed rate each conversion is due at an absolute deadline a whole number of periods
+ * after the start, so time taken by a conversion or lost to a late wakeup doesn't build up.
+ * A conversion late by more than a period skips the deadlines it missed, each counted as
+ * an overrun, rather than running a burst of conversions to catch up.
+ * <p>
+ * Statistics are kept on the sampling thread and may be read from any.
+ */
+/* package */ final class SampleClock {
+
+  private final boolean fixedRate;
+
+  private long deadline;
+  /**
+   * time scheduled since the last sample, more than one period when a conversion failed
+   */
+  private long scheduledPeriod;
+  private long lastTime = -1;
+
+  private long periods;
+  private long sumPeriod;
+  private long minPeriod;
+  private long maxPeriod;
+  private double sumSquaredError;
+  private long maxError;
+  private long overruns;
+
+  /**
+   * @param fixedRate true to schedule at absolute deadlines, false to wait a period after
+   *                  each conversion
+   */
+  SampleClock(boolean fixedRate) {
+    this.fixedRate = fixedRate;
+  }
+
+  boolean isFixedRate() {
+    return fixedRate;
+  }
+
+  /**
+   * Start a run of conversions, the first due now. The gap since the last run isn't counted.
+   * @param now the time
+   */
+  synchronized void start(long now) {
+    deadline = now;
+    lastTime = -1;
+    scheduledPeriod = 0;
+  }
+
+  /**
+   * Record a sample
+   * @param time time the sample was taken
+   */
+  synchronized void sampled(long time) {
+    if (lastTime >= 0) {
+      long period = time - lastTime;
+      long error = period - scheduledPeriod;
+      if (periods == 0) {
+        minPeriod = period;
+        maxPeriod = period;
+      } else {
+        minPeriod = Math.min(minPeriod, period);
+        maxPeriod = Math.max(maxPeriod, period);
+      }
+      periods++;
+      sumPeriod += period;
+      sumSquaredError += (double) error * error;
+      maxError = Math.max(maxError, Math.abs(error));
+    }
+    lastTime = time;
+    scheduledPeriod = 0;
+  }
+
+  /**
+   * Schedule the next conversion. When the last conversion failed, so wasn't
+   * {@link #sampled(long)}, the next sample is measured against both periods.
+   * @param now the time
+   * @param period time between conversions
+   * @return time from now the next conversion is due
+   */
+  synchronized long next(long now, long period) {
+    if (!fixedRate) {
+      scheduledPeriod += period;
+      return period;
+    }
+    long last = deadline;
+    deadline += period;
+    if (deadline <= now) {
+      long missed = (now - deadline) / period + 1;
+      deadline += missed * period;
+      overruns += missed;
+    }
+    scheduledPeriod += deadline - last;
+    return deadline - now;
+  }
+
+  /**
+   * Clear the statistics
+   */
+  synchronized void reset() {
+    lastTime = -1;
+    periods = 0;
+    sumPeriod = 0;
+    minPeriod = 0;
+    maxPeriod = 0;
+    sumSquaredError = 0;
+    maxError = 0;
+    overruns = 0;
+  }
+
+  synchronized SampleTiming getTiming() {
+    long mean = periods == 0 ? 0 : sumPeriod / periods;
+    long jitter = periods == 0 ? 0 : (long) Math.sqrt(sumSquaredError / periods);
+    return new SampleTiming(periods, mean, minPeriod, maxPeriod, jitter, maxError, overruns);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.adc;
+
+/**
+ * Statistics of the time between samples, see {@link Adc#getSampleTiming()}. Times are in
+ * nanoseconds of {@code SystemClock.elapsedRealtimeNanos()}.
+ */
+public final class SampleTiming {
+
+  private final long periods;
+  private final long meanPeriodNanos;
+  private final long minPeriodNanos;
+  private final long maxPeriodNanos;
+  private final long jitterNanos;
+  private final long maxJitterNanos;
+  private final long overruns;
+
+  SampleTiming(long periods, long meanPeriodNanos, long minPeriodNanos, long maxPeriodNanos,
+               long jitterNanos, long maxJitterNanos, long overruns) {
+    this.periods = periods;
+    this.meanPeriodNanos = meanPeriodNanos;
+    this.minPeriodNanos = minPeriodNanos;
+    this.maxPeriodNanos = maxPeriodNanos;
+    this.jitterNanos = jitterNanos;
+    this.maxJitterNanos = maxJitterNanos;
+    this.overruns = overruns;
+  }
+
+  /**
+   * @return number of periods measured, one less than the samples
+   */
+  public long getPeriods() {
+    return periods;
+  }
+
+  /**
+   * @return mean time between samples
+   */
+  public long getMeanPeriodNanos() {
+    return meanPeriodNanos;
+  }
+
+  public long getMinPeriodNanos() {
+    return minPeriodNanos;
+  }
+
+  public long getMaxPeriodNanos() {
+    return maxPeriodNanos;
+  }
+
+  /**
+   * @return root mean square difference of each period from the period scheduled
+   */
+  public long getJitterNanos() {
+    return jitterNanos;
+  }
+
+  /**
+   * @return largest difference of a period from the period scheduled
+   */
+  public long getMaxJitterNanos() {
+    return maxJitterNanos;
+  }
+
+  /**
+   * @return number of sample times missed because a conversion ran late
+   */
+  public long getOverruns() {
+    return overruns;
+  }
+
+  @Override
+  public String toString() {
+    return "SampleTiming{periods=" + periods
+        + ", mean=" + meanPeriodNanos
+        + ", min=" + minPeriodNanos
+        + ", max=" + maxPeriodNanos
+        + ", jitter=" + jitterNanos
+        + ", maxJitter=" + maxJitterNanos
+        + ", overruns=" + overruns + "}";
+  }
+}
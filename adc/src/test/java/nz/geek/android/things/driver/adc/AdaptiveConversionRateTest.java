@@ -0,0 +1,49 @@
+package nz.geek.android.things.driver.adc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConversionRateTest {
+
+  @Test
+  public void testStartsSlow() {
+    AdaptiveConversionRate rate = new AdaptiveConversionRate(2, 10, 500, 2, 0);
+    assertEquals(500, rate.getIntervalMs());
+    assertEquals(500, rate.update(new int[] {100, 0}));
+    assertEquals(500, rate.update(new int[] {101, 2}));
+  }
+
+  @Test
+  public void testDeltaSpeedsUpThenDecays() {
+    AdaptiveConversionRate rate = new AdaptiveConversionRate(2, 10, 500, 2, 0);
+    rate.update(new int[] {100, 0});
+    assertEquals(10, rate.update(new int[] {100, 5}));
+    assertEquals(13, rate.update(new int[] {100, 5}));
+    assertEquals(17, rate.update(new int[] {100, 5}));
+    int interval = 0;
+    int conversions = 0;
+    while (interval < 500) {
+      interval = rate.update(new int[] {100, 5});
+      conversions++;
+    }
+    assertEquals(500, interval);
+    assertTrue("took " + conversions, conversions < 20);
+    // back to fast on the next move
+    assertEquals(10, rate.update(new int[] {90, 5}));
+  }
+
+  @Test
+  public void testVarianceCatchesSmallSteps() {
+    AdaptiveConversionRate deltaOnly = new AdaptiveConversionRate(1, 10, 500, 4, 0);
+    AdaptiveConversionRate withVariance = new AdaptiveConversionRate(1, 10, 500, 4, 20);
+    // a ramp of 4 per conversion never trips the delta threshold
+    for (int value = 0; value < 100; value += 4) {
+      deltaOnly.update(new int[] {value});
+      withVariance.update(new int[] {value});
+    }
+    assertEquals(500, deltaOnly.getIntervalMs());
+    assertEquals(10, withVariance.getIntervalMs());
+  }
+}
@@ -0,0 +1,103 @@
+package nz.geek.android.things.driver.adc;
+
+import org.junit.Test;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class AdcFilterTest {
+
+  @Test
+  public void testEma() {
+    EmaFilter ema = new EmaFilter(0.5f);
+    assertEquals(100, ema.filter(100));
+    assertEquals(150, ema.filter(200));
+    assertEquals(175, ema.filter(200));
+
+    EmaFilter slow = new EmaFilter(0.1f);
+    slow.filter(0);
+    int value = 0;
+    for (int i = 0; i < 10; i++) {
+      value = slow.filter(255);
+    }
+    // 1 - 0.9^10 of the step
+    assertEquals(166, value);
+  }
+
+  @Test
+  public void testEmaSettlesOnTheSample() {
+    EmaFilter ema = new EmaFilter(0.05f);
+    ema.filter(0);
+    int value = 0;
+    for (int i = 0; i < 1000; i++) {
+      value = ema.filter(37);
+    }
+    assertEquals(37, value);
+    ema.reset();
+    assertEquals(5, ema.filter(5));
+  }
+
+  @Test
+  public void testMovingAverage() {
+    MovingAverageFilter average = new MovingAverageFilter(4);
+    assertEquals(10, average.filter(10));
+    assertEquals(15, average.filter(20));
+    assertEquals(20, average.filter(30));
+    assertEquals(25, average.filter(40));
+    // 10 drops out
+    assertEquals(35, average.filter(50));
+    average.reset();
+    assertEquals(7, average.filter(7));
+  }
+
+  @Test
+  public void testMedianRejectsSpikes() {
+    MedianFilter median = new MedianFilter(5);
+    int[] samples = {100, 101, 255, 99, 100, 0, 102, 101, 255, 255, 100};
+    int[] expected = {100, 101, 101, 101, 100, 100, 100, 100, 101, 102, 102};
+    for (int i = 0; i < samples.length; i++) {
+      assertEquals("sample " + i, expected[i], median.filter(samples[i]));
+    }
+  }
+
+  @Test
+  public void testMedianFollowsSteps() {
+    MedianFilter median = new MedianFilter(3);
+    median.filter(10);
+    median.filter(10);
+    median.filter(10);
+    assertEquals(10, median.filter(200));
+    assertEquals(200, median.filter(200));
+  }
+
+  @Test
+  public void testChainAppliesInOrder() {
+    FilterChain chain = new FilterChain(new AdcFilter[] {new MedianFilter(3), new EmaFilter(0.5f)});
+    chain.apply(100);
+    chain.apply(100);
+    assertEquals(100, chain.apply(100));
+    // the spike is rejected before it reaches the average
+    assertEquals(100, chain.apply(255));
+    assertEquals(110, chain.apply(120));
+    FilterChain raw = new FilterChain(new AdcFilter[0]);
+    assertEquals(42, raw.apply(42));
+  }
+
+  @Test
+  public void testFiltersDoNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    final FilterChain chain = new FilterChain(new AdcFilter[] {
+        new MedianFilter(7), new MovingAverageFilter(8), new EmaFilter(0.3f)});
+    final int[] sample = new int[1];
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        chain.apply(sample[0]++ & 0xFF);
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+  }
+}
@@ -0,0 +1,122 @@
+package nz.geek.android.things.driver.adc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdcWatcherTest {
+
+  private AdcWatcher watcher;
+  private final List<String> events = new ArrayList<>();
+
+  private final Adc.ChangeListener changeListener = new Adc.ChangeListener() {
+    @Override
+    public void onChannelChanged(int channel, int value) {
+      events.add("change " + channel + " " + value);
+    }
+  };
+
+  private final Adc.AlarmListener alarmListener = new Adc.AlarmListener() {
+    @Override
+    public void onAlarm(int channel, int value, boolean active) {
+      events.add((active ? "raise " : "clear ") + channel + " " + value);
+    }
+  };
+
+  @Before
+  public void before() {
+    watcher = new AdcWatcher(4);
+  }
+
+  private void feed(int channel, int... values) {
+    for (int value : values) {
+      watcher.evaluate(channel, value);
+    }
+  }
+
+  @Test
+  public void testDeadband() {
+    watcher.addChangeListener(1, 3, null, changeListener);
+    feed(1, 100, 102, 103, 104, 101, 100, 99);
+    feed(0, 0, 255);
+    assertEquals("[change 1 100, change 1 104, change 1 100]", events.toString());
+  }
+
+  @Test
+  public void testNoDeadbandReportsEveryChange() {
+    watcher.addChangeListener(2, 0, null, changeListener);
+    feed(2, 5, 5, 6, 6, 5);
+    assertEquals("[change 2 5, change 2 6, change 2 5]", events.toString());
+  }
+
+  @Test
+  public void testThresholdAlarmWithHysteresis() {
+    // above 200, cleared at 190 or below
+    watcher.addAlarm(0, Integer.MIN_VALUE, 200, 10, null, alarmListener);
+    feed(0, 150, 200, 201, 220, 195, 191, 190, 205, 0);
+    assertEquals("[raise 0 201, clear 0 190, raise 0 205, clear 0 0]", events.toString());
+  }
+
+  @Test
+  public void testBelowThresholdAlarm() {
+    watcher.addAlarm(3, 50, Integer.MAX_VALUE, 5, null, alarmListener);
+    feed(3, 60, 49, 54, 55, Integer.MAX_VALUE);
+    assertEquals("[raise 3 49, clear 3 55]", events.toString());
+  }
+
+  @Test
+  public void testWindowAlarm() {
+    watcher.addAlarm(0, 100, 150, 5, null, alarmListener);
+    feed(0, 120, 99, 104, 105, 151, 146, 145);
+    assertEquals("[raise 0 99, clear 0 105, raise 0 151, clear 0 145]", events.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHysteresisWiderThanWindowRejected() {
+    // would have to clear at or above 130 and at or below 120
+    watcher.addAlarm(0, 100, 150, 30, null, alarmListener);
+  }
+
+  @Test
+  public void testHysteresisOfHalfTheWindow() {
+    watcher.addAlarm(0, 100, 150, 25, null, alarmListener);
+    feed(0, 99, 124, 125);
+    assertEquals("[raise 0 99, clear 0 125]", events.toString());
+  }
+
+  @Test
+  public void testDeliveredOnExecutor() {
+    final List<Runnable> queued = new ArrayList<>();
+    Executor executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        queued.add(command);
+      }
+    };
+    watcher.addChangeListener(0, 0, executor, changeListener);
+    feed(0, 1, 2);
+    assertTrue(events.isEmpty());
+    assertEquals(2, queued.size());
+    for (Runnable runnable : queued) {
+      runnable.run();
+    }
+    assertEquals("[change 0 1, change 0 2]", events.toString());
+  }
+
+  @Test
+  public void testRemove() {
+    watcher.addChangeListener(0, 0, null, changeListener);
+    watcher.addChangeListener(1, 0, null, changeListener);
+    watcher.addAlarm(0, 0, 10, 0, null, alarmListener);
+    watcher.remove(changeListener);
+    feed(0, 20);
+    feed(1, 20);
+    assertEquals("[raise 0 20]", events.toString());
+  }
+}
@@ -0,0 +1,95 @@
+package nz.geek.android.things.driver.adc;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class SampleBufferTest {
+
+  private final SampleBuffer buffer = new SampleBuffer(4);
+
+  @Test
+  public void testEmpty() {
+    int[] dst = new int[4];
+    assertEquals(0, buffer.read(dst));
+    AdcSample sample = new AdcSample(4);
+    buffer.read(sample);
+    assertEquals(0, sample.getSequence());
+    assertEquals(-1, sample.getSampleTime());
+  }
+
+  @Test
+  public void testReadsLatestSet() {
+    buffer.publish(new int[] {1, 2, 3, 4}, 100);
+    buffer.publish(new int[] {5, 6, 7, 8}, 200);
+    int[] dst = new int[4];
+    assertEquals(2, buffer.read(dst));
+    assertEquals(5, dst[0]);
+    assertEquals(8, dst[3]);
+    assertEquals(7, buffer.get(2));
+
+    AdcSample sample = new AdcSample(4);
+    buffer.read(sample);
+    assertEquals(2, sample.getSequence());
+    assertEquals(200, sample.getSampleTime());
+    assertEquals(6, sample.getValue(1));
+  }
+
+  @Test
+  public void testSetsAreNeverTorn() throws InterruptedException {
+    final AtomicBoolean done = new AtomicBoolean();
+    Thread sampler = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        int[] values = new int[4];
+        for (int i = 1; i <= 200000; i++) {
+          for (int channel = 0; channel < 4; channel++) {
+            values[channel] = i;
+          }
+          buffer.publish(values, i * 10L);
+        }
+        done.set(true);
+      }
+    });
+    sampler.start();
+    AdcSample sample = new AdcSample(4);
+    long last = 0;
+    while (!done.get()) {
+      buffer.read(sample);
+      long sequence = sample.getSequence();
+      assertTrue("went back", sequence >= last);
+      last = sequence;
+      if (sequence == 0) continue;
+      for (int channel = 0; channel < 4; channel++) {
+        assertEquals(sequence, sample.getValue(channel));
+      }
+      assertEquals(sequence * 10, sample.getSampleTime());
+    }
+    sampler.join();
+    buffer.read(sample);
+    assertEquals(200000, sample.getSequence());
+  }
+
+  @Test
+  public void testReadDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    final int[] dst = new int[4];
+    final AdcSample sample = new AdcSample(4);
+    buffer.publish(new int[] {1, 2, 3, 4}, 100);
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        buffer.publish(dst, 100);
+        buffer.read(dst);
+        buffer.read(sample);
+      }
+    }, 1000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 1000);
+  }
+}
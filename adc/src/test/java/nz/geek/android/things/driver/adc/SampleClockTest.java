@@ -0,0 +1,101 @@
+package nz.geek.android.things.driver.adc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleClockTest {
+
+  private static final long PERIOD = 10000000L;
+
+  @Test
+  public void testFixedRateDoesNotDrift() {
+    SampleClock clock = new SampleClock(true);
+    long now = 1000;
+    clock.start(now);
+    for (int i = 0; i < 100; i++) {
+      // each conversion takes 3 ms and wakes up 1 ms late
+      clock.sampled(now + 1500000);
+      now += 3000000;
+      long delay = clock.next(now, PERIOD);
+      assertEquals(PERIOD - 3000000 - (i == 0 ? 0 : 1000000), delay);
+      now += delay + 1000000;
+    }
+    assertEquals(1000 + 100 * PERIOD + 1000000, now);
+    assertEquals(0, clock.getTiming().getOverruns());
+  }
+
+  @Test
+  public void testOverrunSkipsMissedDeadlines() {
+    SampleClock clock = new SampleClock(true);
+    clock.start(0);
+    clock.sampled(0);
+    // ran 2.5 periods late, the deadlines at 1 and 2 periods are missed
+    assertEquals(PERIOD / 2, clock.next(PERIOD * 5 / 2, PERIOD));
+    clock.sampled(PERIOD * 3);
+    SampleTiming timing = clock.getTiming();
+    assertEquals(2, timing.getOverruns());
+    assertEquals(1, timing.getPeriods());
+    // the period scheduled was 3 periods, so no jitter
+    assertEquals(0, timing.getJitterNanos());
+  }
+
+  @Test
+  public void testFailedConversionIsNotJitter() {
+    SampleClock clock = new SampleClock(true);
+    clock.start(0);
+    clock.sampled(0);
+    clock.next(0, PERIOD);
+    // the conversion at one period fails, so isn't sampled
+    clock.next(PERIOD, PERIOD);
+    clock.sampled(PERIOD * 2);
+    SampleTiming timing = clock.getTiming();
+    assertEquals(1, timing.getPeriods());
+    assertEquals(0, timing.getJitterNanos());
+    assertEquals(0, timing.getOverruns());
+  }
+
+  @Test
+  public void testRelativeRateWaitsAFullPeriod() {
+    SampleClock clock = new SampleClock(false);
+    clock.start(0);
+    clock.sampled(0);
+    assertEquals(PERIOD, clock.next(PERIOD / 2, PERIOD));
+  }
+
+  @Test
+  public void testStatistics() {
+    SampleClock clock = new SampleClock(false);
+    clock.start(0);
+    long[] periods = {PERIOD - 2000, PERIOD + 2000, PERIOD - 2000, PERIOD + 2000};
+    long time = 0;
+    clock.sampled(time);
+    for (long period : periods) {
+      clock.next(time, PERIOD);
+      time += period;
+      clock.sampled(time);
+    }
+    SampleTiming timing = clock.getTiming();
+    assertEquals(4, timing.getPeriods());
+    assertEquals(PERIOD, timing.getMeanPeriodNanos());
+    assertEquals(PERIOD - 2000, timing.getMinPeriodNanos());
+    assertEquals(PERIOD + 2000, timing.getMaxPeriodNanos());
+    assertEquals(2000, timing.getJitterNanos());
+    assertEquals(2000, timing.getMaxJitterNanos());
+
+    clock.reset();
+    assertEquals(0, clock.getTiming().getPeriods());
+  }
+
+  @Test
+  public void testRestartIgnoresGap() {
+    SampleClock clock = new SampleClock(true);
+    clock.start(0);
+    clock.sampled(0);
+    clock.next(0, PERIOD);
+    clock.start(PERIOD * 100);
+    clock.sampled(PERIOD * 100);
+    assertEquals(0, clock.getTiming().getPeriods());
+    assertEquals(0, clock.getTiming().getOverruns());
+  }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.scheduler;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the I2C transactions of many drivers on a single thread per I2C bus. Drivers
+ * post work to one of three priority lanes, work in a higher priority lane always
+ * runs before work in a lower priority lane, work within a lane runs in the order it
+ * was posted.
+ *
+ * <pre>
+ * BusScheduler scheduler = BusScheduler.forBus("I2C1");
+ * Adc adc = I2cAdc.builder().address(0).fourSingleEnded().withScheduler(scheduler).build();
+ * ...
+ * scheduler.release();
+ * </pre>
+ */
+public class BusScheduler {
+
+  private static final String TAG = BusScheduler.class.getSimpleName();
+
+  /**
+   * Input and interrupt reads, e.g., reading buttons after an interrupt
+   */
+  public static final int PRIORITY_INPUT = 0;
+
+  /**
+   * Periodic polling, e.g., reading an ADC or sensor
+   */
+  public static final int PRIORITY_POLL = 1;
+
+  /**
+   * Bulk writes, e.g., updating a display
+   */
+  public static final int PRIORITY_BULK = 2;
+
+  private static final int NUM_PRIORITIES = 3;
+
+  /**
+   * maximum number of unused tasks kept for reuse
+   */
+  private static final int POOL_SIZE = 32;
+
+  private static final Map<String, BusScheduler> schedulers = new HashMap<>();
+
+  private final String bus;
+  private final Object lock = new Object();
+  private final Thread thread;
+
+  @SuppressWarnings("unchecked")
+  private final ArrayDeque<Task>[] lanes = new ArrayDeque[NUM_PRIORITIES];
+  private final PriorityQueue<Task> delayed = new PriorityQueue<>();
+  private final ArrayDeque<Task> pool = new ArrayDeque<>(POOL_SIZE);
+
+  /**
+   * the task being run, guarded by {@link #lock}
+   */
+  private Task current;
+
+  /**
+   * sequence number of tasks posted, keeps delayed tasks with the same due time in order
+   */
+  private long sequence = 0;
+
+  private int references = 0;
+  private boolean running = true;
+
+  /**
+   * Work posted to the scheduler
+   */
+  private static final class Task implements Comparable<Task> {
+    Runnable runnable;
+    int priority;
+    long due;
+    long period;
+    long sequence;
+    boolean cancelled;
+
+    @Override
+    public int compareTo(Task other) {
+      if (due != other.due) return due < other.due ? -1 : 1;
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+
+  private BusScheduler(String bus) {
+    this.bus = bus;
+    for (int i = 0; i < NUM_PRIORITIES; i++) {
+      lanes[i] = new ArrayDeque<>();
+    }
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        loop();
+      }
+    }, BusScheduler.class.getSimpleName() + "-" + bus);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Get the scheduler for the given I2C bus, creating it if required. Every call must be
+   * matched by a call to {@link #release()}, the scheduler thread stops when the last
+   * reference is released.
+   * @param bus name of the bus returned from {@code PeripheralManager#getI2cBusList()}
+   * @return the scheduler for the bus
+   */
+  public static BusScheduler forBus(String bus) {
+    synchronized (schedulers) {
+      BusScheduler scheduler = schedulers.get(bus);
+      if (scheduler == null) {
+        scheduler = new BusScheduler(bus);
+        schedulers.put(bus, scheduler);
+      }
+      scheduler.references++;
+      return scheduler;
+    }
+  }
+
+  /**
+   * Release a reference obtained from {@link #forBus(String)}. When no references remain
+   * pending work is discarded and the scheduler thread stops.
+   */
+  public void release() {
+    synchronized (schedulers) {
+      if (references == 0) return;
+      if (--references > 0) return;
+      schedulers.remove(bus);
+    }
+    synchronized (lock) {
+      running = false;
+      for (ArrayDeque<Task> lane : lanes) {
+        lane.clear();
+      }
+      delayed.clear();
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * @return name of the I2C bus this scheduler runs
+   */
+  public String getBus() {
+    return bus;
+  }
+
+  /**
+   * Run the given task as soon as there is no higher priority work
+   * @param priority one of {@link #PRIORITY_INPUT}, {@link #PRIORITY_POLL} or {@link #PRIORITY_BULK}
+   * @param task the task to run
+   * @return true if the task was queued, false if the scheduler has been released
+   */
+  public boolean post(int priority, Runnable task) {
+    return enqueue(priority, task, 0, 0);
+  }
+
+  /**
+   * Run the given task after the given delay
+   * @param priority one of {@link #PRIORITY_INPUT}, {@link #PRIORITY_POLL} or {@link #PRIORITY_BULK}
+   * @param task the task to run
+   * @param delayMs delay before the task becomes ready to run
+   * @return true if the task was queued, false if the scheduler has been released
+   */
+  public boolean postDelayed(int priority, Runnable task, long delayMs) {
+    return enqueue(priority, task, delayMs, 0);
+  }
+
+  /**
+   * Run the given task repeatedly at a fixed rate. The task becomes ready every period
+   * measured from the first run, so the time it takes does not accumulate. Periods that
+   * are missed because the bus was busy are skipped rather than run back to back.
+   * Stop it with {@link #removeCallbacks(Runnable)}.
+   * @param priority one of {@link #PRIORITY_INPUT}, {@link #PRIORITY_POLL} or {@link #PRIORITY_BULK}
+   * @param task the task to run
+   * @param initialDelayMs delay before the first run
+   * @param periodMs time between runs
+   * @return true if the task was queued, false if the scheduler has been released
+   */
+  public boolean schedulePeriodic(int priority, Runnable task, long initialDelayMs, long periodMs) {
+    if (periodMs <= 0) throw new IllegalArgumentException("period must be greater than 0");
+    return enqueue(priority, task, initialDelayMs, periodMs);
+  }
+
+  /**
+   * Remove all pending runs of the given task, including periodic runs
+   * @param task the task to remove
+   */
+  public void removeCallbacks(Runnable task) {
+    synchronized (lock) {
+      for (ArrayDeque<Task> lane : lanes) {
+        remove(lane.iterator(), task);
+      }
+      remove(delayed.iterator(), task);
+      if (current != null && current.runnable == task) {
+        current.cancelled = true;
+      }
+    }
+  }
+
+  /**
+   * @return true when called from the scheduler thread
+   */
+  public boolean isSchedulerThread() {
+    return Thread.currentThread() == thread;
+  }
+
+  private void remove(Iterator<Task> iterator, Runnable task) {
+    while (iterator.hasNext()) {
+      Task t = iterator.next();
+      if (t.runnable == task) {
+        iterator.remove();
+        recycle(t);
+      }
+    }
+  }
+
+  private boolean enqueue(int priority, Runnable runnable, long delayMs, long periodMs) {
+    if (priority < PRIORITY_INPUT || priority > PRIORITY_BULK) {
+      throw new IllegalArgumentException("unknown priority " + priority);
+    }
+    if (runnable == null) throw new NullPointerException("task is null");
+
+    synchronized (lock) {
+      if (!running) return false;
+
+      Task task = obtain();
+      task.runnable = runnable;
+      task.priority = priority;
+      task.period = TimeUnit.MILLISECONDS.toNanos(periodMs);
+      task.sequence = sequence++;
+      task.cancelled = false;
+
+      if (delayMs > 0) {
+        task.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        delayed.add(task);
+      } else {
+        task.due = System.nanoTime();
+        lanes[priority].add(task);
+      }
+      lock.notifyAll();
+      return true;
+    }
+  }
+
+  private Task obtain() {
+    Task task = pool.poll();
+    return task != null ? task : new Task();
+  }
+
+  private void recycle(Task task) {
+    task.runnable = null;
+    if (pool.size() < POOL_SIZE) pool.add(task);
+  }
+
+  /**
+   * @return the next task to run, or null when the scheduler has been released
+   */
+  private Task next() {
+    synchronized (lock) {
+      while (running) {
+        long now = System.nanoTime();
+        while (!delayed.isEmpty() && delayed.peek().due <= now) {
+          Task task = delayed.poll();
+          lanes[task.priority].add(task);
+        }
+
+        for (ArrayDeque<Task> lane : lanes) {
+          Task task = lane.poll();
+          if (task != null) {
+            current = task;
+            return task;
+          }
+        }
+
+        try {
+          if (delayed.isEmpty()) {
+            lock.wait();
+          } else {
+            long wait = delayed.peek().due - now;
+            TimeUnit.NANOSECONDS.timedWait(lock, wait);
+          }
+        } catch (InterruptedException e) {
+          return null;
+        }
+      }
+      return null;
+    }
+  }
+
+  private void finished(Task task) {
+    synchronized (lock) {
+      current = null;
+      if (task.period > 0 && !task.cancelled && running) {
+        long now = System.nanoTime();
+        task.due += task.period;
+        if (task.due <= now) {
+          // overrun, skip the missed periods
+          long missed = (now - task.due) / task.period + 1;
+          task.due += missed * task.period;
+        }
+        delayed.add(task);
+      } else {
+        recycle(task);
+      }
+    }
+  }
+
+  private void loop() {
+    Task task;
+    while ((task = next()) != null) {
+      try {
+        task.runnable.run();
+      } catch (RuntimeException e) {
+        // one driver failing mustn't stop the bus for every other device on it
+        Log.e(TAG, "task failed on " + bus, e);
+      } finally {
+        finished(task);
+      }
+    }
+  }
+}
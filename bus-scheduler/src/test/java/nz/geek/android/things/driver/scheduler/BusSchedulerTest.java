@@ -0,0 +1,160 @@
+package nz.geek.android.things.driver.scheduler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static nz.geek.android.things.driver.scheduler.BusScheduler.PRIORITY_BULK;
+import static nz.geek.android.things.driver.scheduler.BusScheduler.PRIORITY_INPUT;
+import static nz.geek.android.things.driver.scheduler.BusScheduler.PRIORITY_POLL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BusSchedulerTest {
+
+  private BusScheduler scheduler;
+
+  @Before
+  public void before() {
+    scheduler = BusScheduler.forBus("TEST");
+  }
+
+  @After
+  public void after() {
+    scheduler.release();
+  }
+
+  private Runnable record(final List<String> log, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        synchronized (log) {
+          log.add(name);
+        }
+      }
+    };
+  }
+
+  @Test
+  public void testOneSchedulerPerBus() {
+    BusScheduler same = BusScheduler.forBus("TEST");
+    BusScheduler other = BusScheduler.forBus("OTHER");
+    assertSame(scheduler, same);
+    assertNotSame(scheduler, other);
+    same.release();
+    other.release();
+  }
+
+  @Test
+  public void testHigherPriorityRunsFirst() throws Exception {
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<String> log = new ArrayList<>();
+
+    // hold the scheduler thread while work is queued
+    scheduler.post(PRIORITY_BULK, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocked.await();
+        } catch (InterruptedException ignore) {
+        }
+      }
+    });
+
+    scheduler.post(PRIORITY_BULK, record(log, "bulk"));
+    scheduler.post(PRIORITY_POLL, record(log, "poll1"));
+    scheduler.post(PRIORITY_POLL, record(log, "poll2"));
+    scheduler.post(PRIORITY_INPUT, record(log, "input"));
+    scheduler.post(PRIORITY_BULK, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    blocked.countDown();
+
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertEquals("[input, poll1, poll2, bulk]", log.toString());
+  }
+
+  @Test
+  public void testPeriodicTaskRepeatsUntilRemoved() throws Exception {
+    final AtomicInteger count = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(3);
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        count.incrementAndGet();
+        latch.countDown();
+      }
+    };
+    scheduler.schedulePeriodic(PRIORITY_POLL, task, 0, 5);
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+
+    scheduler.removeCallbacks(task);
+    Thread.sleep(20);
+    int stopped = count.get();
+    Thread.sleep(30);
+    assertEquals(stopped, count.get());
+  }
+
+  @Test
+  public void testFailingTaskDoesNotStopTheBus() throws Exception {
+    final AtomicInteger failures = new AtomicInteger();
+    final CountDownLatch latch = new CountDownLatch(1);
+    Runnable failing = new Runnable() {
+      @Override
+      public void run() {
+        failures.incrementAndGet();
+        throw new IllegalStateException("driver failed");
+      }
+    };
+    scheduler.schedulePeriodic(PRIORITY_POLL, failing, 0, 5);
+    scheduler.post(PRIORITY_BULK, new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+    // still scheduled after failing
+    Thread.sleep(30);
+    assertTrue(failures.get() > 1);
+    scheduler.removeCallbacks(failing);
+  }
+
+  @Test
+  public void testPostDelayedWaits() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    long start = System.nanoTime();
+    scheduler.postDelayed(PRIORITY_POLL, new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    }, 20);
+    assertTrue(latch.await(1, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  public void testReleasedSchedulerRejectsWork() {
+    BusScheduler released = BusScheduler.forBus("RELEASED");
+    released.release();
+    assertFalse(released.post(PRIORITY_INPUT, new Runnable() {
+      @Override
+      public void run() {
+      }
+    }));
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.button;
+
+/**
+ * Poll interval that drops to the fast interval while there is activity, then doubles
+ * with each quiet poll until it reaches the idle interval.
+ */
+/* package */ final class AdaptivePollRate {
+
+  private final int fastIntervalMs;
+  private final int idleIntervalMs;
+  private volatile int intervalMs;
+
+  /**
+   * @param fastIntervalMs interval while there is activity
+   * @param idleIntervalMs interval when nothing has happened for a while
+   */
+  AdaptivePollRate(int fastIntervalMs, int idleIntervalMs) {
+    if (fastIntervalMs <= 0 || idleIntervalMs < fastIntervalMs) {
+      throw new IllegalArgumentException("invalid poll intervals");
+    }
+    this.fastIntervalMs = fastIntervalMs;
+    this.idleIntervalMs = idleIntervalMs;
+    this.intervalMs = fastIntervalMs;
+  }
+
+  /**
+   * @param active true when a key is held or has just changed
+   * @return time until the next poll in milliseconds
+   */
+  int next(boolean active) {
+    int interval = active ? fastIntervalMs : Math.min(idleIntervalMs, intervalMs * 2);
+    intervalMs = interval;
+    return interval;
+  }
+
+  /**
+   * @return the current poll interval in milliseconds
+   */
+  int getIntervalMs() {
+    return intervalMs;
+  }
+}
@@ -15,6 +15,8 @@
  */
 package nz.geek.android.things.driver.button;
 
+import android.os.Handler;
+import android.os.HandlerThread;
 import androidx.annotation.Nullable;
 import android.util.ArrayMap;
 import android.util.Log;
@@ -26,9 +28,12 @@ import com.google.android.things.userdriver.input.InputDriver;
 import com.google.android.things.userdriver.input.InputDriverEvent;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.scheduler.BusScheduler;
 
 import static nz.geek.android.things.driver.pcf8574.Pcf8574.BV;
 
@@ -37,34 +42,114 @@ public class I2cButton {
   private static final String TAG = I2cButton.class.getSimpleName();
   private static final int DRIVER_VERSION = 1;
   private static final int MAX_BUTTONS = 8; // 8 pin IO port
+  private static final int MAX_PORTS = 8;   // A0-A2
+
+  private static final int DEFAULT_CONFIRM_READS = 3;
+  private static final int DEFAULT_CONFIRM_INTERVAL_MS = 1;
+  private static final int DEFAULT_FAST_POLL_MS = 5;
+  private static final int DEFAULT_IDLE_POLL_MS = 100;
+
+  /**
+   * the expanders of the bank, read in this order, with the button pins of each
+   */
+  private final Pcf8574[] ports;
+  private final int[] buttonMasks;
 
-  private final Pcf8574 pcf8574;
   private final Gpio gpio;
-  private final Map<Integer, Integer> buttonMap;
-  private int buttonMask = 0;
-  private int oldButtonValue = 0xFF;
+
+  /**
+   * key codes by key, the key of a button is its port index * 8 + its pin
+   */
+  private final int[] keyCodes;
+  private int keyCount = 0;
   private InputDriver inputDriver;
+  private final InputDriverEvent event = new InputDriverEvent();
+
+  /**
+   * debounce and key repeat, keyed by key, only used on the worker thread
+   */
+  private final KeyEngine keyEngine;
+
+  /**
+   * set by the GPIO callback when the port should be read
+   */
+  private volatile boolean readPending = true;
+
+  /**
+   * poll interval when there is no interrupt, null otherwise
+   */
+  private final AdaptivePollRate pollRate;
 
-  private I2cButton(int address, boolean isPcf8574, Gpio gpio, Map<Integer, Integer> buttonMap) {
-    this.gpio = gpio;
-    this.buttonMap = buttonMap;
-    pcf8574 = Pcf8574.create(address, isPcf8574);
+  /**
+   * buttons of each port as of the last read, and the read in progress
+   */
+  private final int[] lastButtons;
+  private final int[] buttons;
+
+  /**
+   * when set buttons are read on the scheduler, otherwise on a thread of their own
+   */
+  private final BusScheduler scheduler;
+  private HandlerThread handlerThread;
+  private Handler handler;
+
+  private I2cButton(I2cButtonBuilder builder, Map<Integer, Map<Integer, Integer>> bank) {
+    this.gpio = builder.gpio;
+    this.scheduler = builder.scheduler;
+    if (scheduler == null) {
+      handlerThread = new HandlerThread(TAG);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
+    int portCount = bank.size();
+    ports = new Pcf8574[portCount];
+    buttonMasks = new int[portCount];
+    lastButtons = new int[portCount];
+    buttons = new int[portCount];
+    keyCodes = new int[portCount * MAX_BUTTONS];
+    pollRate = gpio == null ? new AdaptivePollRate(builder.fastPollMs, builder.idlePollMs) : null;
+    keyEngine = new KeyEngine(keyCodes.length, keyListener);
+    keyEngine.setDebounce(builder.confirmReads,
+        TimeUnit.MILLISECONDS.toNanos(builder.confirmIntervalMs));
+    keyEngine.setRepeat(TimeUnit.MILLISECONDS.toNanos(builder.repeatDelayMs),
+        TimeUnit.MILLISECONDS.toNanos(builder.repeatIntervalMs),
+        TimeUnit.MILLISECONDS.toNanos(builder.minRepeatIntervalMs),
+        builder.repeatAcceleration);
+    initPorts(builder.isPcf8574, bank);
+    initInputDriver(bank);
     initGpio();
-    initButtonMask();
-    initPort();
-    initInputDriver();
+    schedule(0);
   }
 
   /**
-   * Initialise PCF8574 for input in accordance with datasheet
+   * Open the PCF8574 at each address of the bank and initialise it for input in accordance
+   * with datasheet, and create the button mask and key code table for the pins set by the
+   * builder method {@link I2cButtonBuilder#addButton(int, int, int)}
    */
-  private void initPort() {
-    pcf8574.writeByte(buttonMask, 0xFF);
+  private void initPorts(boolean isPcf8574, Map<Integer, Map<Integer, Integer>> bank) {
+    int port = 0;
+    for (Map.Entry<Integer, Map<Integer, Integer>> expander : bank.entrySet()) {
+      int address = expander.getKey();
+      if (scheduler != null) {
+        ports[port] = Pcf8574.create(address, scheduler.getBus(), isPcf8574);
+      } else {
+        ports[port] = Pcf8574.create(address, isPcf8574);
+      }
+      for (Map.Entry<Integer, Integer> button : expander.getValue().entrySet()) {
+        buttonMasks[port] |= BV(button.getKey());
+        keyCodes[port * MAX_BUTTONS + button.getKey()] = button.getValue();
+        keyCount++;
+      }
+      ports[port].writeByte(~buttonMasks[port], 0xFF);
+      lastButtons[port] = 0xFF;
+      port++;
+    }
   }
 
   /**
    * Initialise GPIO if set by builder method {@link I2cButtonBuilder#withInterrupt(Gpio)}. This
-   * should be connected to PCF8574 INT pin.
+   * should be connected to PCF8574 INT pin. Without it the buttons are polled, see
+   * {@link I2cButtonBuilder#withPolling(int, int)}.
    */
   private void initGpio() {
     if (gpio == null) return;
@@ -80,37 +165,21 @@ public class I2cButton {
   }
 
   /**
-   * create a button mask for the pins set by the builder method {@link I2cButtonBuilder#addButton(int, int)}
-   */
-  private void initButtonMask() {
-    for(int pin : buttonMap.keySet()) {
-      buttonMask |= BV(pin);
-    }
-    buttonMask = ~buttonMask;
-  }
-
-  /**
-   * convert Integer array to int array of keycodes for input driver builder method
-   * @param input Integer array to convert
-   * @return int array
+   * Initialise and register one input driver for every key code of the bank.
    */
-  private int[] toIntArray(Integer[] input) {
-    int[] output = new int[input.length];
-    for(int i = 0; i < input.length; i++) {
-      output[i] = input[i];
+  private void initInputDriver(Map<Integer, Map<Integer, Integer>> bank) {
+    int[] supportedKeys = new int[keyCount];
+    int i = 0;
+    for (Map<Integer, Integer> expander : bank.values()) {
+      for (int keyCode : expander.values()) {
+        supportedKeys[i++] = keyCode;
+      }
     }
-    return output;
-  }
-
-  /**
-   * Initialise and register an input driver.
-   */
-  private void initInputDriver() {
 
     InputDriver.Builder builder = new InputDriver.Builder();
     inputDriver = builder
             .setName(TAG)
-            .setSupportedKeys(toIntArray(buttonMap.values().toArray(new Integer[buttonMap.size()])))
+            .setSupportedKeys(supportedKeys)
             .build();
 
     UserDriverManager manager = UserDriverManager.getInstance();
@@ -123,39 +192,104 @@ public class I2cButton {
    * @param keyCode the keycode of the pressed key
    */
   private void triggerEvent(boolean pressed, int keyCode) {
-    InputDriverEvent event = new InputDriverEvent();
+    event.clear();
     event.setKeyPressed(keyCode, pressed);
     inputDriver.emit(event);
   }
 
+  private final KeyEngine.KeyListener keyListener = new KeyEngine.KeyListener() {
+    @Override
+    public void onKey(int key, boolean pressed) {
+      triggerEvent(pressed, keyCodes[key]);
+    }
+  };
+
   /**
-   * Read the current button state, send key event on state change
-   * TODO: key repeat?
+   * Read the current button state of every port, back to back in bank order, then pass
+   * it to the key engine, pressed buttons pull the pin low. Ports that fail to read are
+   * skipped.
+   * @param now time of the reads
+   * @return true when a button read differently to the last read
    */
-  private void readButtons() {
-    int buttons = pcf8574.readByte();
-
-    if (buttons != oldButtonValue) {
-      // What button has changes state?
-      // "Output is 1 when both inputs are different." - Dr. Lee (XOR)
-      int changedButtons = buttons ^ oldButtonValue;
-
-      for (int key : buttonMap.keySet()) {
-        int pinValue = BV(key);
-        if ((pinValue & changedButtons) == pinValue) {
-          boolean buttonPressed = !((pinValue & buttons) == pinValue);
-          triggerEvent(buttonPressed, buttonMap.get(key));
+  private boolean readButtons(long now) {
+    for (int port = 0; port < ports.length; port++) {
+      buttons[port] = ports[port].readPort();
+    }
+
+    boolean changed = false;
+    for (int port = 0; port < ports.length; port++) {
+      int value = buttons[port];
+      if (value < 0) continue;
+      int changedPins = (value ^ lastButtons[port]) & buttonMasks[port];
+      lastButtons[port] = value;
+      if (changedPins == 0 && !keyEngine.isSettling()) continue;
+      changed |= changedPins != 0;
+
+      int key = port * MAX_BUTTONS;
+      for (int pin = 0; pin < MAX_BUTTONS; pin++) {
+        if ((buttonMasks[port] & BV(pin)) != 0) {
+          keyEngine.sample(key + pin, (value & BV(pin)) == 0, now);
         }
       }
+    }
+    return changed;
+  }
+
+  /**
+   * Read the buttons when required, send repeats, then sleep until the key engine next
+   * needs to run. With an interrupt the timer sleeps until the next edge when no key is
+   * held or settling, without one it wakes to poll, quickly while buttons are in use.
+   */
+  private void scan() {
+    long now = System.nanoTime();
+    boolean changed = false;
+    if (readPending || keyEngine.isSettling() || pollRate != null) {
+      readPending = false;
+      changed = readButtons(now);
+    }
+    long deadline = keyEngine.tick(now);
+    long delayMs = deadline == KeyEngine.NO_DEADLINE ? -1 : toMillis(deadline - now);
+    if (pollRate != null) {
+      int pollMs = pollRate.next(changed || keyEngine.isPressed() || keyEngine.isSettling());
+      delayMs = delayMs < 0 ? pollMs : Math.min(delayMs, pollMs);
+    }
+    if (delayMs >= 0) {
+      schedule(delayMs);
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos <= 0 ? 0 : (nanos + 999999) / 1000000;
+  }
 
-      oldButtonValue = buttons;
+  /**
+   * Replace the pending scan with one after the delay. A read requested by an edge is never
+   * pushed back, the scan runs at once while one is pending. Synchronized so an edge between
+   * the check and the post replaces the post rather than being replaced by it.
+   */
+  private synchronized void schedule(long delayMs) {
+    if (readPending) delayMs = 0;
+    if (scheduler != null) {
+      scheduler.removeCallbacks(scanRunnable);
+      scheduler.postDelayed(BusScheduler.PRIORITY_INPUT, scanRunnable, delayMs);
+    } else if (handler != null) {
+      handler.removeCallbacks(scanRunnable);
+      handler.postDelayed(scanRunnable, delayMs);
     }
   }
 
+  private final Runnable scanRunnable = new Runnable() {
+    @Override
+    public void run() {
+      scan();
+    }
+  };
+
   private final GpioCallback gpioCallback = new GpioCallback() {
     @Override
     public boolean onGpioEdge(Gpio gpio) {
-      readButtons();
+      readPending = true;
+      schedule(0);
       return true;
     }
 
@@ -165,18 +299,37 @@ public class I2cButton {
     }
   };
 
+  /**
+   * @return the current poll interval in milliseconds, or 0 when buttons are read on interrupt
+   */
+  public int getPollInterval() {
+    return pollRate == null ? 0 : pollRate.getIntervalMs();
+  }
+
   public void close() {
+    if (scheduler != null) {
+      scheduler.removeCallbacks(scanRunnable);
+    }
+    if (handler != null) {
+      handler.removeCallbacks(scanRunnable);
+      handlerThread.quitSafely();
+      handler = null;
+      handlerThread = null;
+    }
     UserDriverManager manager = UserDriverManager.getInstance();
     manager.unregisterInputDriver(inputDriver);
     if (gpio != null) {
+      gpio.unregisterGpioCallback(gpioCallback);
       try {
         gpio.close();
       } catch (IOException e) {
         //
       }
     }
-    if (pcf8574 != null) {
-      pcf8574.close();
+    for (Pcf8574 port : ports) {
+      if (port != null) {
+        port.close();
+      }
     }
   }
 
@@ -189,6 +342,16 @@ public class I2cButton {
     private boolean isPcf8574 = false;
     private Gpio gpio;
     private Map<Integer, Integer> buttonMap;
+    private Map<Integer, Map<Integer, Integer>> bank;
+    private BusScheduler scheduler;
+    private int confirmReads = DEFAULT_CONFIRM_READS;
+    private int confirmIntervalMs = DEFAULT_CONFIRM_INTERVAL_MS;
+    private int repeatDelayMs = 0;
+    private int repeatIntervalMs = 0;
+    private int minRepeatIntervalMs = 0;
+    private int repeatAcceleration = 0;
+    private int fastPollMs = DEFAULT_FAST_POLL_MS;
+    private int idlePollMs = DEFAULT_IDLE_POLL_MS;
 
     private I2cButtonBuilder() {
 
@@ -242,8 +405,118 @@ public class I2cButton {
       return this;
     }
 
+    /**
+     * Add a button on one of several PCF8574 sharing the INT GPIO. All the expanders of
+     * the bank are read on each interrupt, in the order they were added, and send their
+     * key events through one input driver.
+     * @param address value of A0-A2 of the PCF8574 the button is on [0:7]
+     * @param pin the pin number on the PCF8574 of this button [0:7]
+     * @param keyCode the key code of this button
+     * @return the builder
+     */
+    public final I2cButtonBuilder addButton(int address, int pin, int keyCode) {
+      if (address >= 0 && address < MAX_PORTS && pin >= 0 && pin <= 7) {
+        if (bank == null) {
+          bank = new LinkedHashMap<>(MAX_PORTS);
+        }
+        Map<Integer, Integer> buttons = bank.get(address);
+        if (buttons == null) {
+          buttons = new ArrayMap<>(MAX_BUTTONS);
+          bank.put(address, buttons);
+        }
+        buttons.put(pin, keyCode);
+      }
+      return this;
+    }
+
+    /**
+     * Read the buttons on the given {@link BusScheduler}, ahead of polling and display
+     * writes to other devices on the same bus. The PCF8574 is opened on the scheduler's bus.
+     * @param scheduler the scheduler of the I2C bus the PCF8574 is connected to
+     * @return builder
+     */
+    public final I2cButtonBuilder withScheduler(BusScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Accept a change of a button once the given number of reads, at least the given
+     * interval apart, agree. By default 3 reads 1ms apart.
+     * @param confirmReads number of agreeing reads, 1 for no debounce
+     * @param intervalMs minimum time between reads
+     * @return builder
+     */
+    public final I2cButtonBuilder withDebounce(int confirmReads, int intervalMs) {
+      if (confirmReads < 1 || intervalMs < 0) throw new IllegalArgumentException("invalid debounce");
+      this.confirmReads = confirmReads;
+      this.confirmIntervalMs = intervalMs;
+      return this;
+    }
+
+    /**
+     * Repeat the key of the last button pressed while it is held
+     * @param delayMs time the button is held before the first repeat
+     * @param intervalMs time between repeats
+     * @return builder
+     */
+    public final I2cButtonBuilder withKeyRepeat(int delayMs, int intervalMs) {
+      if (delayMs <= 0 || intervalMs <= 0) throw new IllegalArgumentException("invalid key repeat");
+      this.repeatDelayMs = delayMs;
+      this.repeatIntervalMs = intervalMs;
+      if (minRepeatIntervalMs == 0) minRepeatIntervalMs = intervalMs;
+      return this;
+    }
+
+    /**
+     * Repeat faster the longer a button is held, used with {@link #withKeyRepeat(int, int)}
+     * @param minIntervalMs the least time between repeats
+     * @param percent percentage the time between repeats shrinks by with each repeat [0:99]
+     * @return builder
+     */
+    public final I2cButtonBuilder withKeyRepeatAcceleration(int minIntervalMs, int percent) {
+      if (minIntervalMs <= 0 || percent < 0 || percent > 99) {
+        throw new IllegalArgumentException("invalid key repeat acceleration");
+      }
+      this.minRepeatIntervalMs = minIntervalMs;
+      this.repeatAcceleration = percent;
+      return this;
+    }
+
+    /**
+     * Poll intervals used when there is no interrupt. Buttons are polled at the fast
+     * interval while one is held or has just changed, the interval then doubles with
+     * each quiet poll up to the idle interval. By default 5ms and 100ms.
+     * @param fastIntervalMs interval while buttons are in use
+     * @param idleIntervalMs interval when nothing is happening
+     * @return builder
+     */
+    public final I2cButtonBuilder withPolling(int fastIntervalMs, int idleIntervalMs) {
+      if (fastIntervalMs <= 0 || idleIntervalMs < fastIntervalMs) {
+        throw new IllegalArgumentException("invalid poll intervals");
+      }
+      this.fastPollMs = fastIntervalMs;
+      this.idlePollMs = idleIntervalMs;
+      return this;
+    }
+
     public I2cButton build() {
-      return new I2cButton(address, isPcf8574, gpio, buttonMap);
+      Map<Integer, Map<Integer, Integer>> expanders = new LinkedHashMap<>(MAX_PORTS);
+      if (buttonMap != null) {
+        expanders.put(address, buttonMap);
+      }
+      if (bank != null) {
+        for (Map.Entry<Integer, Map<Integer, Integer>> expander : bank.entrySet()) {
+          Map<Integer, Integer> buttons = expanders.get(expander.getKey());
+          if (buttons == null) {
+            expanders.put(expander.getKey(), expander.getValue());
+          } else {
+            buttons.putAll(expander.getValue());
+          }
+        }
+      }
+      if (expanders.isEmpty()) throw new IllegalStateException("no buttons");
+      return new I2cButton(this, expanders);
     }
   }
 }
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.button;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.userdriver.UserDriverManager;
+import com.google.android.things.userdriver.input.InputDriver;
+import com.google.android.things.userdriver.input.InputDriverEvent;
+
+import java.io.IOException;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.scheduler.BusScheduler;
+
+import static nz.geek.android.things.driver.pcf8574.Pcf8574.BV;
+
+/**
+ * Keypad driver for a row and column key matrix connected to a PCF8574, e.g., a 4x4
+ * keypad with rows on P0-P3 and columns on P4-P7. Key events are sent via an input
+ * driver like {@link I2cButton}. Any number of keys can be held at once, keys that can't
+ * be told apart from a ghost, see {@link KeypadScanner}, keep their last state until the
+ * matrix can be read unambiguously.
+ * <p>
+ * When no key is down a scan costs one I2C transaction, with a key down it costs one
+ * transaction per row. With the PCF8574 INT pin connected, see
+ * {@link I2cKeypadBuilder#withInterrupt(Gpio)}, the keypad is only scanned while a key is down.
+ */
+public class I2cKeypad {
+  private static final String TAG = I2cKeypad.class.getSimpleName();
+  private static final int MAX_LINES = 8; // 8 pin IO port
+
+  private static final int DEFAULT_SCAN_RATE_HZ = 100;
+  private static final int DEFAULT_CONFIRM_SCANS = 2;
+
+  private final Pcf8574 pcf8574;
+  private final KeypadScanner scanner;
+  private final Gpio gpio;
+  private final int scanIntervalMs;
+
+  /**
+   * key codes by key, the key at row r and column c is r * columns + c
+   */
+  private final int[] keyCodes;
+  private final int columnCount;
+  private InputDriver inputDriver;
+  private final InputDriverEvent event = new InputDriverEvent();
+
+  /**
+   * debounce, keyed by key, only used on the worker thread
+   */
+  private final KeyEngine keyEngine;
+
+  /**
+   * pressed columns of each row, and the columns of each row that may be ghosts
+   */
+  private final int[] columns;
+  private final int[] ghosts;
+
+  /**
+   * set by the GPIO callback when the keypad should be scanned
+   */
+  private volatile boolean readPending = true;
+
+  /**
+   * set while the keypad is scanned on a timer. The scans themselves raise INT as rows are
+   * driven in turn, so edges are ignored while it is set.
+   */
+  private volatile boolean scanning = false;
+
+  /**
+   * when set the keypad is scanned on the scheduler, otherwise on a thread of its own
+   */
+  private final BusScheduler scheduler;
+  private HandlerThread handlerThread;
+  private Handler handler;
+
+  private I2cKeypad(I2cKeypadBuilder builder) {
+    this.gpio = builder.gpio;
+    this.scheduler = builder.scheduler;
+    if (scheduler != null) {
+      pcf8574 = Pcf8574.create(builder.address, scheduler.getBus(), builder.isPcf8574);
+    } else {
+      pcf8574 = Pcf8574.create(builder.address, builder.isPcf8574);
+      handlerThread = new HandlerThread(TAG);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
+    scanner = new KeypadScanner(pcf8574, builder.rowPins, builder.columnPins);
+    scanIntervalMs = Math.max(1, 1000 / builder.scanRateHz);
+    columnCount = builder.columnPins.length;
+    columns = new int[builder.rowPins.length];
+    ghosts = new int[builder.rowPins.length];
+    keyCodes = new int[builder.rowPins.length * columnCount];
+    for (int row = 0; row < builder.rowPins.length; row++) {
+      for (int column = 0; column < columnCount; column++) {
+        keyCodes[row * columnCount + column] = builder.keyMap[row][column];
+      }
+    }
+    keyEngine = new KeyEngine(keyCodes.length, keyListener);
+    keyEngine.setDebounce(builder.confirmScans, 0);
+    initInputDriver();
+    initGpio();
+    schedule(0);
+  }
+
+  /**
+   * Initialise GPIO if set by builder method {@link I2cKeypadBuilder#withInterrupt(Gpio)}. This
+   * should be connected to PCF8574 INT pin. Without it the keypad is scanned continuously.
+   */
+  private void initGpio() {
+    if (gpio == null) return;
+
+    try {
+      gpio.setDirection(Gpio.DIRECTION_IN);
+      gpio.setActiveType(Gpio.ACTIVE_HIGH);
+      gpio.setEdgeTriggerType(Gpio.EDGE_FALLING);
+      gpio.registerGpioCallback(gpioCallback);
+    } catch (IOException e) {
+      //e.printStackTrace();
+    }
+  }
+
+  /**
+   * Initialise and register an input driver for the keys with a key code.
+   */
+  private void initInputDriver() {
+    int count = 0;
+    for (int keyCode : keyCodes) {
+      if (keyCode != 0) count++;
+    }
+    int[] supportedKeys = new int[count];
+    int i = 0;
+    for (int keyCode : keyCodes) {
+      if (keyCode != 0) supportedKeys[i++] = keyCode;
+    }
+
+    InputDriver.Builder builder = new InputDriver.Builder();
+    inputDriver = builder
+            .setName(TAG)
+            .setSupportedKeys(supportedKeys)
+            .build();
+
+    UserDriverManager manager = UserDriverManager.getInstance();
+    manager.registerInputDriver(inputDriver);
+  }
+
+  private final KeyEngine.KeyListener keyListener = new KeyEngine.KeyListener() {
+    @Override
+    public void onKey(int key, boolean pressed) {
+      int keyCode = keyCodes[key];
+      if (keyCode == 0) return;
+      event.clear();
+      event.setKeyPressed(keyCode, pressed);
+      inputDriver.emit(event);
+    }
+  };
+
+  /**
+   * Scan the keypad and pass the keys to the key engine. Keys that may be ghosts are
+   * passed their last state.
+   * @param now time of the scan
+   */
+  private void readKeys(long now) {
+    boolean keysDown = keyEngine.isPressed() || keyEngine.isSettling();
+    if (!scanner.scan(columns, keysDown)) return;
+
+    boolean ghosting = KeypadScanner.findGhosts(columns, ghosts);
+    int key = 0;
+    for (int row = 0; row < columns.length; row++) {
+      for (int column = 0; column < columnCount; column++, key++) {
+        boolean pressed = (columns[row] & BV(column)) != 0;
+        if (ghosting && (ghosts[row] & BV(column)) != 0) {
+          pressed = keyEngine.isPressed(key);
+        }
+        keyEngine.sample(key, pressed, now);
+      }
+    }
+  }
+
+  /**
+   * Scan the keypad, then scan again after the scan interval while a key is down. With an
+   * interrupt the keypad is not scanned again until the next edge when no key is down.
+   */
+  private void scan() {
+    long now = System.nanoTime();
+    readPending = false;
+    readKeys(now);
+    if (gpio != null && !keyEngine.isPressed() && !keyEngine.isSettling()) {
+      scanning = false;
+      // a key pressed since the scan, or a failed read, keeps the timer going
+      if (scanner.idle()) return;
+    }
+    scanning = true;
+    schedule(scanIntervalMs);
+  }
+
+  private void schedule(long delayMs) {
+    if (scheduler != null) {
+      scheduler.removeCallbacks(scanRunnable);
+      scheduler.postDelayed(BusScheduler.PRIORITY_INPUT, scanRunnable, delayMs);
+    } else if (handler != null) {
+      handler.removeCallbacks(scanRunnable);
+      handler.postDelayed(scanRunnable, delayMs);
+    }
+  }
+
+  private final Runnable scanRunnable = new Runnable() {
+    @Override
+    public void run() {
+      scan();
+    }
+  };
+
+  private final GpioCallback gpioCallback = new GpioCallback() {
+    @Override
+    public boolean onGpioEdge(Gpio gpio) {
+      if (!readPending && !scanning) {
+        readPending = true;
+        schedule(0);
+      }
+      return true;
+    }
+
+    @Override
+    public void onGpioError(Gpio gpio, int error) {
+      Log.d(TAG, "onGpioError: ");
+    }
+  };
+
+  public void close() {
+    if (scheduler != null) {
+      scheduler.removeCallbacks(scanRunnable);
+    }
+    if (handler != null) {
+      handler.removeCallbacks(scanRunnable);
+      handlerThread.quitSafely();
+      handler = null;
+      handlerThread = null;
+    }
+    UserDriverManager manager = UserDriverManager.getInstance();
+    manager.unregisterInputDriver(inputDriver);
+    if (gpio != null) {
+      gpio.unregisterGpioCallback(gpioCallback);
+      try {
+        gpio.close();
+      } catch (IOException e) {
+        //
+      }
+    }
+    if (pcf8574 != null) {
+      pcf8574.close();
+    }
+  }
+
+  public static I2cKeypadBuilder builder() {
+    return new I2cKeypadBuilder();
+  }
+
+  public static final class I2cKeypadBuilder {
+    private int address;
+    private boolean isPcf8574 = false;
+    private Gpio gpio;
+    private BusScheduler scheduler;
+    private int[] rowPins = {0, 1, 2, 3};
+    private int[] columnPins = {4, 5, 6, 7};
+    private final int[][] keyMap = new int[MAX_LINES][MAX_LINES];
+    private int scanRateHz = DEFAULT_SCAN_RATE_HZ;
+    private int confirmScans = DEFAULT_CONFIRM_SCANS;
+
+    private I2cKeypadBuilder() {
+
+    }
+
+    /**
+     * Specify the I2C address of the PCF8574. This is the value of A0-A2 pins, not
+     * the base address of the PCF8574 which is inferred with {@link #isPcf8574(boolean)}
+     * @param address value of A0-A2 [0:7]
+     * @return builder
+     */
+    public final I2cKeypadBuilder address(int address) {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Specify that the keypad is connected with a PCF8574. This uses a different
+     * base address to the more typical PCF8574A.
+     * @param isPcf8574 true when PCF8574 should be used
+     * @return builder
+     */
+    public final I2cKeypadBuilder isPcf8574(boolean isPcf8574) {
+      this.isPcf8574 = isPcf8574;
+      return this;
+    }
+
+    /**
+     * Specify the GPIO that the INT pin of the PCF8574 is connected to.
+     * @param gpio the GPIO returned from {@link com.google.android.things.pio.PeripheralManager#openGpio(String)}
+     * @return builder
+     */
+    public final I2cKeypadBuilder withInterrupt(@Nullable Gpio gpio) {
+      this.gpio = gpio;
+      return this;
+    }
+
+    /**
+     * Scan the keypad on the given {@link BusScheduler}. The PCF8574 is opened on the
+     * scheduler's bus.
+     * @param scheduler the scheduler of the I2C bus the PCF8574 is connected to
+     * @return builder
+     */
+    public final I2cKeypadBuilder withScheduler(BusScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Specify the port pins of the rows, P0-P3 by default
+     * @param pins port pin of each row [0:7]
+     * @return builder
+     */
+    public final I2cKeypadBuilder rows(int... pins) {
+      checkPins(pins);
+      this.rowPins = pins.clone();
+      return this;
+    }
+
+    /**
+     * Specify the port pins of the columns, P4-P7 by default
+     * @param pins port pin of each column [0:7]
+     * @return builder
+     */
+    public final I2cKeypadBuilder columns(int... pins) {
+      checkPins(pins);
+      this.columnPins = pins.clone();
+      return this;
+    }
+
+    private static void checkPins(int[] pins) {
+      if (pins.length == 0 || pins.length > MAX_LINES) throw new IllegalArgumentException("invalid pin count");
+      for (int pin : pins) {
+        if (pin < 0 || pin >= MAX_LINES) throw new IllegalArgumentException("pin out of range");
+      }
+    }
+
+    /**
+     * Add a key with the given key code
+     * @param row the row of the key, an index into the row pins
+     * @param column the column of the key, an index into the column pins
+     * @param keyCode the key code of this key
+     * @return the builder
+     */
+    public final I2cKeypadBuilder addKey(int row, int column, int keyCode) {
+      if (row >= 0 && row < MAX_LINES && column >= 0 && column < MAX_LINES) {
+        keyMap[row][column] = keyCode;
+      }
+      return this;
+    }
+
+    /**
+     * Scan rate while a key is down, or always when there is no interrupt, 100Hz by default
+     * @param hz scans per second [1:1000]
+     * @return builder
+     */
+    public final I2cKeypadBuilder scanRate(int hz) {
+      if (hz < 1 || hz > 1000) throw new IllegalArgumentException("invalid scan rate");
+      this.scanRateHz = hz;
+      return this;
+    }
+
+    /**
+     * Accept a change of a key once the given number of scans agree, 2 by default
+     * @param scans number of agreeing scans, 1 for no debounce
+     * @return builder
+     */
+    public final I2cKeypadBuilder withDebounce(int scans) {
+      if (scans < 1) throw new IllegalArgumentException("invalid debounce");
+      this.confirmScans = scans;
+      return this;
+    }
+
+    public I2cKeypad build() {
+      if (rowPins.length + columnPins.length > MAX_LINES) {
+        throw new IllegalStateException("too many rows and columns");
+      }
+      return new I2cKeypad(this);
+    }
+  }
+}
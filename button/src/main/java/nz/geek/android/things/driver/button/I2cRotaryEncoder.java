@@ -0,0 +1,437 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.button;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+import com.google.android.things.userdriver.UserDriverManager;
+import com.google.android.things.userdriver.input.InputDriver;
+import com.google.android.things.userdriver.input.InputDriverEvent;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.scheduler.BusScheduler;
+
+import static nz.geek.android.things.driver.pcf8574.Pcf8574.BV;
+
+/**
+ * Rotary encoder driver for an encoder with A and B outputs, and optionally a push
+ * button, on the pins of a PCF8574. The port is read on each falling edge of the PCF8574
+ * INT pin and decoded with a {@link QuadratureDecoder}.
+ * <p>
+ * Rotation is passed to a {@link RotaryListener} and, when key codes are given with
+ * {@link I2cRotaryEncoderBuilder#withKeyCodes(int, int)}, sent via an input driver as one
+ * key press per detent.
+ */
+public class I2cRotaryEncoder {
+  private static final String TAG = I2cRotaryEncoder.class.getSimpleName();
+
+  private static final int DEFAULT_STEPS_PER_DETENT = 4;
+  private static final int NO_PIN = -1;
+
+  /**
+   * push button changes within this time of the last are taken as bounce, the button is
+   * read again once it has passed
+   */
+  private static final long PUSH_LOCKOUT_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+  public interface RotaryListener {
+    /**
+     * Called when the encoder has turned
+     * @param detents detents turned, multiplied by any acceleration, positive when clockwise
+     */
+    void onRotate(int detents);
+
+    /**
+     * Called when the push button is pressed or released
+     * @param pressed true when pressed
+     */
+    void onPush(boolean pressed);
+  }
+
+  private final Pcf8574 pcf8574;
+  private final Gpio gpio;
+  private final int pinA;
+  private final int pinB;
+  private final int pinPush;
+  private final RotaryListener listener;
+  private final QuadratureDecoder decoder;
+
+  private final int clockwiseKeyCode;
+  private final int counterClockwiseKeyCode;
+  private final int pushKeyCode;
+  private InputDriver inputDriver;
+  private final InputDriverEvent event = new InputDriverEvent();
+
+  private boolean pushed = false;
+  private long lastPush;
+
+  /**
+   * when set the port is read on the scheduler, otherwise on a thread of its own
+   */
+  private final BusScheduler scheduler;
+  private HandlerThread handlerThread;
+  private Handler handler;
+
+  private I2cRotaryEncoder(I2cRotaryEncoderBuilder builder) {
+    this.gpio = builder.gpio;
+    this.pinA = builder.pinA;
+    this.pinB = builder.pinB;
+    this.pinPush = builder.pinPush;
+    this.listener = builder.listener;
+    this.scheduler = builder.scheduler;
+    this.clockwiseKeyCode = builder.clockwiseKeyCode;
+    this.counterClockwiseKeyCode = builder.counterClockwiseKeyCode;
+    this.pushKeyCode = builder.pushKeyCode;
+    if (scheduler != null) {
+      pcf8574 = Pcf8574.create(builder.address, scheduler.getBus(), builder.isPcf8574);
+    } else {
+      pcf8574 = Pcf8574.create(builder.address, builder.isPcf8574);
+      handlerThread = new HandlerThread(TAG);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
+    initPort();
+    int value = pcf8574.readPort();
+    decoder = new QuadratureDecoder(builder.stepsPerDetent, value < 0 ? 0 : toState(value));
+    decoder.setAcceleration(TimeUnit.MILLISECONDS.toNanos(builder.slowIntervalMs),
+        builder.maxMultiplier);
+    initInputDriver();
+    initGpio();
+  }
+
+  /**
+   * Initialise PCF8574 for input in accordance with datasheet
+   */
+  private void initPort() {
+    int mask = BV(pinA) | BV(pinB);
+    if (pinPush != NO_PIN) mask |= BV(pinPush);
+    pcf8574.writeByte(~mask, 0xFF);
+  }
+
+  /**
+   * Initialise the GPIO connected to PCF8574 INT pin.
+   */
+  private void initGpio() {
+    try {
+      gpio.setDirection(Gpio.DIRECTION_IN);
+      gpio.setActiveType(Gpio.ACTIVE_HIGH);
+      gpio.setEdgeTriggerType(Gpio.EDGE_FALLING);
+      gpio.registerGpioCallback(gpioCallback);
+    } catch (IOException e) {
+      //e.printStackTrace();
+    }
+  }
+
+  /**
+   * Initialise and register an input driver when key codes are given.
+   */
+  private void initInputDriver() {
+    if (clockwiseKeyCode == 0 && pushKeyCode == 0) return;
+
+    int count = (clockwiseKeyCode != 0 ? 2 : 0) + (pushKeyCode != 0 ? 1 : 0);
+    int[] supportedKeys = new int[count];
+    int i = 0;
+    if (clockwiseKeyCode != 0) {
+      supportedKeys[i++] = clockwiseKeyCode;
+      supportedKeys[i++] = counterClockwiseKeyCode;
+    }
+    if (pushKeyCode != 0) supportedKeys[i] = pushKeyCode;
+
+    InputDriver.Builder builder = new InputDriver.Builder();
+    inputDriver = builder
+            .setName(TAG)
+            .setSupportedKeys(supportedKeys)
+            .build();
+
+    UserDriverManager manager = UserDriverManager.getInstance();
+    manager.registerInputDriver(inputDriver);
+  }
+
+  private int toState(int value) {
+    return ((value >> pinA) & 1) << 1 | ((value >> pinB) & 1);
+  }
+
+  /**
+   * Read the port, decode the encoder and report any rotation or push
+   */
+  private void readEncoder() {
+    int value = pcf8574.readPort();
+    if (value < 0) return;
+    long now = System.nanoTime();
+
+    int detents = decoder.update(toState(value), now);
+    if (detents != 0) {
+      if (listener != null) listener.onRotate(detents);
+      if (clockwiseKeyCode != 0) {
+        int keyCode = detents > 0 ? clockwiseKeyCode : counterClockwiseKeyCode;
+        for (int i = Math.abs(detents); i > 0; i--) {
+          triggerEvent(true, keyCode);
+          triggerEvent(false, keyCode);
+        }
+      }
+    }
+
+    if (pinPush != NO_PIN) {
+      boolean pressed = (value & BV(pinPush)) == 0;
+      long sinceLast = now - lastPush;
+      if (pressed != pushed && sinceLast >= PUSH_LOCKOUT_NANOS) {
+        pushed = pressed;
+        lastPush = now;
+        if (listener != null) listener.onPush(pressed);
+        if (pushKeyCode != 0) triggerEvent(pressed, pushKeyCode);
+      } else if (pressed != pushed) {
+        // the contact may settle without another edge, so look again once the lockout ends
+        post(TimeUnit.NANOSECONDS.toMillis(PUSH_LOCKOUT_NANOS - sinceLast) + 1);
+      }
+    }
+  }
+
+  private void post(long delayMs) {
+    if (scheduler != null) {
+      scheduler.postDelayed(BusScheduler.PRIORITY_INPUT, readEncoderRunnable, delayMs);
+    } else if (handler != null) {
+      handler.postDelayed(readEncoderRunnable, delayMs);
+    }
+  }
+
+  private void triggerEvent(boolean pressed, int keyCode) {
+    event.clear();
+    event.setKeyPressed(keyCode, pressed);
+    inputDriver.emit(event);
+  }
+
+  /**
+   * @return number of reads that missed an encoder state, a sign the encoder turns
+   * faster than the port is read
+   */
+  public long getSkippedCount() {
+    return decoder.getSkippedCount();
+  }
+
+  private final Runnable readEncoderRunnable = new Runnable() {
+    @Override
+    public void run() {
+      readEncoder();
+    }
+  };
+
+  private final GpioCallback gpioCallback = new GpioCallback() {
+    @Override
+    public boolean onGpioEdge(Gpio gpio) {
+      post(0);
+      return true;
+    }
+
+    @Override
+    public void onGpioError(Gpio gpio, int error) {
+      Log.d(TAG, "onGpioError: ");
+    }
+  };
+
+  public void close() {
+    if (scheduler != null) {
+      scheduler.removeCallbacks(readEncoderRunnable);
+    }
+    if (handler != null) {
+      handler.removeCallbacks(readEncoderRunnable);
+      handlerThread.quitSafely();
+      handler = null;
+      handlerThread = null;
+    }
+    if (inputDriver != null) {
+      UserDriverManager manager = UserDriverManager.getInstance();
+      manager.unregisterInputDriver(inputDriver);
+    }
+    gpio.unregisterGpioCallback(gpioCallback);
+    try {
+      gpio.close();
+    } catch (IOException e) {
+      //
+    }
+    if (pcf8574 != null) {
+      pcf8574.close();
+    }
+  }
+
+  public static I2cRotaryEncoderBuilder builder() {
+    return new I2cRotaryEncoderBuilder();
+  }
+
+  public static final class I2cRotaryEncoderBuilder {
+    private int address;
+    private boolean isPcf8574 = false;
+    private Gpio gpio;
+    private BusScheduler scheduler;
+    private int pinA = 0;
+    private int pinB = 1;
+    private int pinPush = NO_PIN;
+    private int stepsPerDetent = DEFAULT_STEPS_PER_DETENT;
+    private int slowIntervalMs = 0;
+    private int maxMultiplier = 1;
+    private RotaryListener listener;
+    private int clockwiseKeyCode = 0;
+    private int counterClockwiseKeyCode = 0;
+    private int pushKeyCode = 0;
+
+    private I2cRotaryEncoderBuilder() {
+
+    }
+
+    /**
+     * Specify the I2C address of the PCF8574. This is the value of A0-A2 pins, not
+     * the base address of the PCF8574 which is inferred with {@link #isPcf8574(boolean)}
+     * @param address value of A0-A2 [0:7]
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder address(int address) {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Specify that the encoder is connected with a PCF8574. This uses a different
+     * base address to the more typical PCF8574A.
+     * @param isPcf8574 true when PCF8574 should be used
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder isPcf8574(boolean isPcf8574) {
+      this.isPcf8574 = isPcf8574;
+      return this;
+    }
+
+    /**
+     * Specify the GPIO that the INT pin of the PCF8574 is connected to, required.
+     * @param gpio the GPIO returned from {@link com.google.android.things.pio.PeripheralManager#openGpio(String)}
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder withInterrupt(Gpio gpio) {
+      this.gpio = gpio;
+      return this;
+    }
+
+    /**
+     * Read the encoder on the given {@link BusScheduler}. The PCF8574 is opened on the
+     * scheduler's bus.
+     * @param scheduler the scheduler of the I2C bus the PCF8574 is connected to
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder withScheduler(BusScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Specify the port pins of the encoder outputs, P0 and P1 by default. Swap the pins
+     * to reverse the direction of rotation.
+     * @param pinA pin of output A [0:7]
+     * @param pinB pin of output B [0:7]
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder pins(int pinA, int pinB) {
+      checkPin(pinA);
+      checkPin(pinB);
+      this.pinA = pinA;
+      this.pinB = pinB;
+      return this;
+    }
+
+    /**
+     * Specify the port pin of the push button, pressed pulls the pin low
+     * @param pin the pin [0:7]
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder pushPin(int pin) {
+      checkPin(pin);
+      this.pinPush = pin;
+      return this;
+    }
+
+    private static void checkPin(int pin) {
+      if (pin < 0 || pin > 7) throw new IllegalArgumentException("pin out of range");
+    }
+
+    /**
+     * @param steps quadrature steps per detent, 4 by default
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder stepsPerDetent(int steps) {
+      if (steps < 1) throw new IllegalArgumentException("invalid steps per detent");
+      this.stepsPerDetent = steps;
+      return this;
+    }
+
+    /**
+     * Multiply detents turned quickly. A detent turned the slow interval or longer after
+     * the last counts once, the multiplier then rises towards the maximum as the interval
+     * shrinks.
+     * @param slowIntervalMs interval at which acceleration starts
+     * @param maxMultiplier the most a detent is multiplied by
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder withAcceleration(int slowIntervalMs, int maxMultiplier) {
+      if (slowIntervalMs <= 0 || maxMultiplier < 1) throw new IllegalArgumentException("invalid acceleration");
+      this.slowIntervalMs = slowIntervalMs;
+      this.maxMultiplier = maxMultiplier;
+      return this;
+    }
+
+    /**
+     * @param listener notified of rotation and push, on the thread reading the port
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder listener(RotaryListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Send a key press per detent via an input driver
+     * @param clockwise key code of a clockwise detent
+     * @param counterClockwise key code of a counter clockwise detent
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder withKeyCodes(int clockwise, int counterClockwise) {
+      this.clockwiseKeyCode = clockwise;
+      this.counterClockwiseKeyCode = counterClockwise;
+      return this;
+    }
+
+    /**
+     * Send the push button via an input driver
+     * @param keyCode key code of the push button
+     * @return builder
+     */
+    public final I2cRotaryEncoderBuilder withPushKeyCode(int keyCode) {
+      this.pushKeyCode = keyCode;
+      return this;
+    }
+
+    public I2cRotaryEncoder build() {
+      if (gpio == null) throw new IllegalStateException("no interrupt");
+      if (pinA == pinB || pinA == pinPush || pinB == pinPush) {
+        throw new IllegalStateException("encoder pins must differ");
+      }
+      return new I2cRotaryEncoder(this);
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.button;
+
+/**
+ * Debounce and key repeat for a set of keys, driven by reads of the keys and a timer.
+ * <p>
+ * A key that reads differently to its debounced state starts settling, and the change
+ * is accepted once a number of reads, spaced by the confirmation interval, agree. A
+ * read that disagrees starts the count again. When the key has not settled after a
+ * bounded number of reads the last level read is taken, so a change is never held off
+ * for long. The most recently pressed key repeats while it is held, after an initial
+ * delay, with the interval between repeats shrinking down to a minimum.
+ * <p>
+ * Call {@link #sample(int, boolean, long)} with each read of a key, then
+ * {@link #tick(long)} which sends any repeats and returns when it next needs to be
+ * called. Not thread safe, use it from one thread.
+ */
+/* package */ final class KeyEngine {
+
+  /**
+   * returned by {@link #tick(long)} when no key is settling or repeating
+   */
+  static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  /**
+   * confirmation reads are bounded to this many times the number required
+   */
+  private static final int MAX_READS_FACTOR = 4;
+
+  interface KeyListener {
+    /**
+     * Called when a key is pressed, released or repeats
+     * @param key index of the key
+     * @param pressed true when pressed or repeating
+     */
+    void onKey(int key, boolean pressed);
+  }
+
+  private final KeyListener listener;
+
+  private int confirmReads = 1;
+  private long confirmInterval = 0;
+  private long repeatDelay = 0;
+  private long repeatInterval = 0;
+  private long minRepeatInterval = 0;
+  private int acceleration = 0;
+
+  private final boolean[] pressed;
+  private final boolean[] settling;
+  private final boolean[] candidate;
+  private final int[] agreeing;
+  private final int[] reads;
+  private final long[] lastRead;
+  private int settlingCount = 0;
+  private int pressedCount = 0;
+
+  private int repeatKey = -1;
+  private long repeatDue;
+  private long currentRepeatInterval;
+
+  KeyEngine(int keyCount, KeyListener listener) {
+    this.listener = listener;
+    pressed = new boolean[keyCount];
+    settling = new boolean[keyCount];
+    candidate = new boolean[keyCount];
+    agreeing = new int[keyCount];
+    reads = new int[keyCount];
+    lastRead = new long[keyCount];
+  }
+
+  /**
+   * @param confirmReads number of agreeing reads to accept a change, 1 for no debounce
+   * @param confirmInterval minimum time between reads that count, in nanoseconds
+   */
+  void setDebounce(int confirmReads, long confirmInterval) {
+    if (confirmReads < 1) throw new IllegalArgumentException("at least one read required");
+    this.confirmReads = confirmReads;
+    this.confirmInterval = Math.max(0, confirmInterval);
+  }
+
+  /**
+   * @param delay time a key is held before it repeats, in nanoseconds, 0 for no repeat
+   * @param interval time between the first repeats, in nanoseconds
+   * @param minInterval the least time between repeats, in nanoseconds
+   * @param acceleration percentage the interval shrinks by with each repeat [0:99]
+   */
+  void setRepeat(long delay, long interval, long minInterval, int acceleration) {
+    if (acceleration < 0 || acceleration > 99) throw new IllegalArgumentException("invalid acceleration");
+    this.repeatDelay = delay;
+    this.repeatInterval = Math.max(1, interval);
+    this.minRepeatInterval = Math.max(1, Math.min(minInterval, repeatInterval));
+    this.acceleration = acceleration;
+  }
+
+  /**
+   * Pass a read of a key to the engine
+   * @param key index of the key
+   * @param isPressed the level read
+   * @param now time of the read, {@link System#nanoTime()}
+   */
+  void sample(int key, boolean isPressed, long now) {
+    if (!settling[key]) {
+      if (isPressed == pressed[key]) return;
+      settling[key] = true;
+      settlingCount++;
+      candidate[key] = isPressed;
+      agreeing[key] = 1;
+      reads[key] = 1;
+      lastRead[key] = now;
+    } else {
+      if (isPressed != candidate[key]) {
+        candidate[key] = isPressed;
+        agreeing[key] = 1;
+      } else if (now - lastRead[key] >= confirmInterval) {
+        agreeing[key]++;
+      } else {
+        return;     // too soon to count
+      }
+      reads[key]++;
+      lastRead[key] = now;
+    }
+
+    if (agreeing[key] >= confirmReads || reads[key] >= confirmReads * MAX_READS_FACTOR) {
+      settle(key, now);
+    }
+  }
+
+  private void settle(int key, long now) {
+    settling[key] = false;
+    settlingCount--;
+    boolean isPressed = candidate[key];
+    if (isPressed == pressed[key]) return;    // bounced back
+
+    pressed[key] = isPressed;
+    pressedCount += isPressed ? 1 : -1;
+    if (isPressed) {
+      if (repeatDelay > 0) {
+        repeatKey = key;
+        repeatDue = now + repeatDelay;
+        currentRepeatInterval = repeatInterval;
+      }
+    } else if (key == repeatKey) {
+      repeatKey = -1;
+    }
+    listener.onKey(key, isPressed);
+  }
+
+  /**
+   * Send a repeat when one is due
+   * @param now {@link System#nanoTime()}
+   * @return when the engine next needs a read or a tick, or {@link #NO_DEADLINE}
+   */
+  long tick(long now) {
+    if (repeatKey >= 0 && now - repeatDue >= 0) {
+      listener.onKey(repeatKey, true);
+      currentRepeatInterval = Math.max(minRepeatInterval,
+          currentRepeatInterval * (100 - acceleration) / 100);
+      repeatDue += currentRepeatInterval;
+      if (now - repeatDue >= 0) {
+        // fell behind, don't send the missed repeats
+        repeatDue = now + currentRepeatInterval;
+      }
+    }
+    return nextDeadline();
+  }
+
+  private long nextDeadline() {
+    long deadline = NO_DEADLINE;
+    if (settlingCount > 0) {
+      for (int key = 0; key < settling.length; key++) {
+        if (settling[key]) {
+          deadline = Math.min(deadline, lastRead[key] + confirmInterval);
+        }
+      }
+    }
+    if (repeatKey >= 0) {
+      deadline = Math.min(deadline, repeatDue);
+    }
+    return deadline;
+  }
+
+  /**
+   * @return true when a key is waiting on confirmation reads
+   */
+  boolean isSettling() {
+    return settlingCount > 0;
+  }
+
+  /**
+   * @return true when a key is held
+   */
+  boolean isPressed() {
+    return pressedCount > 0;
+  }
+
+  /**
+   * @param key index of the key
+   * @return the debounced state of the key
+   */
+  boolean isPressed(int key) {
+    return pressed[key];
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.button;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+
+import static nz.geek.android.things.driver.pcf8574.Pcf8574.BV;
+
+/**
+ * Scans a key matrix with rows and columns on the pins of a {@link Pcf8574}. A pressed
+ * key connects its row to its column, so with its row driven low its column reads low.
+ * <p>
+ * When no key is known to be down all rows are driven low and the columns read in one
+ * transaction, so an idle scan costs one transaction. Otherwise each row is driven low in
+ * turn and the columns read in the same transaction, see {@link Pcf8574#writeAndRead(int, int)}.
+ * A row by row scan leaves only the last row low, so {@link #idle()} drives every row low
+ * again before the matrix is left to the interrupt.
+ * <p>
+ * Without diodes three keys pressed at the corners of a rectangle make the fourth corner
+ * read as pressed too. {@link #findGhosts(int[], int[])} finds the keys that can't be
+ * told apart from such a ghost.
+ */
+/* package */ final class KeypadScanner {
+
+  private final Pcf8574 port;
+  private final int[] columnPins;
+  private final int rowCount;
+  private final int columnMask;
+  private final int allRowsLow;
+  private final int[] rowSelect;
+
+  /**
+   * @param port the port the matrix is connected to
+   * @param rowPins the port pin of each row
+   * @param columnPins the port pin of each column
+   */
+  KeypadScanner(Pcf8574 port, int[] rowPins, int[] columnPins) {
+    if (rowPins.length == 0 || columnPins.length == 0) {
+      throw new IllegalArgumentException("no rows or columns");
+    }
+    if (columnPins.length > Integer.SIZE) throw new IllegalArgumentException("too many columns");
+    this.port = port;
+    this.columnPins = columnPins.clone();
+    this.rowCount = rowPins.length;
+    int rowMask = 0;
+    for (int pin : rowPins) {
+      rowMask |= BV(pin);
+    }
+    int columnMask = 0;
+    for (int pin : columnPins) {
+      columnMask |= BV(pin);
+    }
+    if ((rowMask & columnMask) != 0) throw new IllegalArgumentException("row and column share a pin");
+    this.columnMask = columnMask;
+    allRowsLow = 0xFF & ~rowMask;
+    rowSelect = new int[rowCount];
+    for (int row = 0; row < rowCount; row++) {
+      rowSelect[row] = 0xFF & ~BV(rowPins[row]);
+    }
+  }
+
+  int getRowCount() {
+    return rowCount;
+  }
+
+  int getColumnCount() {
+    return columnPins.length;
+  }
+
+  /**
+   * Scan the matrix
+   * @param columns filled with the pressed columns of each row, bit n for column n
+   * @param keysDown true when a key is known to be down, skips the any key check
+   * @return true when scanned, false when the port could not be read
+   */
+  boolean scan(int[] columns, boolean keysDown) {
+    if (!keysDown) {
+      int value = port.writeAndRead(0x00, allRowsLow);
+      if (value < 0) return false;
+      if ((value & columnMask) == columnMask) {
+        for (int row = 0; row < rowCount; row++) {
+          columns[row] = 0;
+        }
+        return true;
+      }
+    }
+
+    for (int row = 0; row < rowCount; row++) {
+      int value = port.writeAndRead(0x00, rowSelect[row]);
+      if (value < 0) return false;
+      columns[row] = toColumns(value);
+    }
+    return true;
+  }
+
+  /**
+   * Drive every row low, so a key pressed on any row pulls its column low and the
+   * PCF8574 raises INT, and read the columns back
+   * @return true when no column reads low, false when a key is down or the port could
+   * not be read
+   */
+  boolean idle() {
+    int value = port.writeAndRead(0x00, allRowsLow);
+    return value >= 0 && (value & columnMask) == columnMask;
+  }
+
+  /**
+   * @param value the port value read
+   * @return bit n set when column n reads low
+   */
+  private int toColumns(int value) {
+    int pressed = 0;
+    for (int column = 0; column < columnPins.length; column++) {
+      if ((value & BV(columnPins[column])) == 0) {
+        pressed |= BV(column);
+      }
+    }
+    return pressed;
+  }
+
+  /**
+   * Find keys that could be ghosts. Any two rows with two or more pressed columns in
+   * common make a rectangle, and any corner of it may be a ghost.
+   * @param columns the pressed columns of each row
+   * @param ghosts filled with the columns of each row that could be ghosts
+   * @return true when there are any
+   */
+  static boolean findGhosts(int[] columns, int[] ghosts) {
+    boolean found = false;
+    for (int row = 0; row < columns.length; row++) {
+      ghosts[row] = 0;
+    }
+    for (int first = 0; first < columns.length; first++) {
+      if (Integer.bitCount(columns[first]) < 2) continue;
+      for (int second = first + 1; second < columns.length; second++) {
+        int common = columns[first] & columns[second];
+        if (Integer.bitCount(common) >= 2) {
+          ghosts[first] |= common;
+          ghosts[second] |= common;
+          found = true;
+        }
+      }
+    }
+    return found;
+  }
+}
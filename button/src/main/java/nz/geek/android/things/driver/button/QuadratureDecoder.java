@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.button;
+
+/**
+ * Decodes the A and B outputs of a quadrature rotary encoder into steps and detents.
+ * <p>
+ * Each read is decoded by looking up the last direction, the previous A/B state and the
+ * new A/B state in a table. A read where both A and B changed means a state was missed
+ * because the encoder turned faster than it was read, it is counted as two steps in the
+ * direction last turned. Detents turned quickly are multiplied for acceleration.
+ */
+/* package */ final class QuadratureDecoder {
+
+  private static final int DIRECTIONS = 3;      // backward, unknown, forward
+
+  /**
+   * steps, next direction and missed state count by (direction, previous, current)
+   */
+  private static final int[] STEPS = new int[DIRECTIONS * 16];
+  private static final int[] NEXT_DIRECTION = new int[DIRECTIONS * 16];
+  private static final int[] SKIPPED = new int[DIRECTIONS * 16];
+
+  static {
+    // A/B states in forward order, 00, 01, 11, 10
+    int[] position = {0, 1, 3, 2};
+    for (int direction = 0; direction < DIRECTIONS; direction++) {
+      for (int previous = 0; previous < 4; previous++) {
+        for (int current = 0; current < 4; current++) {
+          int i = direction << 4 | previous << 2 | current;
+          int moved = (position[current] - position[previous]) & 3;
+          switch (moved) {
+            case 1:
+              STEPS[i] = 1;
+              NEXT_DIRECTION[i] = 2;
+              break;
+            case 3:
+              STEPS[i] = -1;
+              NEXT_DIRECTION[i] = 0;
+              break;
+            case 2:
+              STEPS[i] = 2 * (direction - 1);
+              NEXT_DIRECTION[i] = direction;
+              SKIPPED[i] = 1;
+              break;
+            default:
+              NEXT_DIRECTION[i] = direction;
+              break;
+          }
+        }
+      }
+    }
+  }
+
+  private final int stepsPerDetent;
+  private long slowInterval = 0;
+  private int maxMultiplier = 1;
+
+  private int state;
+  private int direction = 1;
+  private int steps = 0;
+  private long skipped = 0;
+  private long lastDetent;
+  private boolean turned = false;
+
+  /**
+   * @param stepsPerDetent quadrature steps per detent, e.g., 4 for most encoders
+   * @param initialState the A/B state of the encoder, A in bit 1, B in bit 0
+   */
+  QuadratureDecoder(int stepsPerDetent, int initialState) {
+    if (stepsPerDetent < 1) throw new IllegalArgumentException("invalid steps per detent");
+    this.stepsPerDetent = stepsPerDetent;
+    this.state = initialState & 3;
+  }
+
+  /**
+   * Multiply detents turned quickly, by 1 when a detent follows the last after the slow
+   * interval or later, up to the maximum as the interval approaches 0
+   * @param slowInterval interval in nanoseconds, 0 for no acceleration
+   * @param maxMultiplier the most a detent is multiplied by
+   */
+  void setAcceleration(long slowInterval, int maxMultiplier) {
+    if (maxMultiplier < 1) throw new IllegalArgumentException("invalid multiplier");
+    this.slowInterval = slowInterval;
+    this.maxMultiplier = maxMultiplier;
+  }
+
+  /**
+   * Decode a read of the encoder
+   * @param ab the A/B state read, A in bit 1, B in bit 0
+   * @param now time of the read, {@link System#nanoTime()}
+   * @return detents turned since the last read, multiplied by any acceleration,
+   * positive when turned forward
+   */
+  int update(int ab, long now) {
+    int i = direction << 4 | state << 2 | (ab & 3);
+    steps += STEPS[i];
+    skipped += SKIPPED[i];
+    direction = NEXT_DIRECTION[i];
+    state = ab & 3;
+
+    int detents = steps / stepsPerDetent;
+    if (detents == 0) return 0;
+    steps -= detents * stepsPerDetent;
+    return detents * multiplier(now);
+  }
+
+  private int multiplier(long now) {
+    long interval = now - lastDetent;
+    boolean first = !turned;
+    lastDetent = now;
+    turned = true;
+    if (first || slowInterval <= 0 || interval >= slowInterval) return 1;
+    return 1 + (int) ((maxMultiplier - 1) * (slowInterval - interval) / slowInterval);
+  }
+
+  /**
+   * @return number of reads that missed a state
+   */
+  long getSkippedCount() {
+    return skipped;
+  }
+}
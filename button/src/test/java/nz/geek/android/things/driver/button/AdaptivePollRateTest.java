@@ -0,0 +1,37 @@
+package nz.geek.android.things.driver.button;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptivePollRateTest {
+
+  @Test
+  public void testBacksOffToIdle() {
+    AdaptivePollRate rate = new AdaptivePollRate(5, 100);
+    assertEquals(5, rate.getIntervalMs());
+    assertEquals(10, rate.next(false));
+    assertEquals(20, rate.next(false));
+    assertEquals(40, rate.next(false));
+    assertEquals(80, rate.next(false));
+    assertEquals(100, rate.next(false));
+    assertEquals(100, rate.next(false));
+    assertEquals(100, rate.getIntervalMs());
+  }
+
+  @Test
+  public void testActivityIsPolledFast() {
+    AdaptivePollRate rate = new AdaptivePollRate(5, 100);
+    for (int i = 0; i < 10; i++) {
+      rate.next(false);
+    }
+    assertEquals(5, rate.next(true));
+    assertEquals(5, rate.next(true));
+    assertEquals(10, rate.next(false));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testIdleFasterThanFast() {
+    new AdaptivePollRate(50, 10);
+  }
+}
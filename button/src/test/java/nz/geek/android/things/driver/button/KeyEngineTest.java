@@ -0,0 +1,154 @@
+package nz.geek.android.things.driver.button;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyEngineTest {
+
+  private static final long MS = 1000000L;
+
+  private final List<String> events = new ArrayList<>();
+  private KeyEngine engine;
+
+  @Before
+  public void before() {
+    engine = new KeyEngine(8, new KeyEngine.KeyListener() {
+      @Override
+      public void onKey(int key, boolean pressed) {
+        events.add(key + (pressed ? "+" : "-"));
+      }
+    });
+    engine.setDebounce(3, MS);
+  }
+
+  @Test
+  public void testPressAcceptedAfterConfirmationReads() {
+    engine.sample(2, true, 0);
+    assertTrue(engine.isSettling());
+    assertEquals(MS, engine.tick(0));
+    engine.sample(2, true, MS);
+    assertTrue(events.isEmpty());
+    engine.sample(2, true, 2 * MS);
+    assertEquals(1, events.size());
+    assertEquals("2+", events.get(0));
+    assertFalse(engine.isSettling());
+    assertTrue(engine.isPressed(2));
+    assertEquals(KeyEngine.NO_DEADLINE, engine.tick(2 * MS));
+  }
+
+  @Test
+  public void testReadsTooCloseTogetherDoNotCount() {
+    engine.sample(0, true, 0);
+    engine.sample(0, true, MS / 10);
+    engine.sample(0, true, MS / 5);
+    assertTrue(events.isEmpty());
+    engine.sample(0, true, MS);
+    engine.sample(0, true, 2 * MS);
+    assertEquals(1, events.size());
+  }
+
+  @Test
+  public void testBounceIsIgnored() {
+    engine.sample(1, true, 0);
+    engine.sample(1, false, MS);
+    engine.sample(1, false, 2 * MS);
+    engine.sample(1, false, 3 * MS);
+    assertTrue(events.isEmpty());
+    assertFalse(engine.isSettling());
+    assertFalse(engine.isPressed(1));
+  }
+
+  @Test
+  public void testSettlingIsBounded() {
+    // a key that never reads the same twice is settled on its last read
+    for (int read = 0; read < 11; read++) {
+      engine.sample(3, read % 2 == 0, read * MS);
+      assertTrue(engine.isSettling());
+    }
+    engine.sample(3, true, 11 * MS);
+    assertFalse(engine.isSettling());
+    assertEquals(1, events.size());
+    assertEquals("3+", events.get(0));
+  }
+
+  @Test
+  public void testNoDebounce() {
+    engine.setDebounce(1, 0);
+    engine.sample(4, true, 0);
+    engine.sample(4, false, 1);
+    assertEquals(2, events.size());
+    assertEquals("4+", events.get(0));
+    assertEquals("4-", events.get(1));
+  }
+
+  private void press(int key, long now) {
+    engine.sample(key, true, now);
+    engine.sample(key, true, now + MS);
+    engine.sample(key, true, now + 2 * MS);
+  }
+
+  @Test
+  public void testKeyRepeatWithAcceleration() {
+    engine.setRepeat(500 * MS, 100 * MS, 40 * MS, 50);
+    press(5, 0);
+    long deadline = engine.tick(2 * MS);
+    assertEquals(502 * MS, deadline);
+    assertEquals(1, events.size());
+
+    List<Long> repeats = new ArrayList<>();
+    long now = deadline;
+    while (repeats.size() < 4) {
+      int before = events.size();
+      deadline = engine.tick(now);
+      if (events.size() > before) repeats.add(now);
+      now = deadline;
+    }
+    assertEquals(502 * MS, (long) repeats.get(0));
+    assertEquals(552 * MS, (long) repeats.get(1));     // 100ms less 50%
+    assertEquals(592 * MS, (long) repeats.get(2));     // limited to 40ms
+    assertEquals(632 * MS, (long) repeats.get(3));
+    assertEquals("5+", events.get(events.size() - 1));
+
+    engine.sample(5, false, now);
+    engine.sample(5, false, now + MS);
+    engine.sample(5, false, now + 2 * MS);
+    assertEquals("5-", events.get(events.size() - 1));
+    assertEquals(KeyEngine.NO_DEADLINE, engine.tick(now + 2 * MS));
+  }
+
+  @Test
+  public void testLastPressedKeyRepeats() {
+    engine.setRepeat(100 * MS, 50 * MS, 50 * MS, 0);
+    press(0, 0);
+    press(1, 10 * MS);
+    events.clear();
+    engine.tick(112 * MS);
+    assertEquals(1, events.size());
+    assertEquals("1+", events.get(0));
+  }
+
+  @Test
+  public void testMissedRepeatsAreSkipped() {
+    engine.setRepeat(100 * MS, 10 * MS, 10 * MS, 0);
+    press(6, 0);
+    events.clear();
+    long deadline = engine.tick(500 * MS);
+    assertEquals(1, events.size());
+    assertEquals(510 * MS, deadline);
+  }
+
+  @Test
+  public void testNoRepeatByDefault() {
+    press(7, 0);
+    assertEquals(KeyEngine.NO_DEADLINE, engine.tick(10000 * MS));
+    assertEquals(1, events.size());
+    assertTrue(engine.isPressed());
+  }
+}
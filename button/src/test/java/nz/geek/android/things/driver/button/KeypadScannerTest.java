@@ -0,0 +1,138 @@
+package nz.geek.android.things.driver.button;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.sim.AllocationMeter;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class KeypadScannerTest {
+
+  private static final int[] ROWS = {0, 1, 2, 3};
+  private static final int[] COLUMNS = {4, 5, 6, 7};
+
+  private SimI2cBus bus;
+  private SimPcf8574 device;
+  private SimKeypadMatrix matrix;
+  private KeypadScanner scanner;
+  private final int[] columns = new int[4];
+  private final int[] ghosts = new int[4];
+
+  @Before
+  public void before() {
+    bus = SimI2cBus.fastMode();
+    device = new SimPcf8574(bus);
+    matrix = new SimKeypadMatrix(device, ROWS, COLUMNS);
+    Pcf8574 pcf8574 = Pcf8574.create(device);
+    scanner = new KeypadScanner(pcf8574, ROWS, COLUMNS);
+  }
+
+  @Test
+  public void testIdleScanIsOneTransaction() {
+    assertTrue(scanner.scan(columns, false));
+    assertEquals(1, bus.getTransactionCount());
+    assertArrayEquals(new int[4], columns);
+  }
+
+  @Test
+  public void testKeyFound() {
+    matrix.press(2, 1, true);
+    assertTrue(scanner.scan(columns, false));
+    assertEquals(5, bus.getTransactionCount());
+    assertArrayEquals(new int[] {0, 0, 0x02, 0}, columns);
+
+    // with a key known to be down the any key check is skipped
+    bus.resetCounters();
+    assertTrue(scanner.scan(columns, true));
+    assertEquals(4, bus.getTransactionCount());
+    assertArrayEquals(new int[] {0, 0, 0x02, 0}, columns);
+  }
+
+  @Test
+  public void testManyKeysWithoutGhosts() {
+    matrix.press(0, 0, true);
+    matrix.press(0, 3, true);
+    matrix.press(1, 1, true);
+    matrix.press(3, 2, true);
+    assertTrue(scanner.scan(columns, false));
+    assertArrayEquals(new int[] {0x09, 0x02, 0, 0x04}, columns);
+    assertFalse(KeypadScanner.findGhosts(columns, ghosts));
+  }
+
+  @Test
+  public void testGhostFound() {
+    // three corners of a rectangle, the fourth (1, 1) reads as pressed
+    matrix.press(0, 0, true);
+    matrix.press(0, 1, true);
+    matrix.press(1, 0, true);
+    assertTrue(scanner.scan(columns, false));
+    assertArrayEquals(new int[] {0x03, 0x03, 0, 0}, columns);
+    assertTrue(KeypadScanner.findGhosts(columns, ghosts));
+    assertArrayEquals(new int[] {0x03, 0x03, 0, 0}, ghosts);
+  }
+
+  @Test
+  public void testIdleLeavesEveryRowReadyForInterrupt() {
+    matrix.press(0, 1, true);
+    assertTrue(scanner.scan(columns, false));
+    matrix.press(0, 1, false);
+    // confirming scans while the key was known to be down, row by row
+    assertTrue(scanner.scan(columns, true));
+    assertTrue(scanner.scan(columns, true));
+    assertArrayEquals(new int[4], columns);
+
+    assertTrue(scanner.idle());
+    assertFalse(device.isInterruptAsserted());
+    matrix.press(1, 2, true);
+    assertTrue(device.isInterruptAsserted());
+  }
+
+  @Test
+  public void testIdleReportsKeyDown() {
+    matrix.press(3, 0, true);
+    assertFalse(scanner.idle());
+  }
+
+  @Test
+  public void testFailedScan() {
+    device.setFailing(true);
+    assertFalse(scanner.scan(columns, false));
+  }
+
+  @Test
+  public void testScanFitsInBusAt200Hz() {
+    matrix.press(3, 3, true);
+    long start = bus.nanoTime();
+    scanner.scan(columns, true);
+    long scanNanos = bus.nanoTime() - start;
+    // a 200Hz scan period is 5ms, leave most of the bus for other devices
+    assertTrue("scan took " + scanNanos + "ns", scanNanos * 4 < 5000000);
+  }
+
+  @Test
+  public void testScanDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    matrix.press(1, 2, true);
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        scanner.scan(columns, true);
+        KeypadScanner.findGhosts(columns, ghosts);
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSharedPin() {
+    new KeypadScanner(Pcf8574.create(device), new int[] {0, 1}, new int[] {1, 2});
+  }
+}
@@ -0,0 +1,106 @@
+package nz.geek.android.things.driver.button;
+
+import org.junit.Test;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class QuadratureDecoderTest {
+
+  private static final long MS = 1000000L;
+
+  /**
+   * A/B states in forward order
+   */
+  private static final int[] FORWARD = {0, 1, 3, 2};
+
+  private int turn(QuadratureDecoder decoder, int steps, int stride, long now) {
+    int detents = 0;
+    int position = 0;
+    for (int i = 0; i < Math.abs(steps); i += stride) {
+      position += steps > 0 ? stride : -stride;
+      detents += decoder.update(FORWARD[position & 3], now);
+    }
+    return detents;
+  }
+
+  @Test
+  public void testForwardAndBackward() {
+    QuadratureDecoder decoder = new QuadratureDecoder(4, 0);
+    assertEquals(3, turn(decoder, 12, 1, 0));
+    QuadratureDecoder backward = new QuadratureDecoder(4, 0);
+    assertEquals(-2, turn(backward, -8, 1, 0));
+    assertEquals(0, decoder.getSkippedCount());
+  }
+
+  @Test
+  public void testPartialDetentIsKept() {
+    QuadratureDecoder decoder = new QuadratureDecoder(4, 0);
+    assertEquals(0, decoder.update(1, 0));
+    assertEquals(0, decoder.update(3, 0));
+    assertEquals(0, decoder.update(2, 0));
+    assertEquals(1, decoder.update(0, 0));
+  }
+
+  @Test
+  public void testBounceDoesNotCount() {
+    QuadratureDecoder decoder = new QuadratureDecoder(4, 0);
+    for (int i = 0; i < 10; i++) {
+      decoder.update(1, 0);
+      decoder.update(0, 0);
+    }
+    assertEquals(0, turn(decoder, 3, 1, 0));
+  }
+
+  @Test
+  public void testSkippedStatesKeepCount() {
+    QuadratureDecoder decoder = new QuadratureDecoder(4, 0);
+    // one step to learn the direction, then read only every second state
+    assertEquals(0, decoder.update(1, 0));
+    int detents = 0;
+    int position = 1;
+    for (int i = 0; i < 7; i++) {
+      position += 2;
+      detents += decoder.update(FORWARD[position & 3], 0);
+    }
+    assertEquals(15 / 4, detents);
+    assertEquals(7, decoder.getSkippedCount());
+
+    QuadratureDecoder backward = new QuadratureDecoder(4, 0);
+    assertEquals(0, backward.update(2, 0));
+    detents = 0;
+    position = -1;
+    for (int i = 0; i < 7; i++) {
+      position -= 2;
+      detents += backward.update(FORWARD[position & 3], 0);
+    }
+    assertEquals(-3, detents);
+  }
+
+  @Test
+  public void testAcceleration() {
+    QuadratureDecoder decoder = new QuadratureDecoder(4, 0);
+    decoder.setAcceleration(100 * MS, 5);
+    assertEquals(1, turn(decoder, 4, 1, 0));
+    assertEquals(1, turn(decoder, 4, 1, 200 * MS));     // slow
+    assertEquals(3, turn(decoder, 4, 1, 250 * MS));     // half the slow interval
+    assertEquals(5, turn(decoder, 4, 1, 250 * MS));     // as fast as possible
+  }
+
+  @Test
+  public void testDecodeDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    final QuadratureDecoder decoder = new QuadratureDecoder(4, 0);
+    final int[] position = new int[1];
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        decoder.update(FORWARD[++position[0] & 3], position[0]);
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+  }
+}
@@ -0,0 +1,60 @@
+package nz.geek.android.things.driver.button;
+
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+/**
+ * A key matrix without diodes on a simulated PCF8574. A pressed key connects its row
+ * and column, so a low row pulls down the columns of its pressed keys, which in turn
+ * pull down the rows of their pressed keys, and so on.
+ */
+class SimKeypadMatrix implements SimPcf8574.PortListener {
+
+  private final SimPcf8574 device;
+  private final int[] rowPins;
+  private final int[] columnPins;
+  private final boolean[][] pressed;
+  private int lineMask = 0;
+
+  SimKeypadMatrix(SimPcf8574 device, int[] rowPins, int[] columnPins) {
+    this.device = device;
+    this.rowPins = rowPins;
+    this.columnPins = columnPins;
+    pressed = new boolean[rowPins.length][columnPins.length];
+    for (int pin : rowPins) lineMask |= 1 << pin;
+    for (int pin : columnPins) lineMask |= 1 << pin;
+    device.setPortListener(this);
+  }
+
+  void press(int row, int column, boolean down) {
+    pressed[row][column] = down;
+    onPortWrite(device.getLatch());
+  }
+
+  @Override
+  public void onPortWrite(int latch) {
+    int lowRows = 0;
+    for (int row = 0; row < rowPins.length; row++) {
+      if ((latch & (1 << rowPins[row])) == 0) lowRows |= 1 << row;
+    }
+    int lowColumns = 0;
+    int previous = -1;
+    while (previous != (lowRows | lowColumns << 8)) {
+      previous = lowRows | lowColumns << 8;
+      for (int row = 0; row < rowPins.length; row++) {
+        for (int column = 0; column < columnPins.length; column++) {
+          if (!pressed[row][column]) continue;
+          if ((lowRows & (1 << row)) != 0) lowColumns |= 1 << column;
+          if ((lowColumns & (1 << column)) != 0) lowRows |= 1 << row;
+        }
+      }
+    }
+    int levels = 0xFF;
+    for (int row = 0; row < rowPins.length; row++) {
+      if ((lowRows & (1 << row)) != 0) levels &= ~(1 << rowPins[row]);
+    }
+    for (int column = 0; column < columnPins.length; column++) {
+      if ((lowColumns & (1 << column)) != 0) levels &= ~(1 << columnPins[column]);
+    }
+    device.setInputs(lineMask, levels);
+  }
+}
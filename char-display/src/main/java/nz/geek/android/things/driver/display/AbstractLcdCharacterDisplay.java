@@ -1,11 +1,18 @@
 package nz.geek.android.things.driver.display;
 
+import java.util.Arrays;
+
 public abstract class AbstractLcdCharacterDisplay implements CharacterDisplay {
 
   protected static final int SPACE = 0x20;
 
   protected static final int LCD_BF = 0x80; // D7
 
+  /**
+   * value of a display buffer cell when the DDRAM content is not known
+   */
+  private static final int UNKNOWN = -1;
+
   /**
    * DDRAM addresses for start of lines 1 and 2
    */
@@ -46,10 +53,29 @@ public abstract class AbstractLcdCharacterDisplay implements CharacterDisplay {
 
   protected boolean doubleWrite = false;
 
+  /**
+   * the characters that should be on the display, written by {@link #print(int, String)}
+   */
+  private final int[][] frameBuffer;
+
+  /**
+   * the characters that the display DDRAM holds, {@link #UNKNOWN} until written
+   */
+  private final int[][] displayBuffer;
+
+  /**
+   * when true every change to the frame buffer is immediately sent to the display
+   */
+  private boolean autoFlush = true;
+
   protected AbstractLcdCharacterDisplay(int width, int height, boolean hasBackLight) {
     this.width = width;
     this.height = height;
     this.hasBackLight = hasBackLight;
+    frameBuffer = new int[height][width];
+    displayBuffer = new int[height][width];
+    fill(frameBuffer, SPACE);
+    fill(displayBuffer, UNKNOWN);
   }
 
   @Override
@@ -70,7 +96,21 @@ public abstract class AbstractLcdCharacterDisplay implements CharacterDisplay {
   protected abstract void writeCommand(int command);
   protected abstract void switchDisplay(int display);
 
-  protected void init() {
+  /**
+   * Called before a group of writes, e.g., those of a {@link #flush()}. Implementations
+   * may hold writes until the matching {@link #endTransfer()} to send them together.
+   * Calls may be nested.
+   */
+  protected void beginTransfer() {
+  }
+
+  /**
+   * Called after a group of writes started with {@link #beginTransfer()}
+   */
+  protected void endTransfer() {
+  }
+
+  protected synchronized void init() {
 
     switchDisplay(1);
     initialiseLcd();
@@ -79,31 +119,106 @@ public abstract class AbstractLcdCharacterDisplay implements CharacterDisplay {
       initialiseLcd();
       switchDisplay(1);
     }
+
+    // initialisation clears the display
+    fill(displayBuffer, SPACE);
   }
 
   /**
-   * print a message to the display
+   * print a message to the display. The message is written to the frame buffer,
+   * only the characters that differ from those already on the display are sent,
+   * immediately unless auto flush has been disabled with {@link #setAutoFlush(boolean)}.
    * @param line the line number to print to
-   * @param message the message to write
+   * @param message the message to write, truncated to the display width
    */
   @Override
   public synchronized void print(int line, String message) {
+    if (line < 1 || line > height) return;
 
-    // support displays with more than 80 characters (will have 2 enable pins)
-    if (isDoubleDisplay() && line > 2) {
-      // lines 3 and 4 only
-      line -= 2;
-      switchDisplay(2);
+    int[] row = frameBuffer[line - 1];
+    int length = Math.min(message.length(), width);
+    for (int i = 0; i < length; i++) {
+      row[i] = message.charAt(i) & 0xFF;
+    }
+
+    if (autoFlush) flush();
+  }
+
+  /**
+   * Set whether changes to the frame buffer are sent to the display as they are made. When
+   * disabled, {@link #print(int, String)} and {@link #clearLine(int)} only update the frame
+   * buffer, call {@link #flush()} to update the display. Useful to collect the changes of
+   * a whole screen redraw before writing to the display.
+   * @param autoFlush true to send changes immediately (the default)
+   */
+  public synchronized void setAutoFlush(boolean autoFlush) {
+    this.autoFlush = autoFlush;
+    if (autoFlush) flush();
+  }
+
+  /**
+   * Send the characters of the frame buffer that differ from those on the display. Runs
+   * of unchanged characters are skipped by moving the DDRAM address.
+   */
+  public synchronized void flush() {
+    beginTransfer();
+    try {
+      for (int line = 1; line <= height; line++) {
+        flushLine(line);
+      }
+    } finally {
+      endTransfer();
     }
+  }
+
+  /**
+   * Forget what is on the display, the next {@link #flush()} will rewrite every character.
+   * Use this if the display may have been changed by something other than this driver.
+   */
+  public synchronized void invalidate() {
+    fill(displayBuffer, UNKNOWN);
+  }
+
+  /**
+   * write the changed characters of a single line to the display
+   * @param line the line to write [1:height]
+   */
+  private void flushLine(int line) {
+    int[] frame = frameBuffer[line - 1];
+    int[] shown = displayBuffer[line - 1];
+
+    // support displays with more than 80 characters (will have 2 enable pins)
+    boolean secondDisplay = isDoubleDisplay() && line > 2;
+    int address = lineToAddress(secondDisplay ? line - 2 : line);
+
+    // DDRAM address auto increments after each write, -1 when not known
+    int cursor = -1;
 
-    writeCommand(LCD_SET_DD_RAM | lineToAddress(line));
-    for (int i = 0; i < message.length(); i++) {
-      write(message.charAt(i));
+    for (int i = 0; i < width; i++) {
+      if (frame[i] == shown[i]) continue;
+
+      if (cursor == -1 && secondDisplay) {
+        switchDisplay(2);
+      }
+      if (cursor != i) {
+        writeCommand(LCD_SET_DD_RAM | (address + i));
+      }
+      write(frame[i]);
+      shown[i] = frame[i];
+      cursor = i + 1;
     }
 
     // always default to first display, won't have an effect on displays with less than
     // 80 characters
-    switchDisplay(1);
+    if (cursor != -1 && secondDisplay) {
+      switchDisplay(1);
+    }
+  }
+
+  private static void fill(int[][] buffer, int value) {
+    for (int[] row : buffer) {
+      Arrays.fill(row, value);
+    }
   }
 
   /**
@@ -155,21 +270,28 @@ public abstract class AbstractLcdCharacterDisplay implements CharacterDisplay {
   }
 
   @Override
-  public void clearLine(int line) {
-    writeCommand(lineToAddress(line));
-    for (int i = 0; i < width; i++) {
-      writeCommand(SPACE);
-    }
+  public synchronized void clearLine(int line) {
+    if (line < 1 || line > height) return;
+
+    Arrays.fill(frameBuffer[line - 1], SPACE);
+    if (autoFlush) flush();
   }
 
   @Override
-  public void clearDisplay() {
-    writeCommand(LCD_CLEAR_DISPLAY);
-    if (isDoubleDisplay()) {
-      switchDisplay(2);
+  public synchronized void clearDisplay() {
+    beginTransfer();
+    try {
       writeCommand(LCD_CLEAR_DISPLAY);
-      switchDisplay(1);
+      if (isDoubleDisplay()) {
+        switchDisplay(2);
+        writeCommand(LCD_CLEAR_DISPLAY);
+        switchDisplay(1);
+      }
+    } finally {
+      endTransfer();
     }
+    fill(frameBuffer, SPACE);
+    fill(displayBuffer, SPACE);
   }
 
   private void setCgRamPattern(int address, byte[] pattern) {
@@ -180,17 +302,31 @@ public abstract class AbstractLcdCharacterDisplay implements CharacterDisplay {
   }
 
   @Override
-  public void setCustomCharacter(int address, byte[] pattern) {
-    setCgRamPattern(address, pattern);
-    if (isDoubleDisplay()) {
-      switchDisplay(2);
+  public synchronized void setCustomCharacter(int address, byte[] pattern) {
+    beginTransfer();
+    try {
       setCgRamPattern(address, pattern);
-      switchDisplay(1);
+      if (isDoubleDisplay()) {
+        switchDisplay(2);
+        setCgRamPattern(address, pattern);
+        switchDisplay(1);
+      }
+    } finally {
+      endTransfer();
     }
   }
 
   @Override
-  public void initBarGraph() {
+  public synchronized void initBarGraph() {
+    beginTransfer();
+    try {
+      initBarGraphCharacters();
+    } finally {
+      endTransfer();
+    }
+  }
+
+  private void initBarGraphCharacters() {
     setCustomCharacter(0x00, new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00});
     setCustomCharacter(0x08, new byte[]{0x10, 0x10, 0x10, 0x10, 0x10, 0x10, 0x10, 0x00});
     setCustomCharacter(0x10, new byte[]{0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x00});
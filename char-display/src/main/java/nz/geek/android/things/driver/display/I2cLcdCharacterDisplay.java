@@ -23,8 +23,25 @@ import static nz.geek.android.things.driver.pcf8574.Pcf8574.BV;
 
 public class I2cLcdCharacterDisplay extends AbstractLcdCharacterDisplay {
 
+  /**
+   * maximum number of port states sent to the PCF8574 in one I2C transaction
+   */
+  private static final int TRANSFER_SIZE = 256;
+
   private Pcf8574 pcf8574;
 
+  /**
+   * port states (mask and data pairs) waiting to be sent with {@link Pcf8574#writeSequence(int[], int[], int)}
+   */
+  private final int[] transferMasks = new int[TRANSFER_SIZE];
+  private final int[] transferData = new int[TRANSFER_SIZE];
+  private int transferCount = 0;
+
+  /**
+   * nesting depth of {@link #beginTransfer()}, port states are sent when it returns to 0
+   */
+  private int transferDepth = 0;
+
   /**
    * Read / Write pin bit value
    */
@@ -68,7 +85,7 @@ public class I2cLcdCharacterDisplay extends AbstractLcdCharacterDisplay {
                                  int ePin, int e2Pin, int rsPin, int rwPin,
                                  int d4Pin, int d5Pin, int d6Pin, int d7Pin,
                                  boolean isPcf8574, boolean hasBl, int blPin,
-                                 String bus) {
+                                 String bus, Pcf8574 port) {
     super(width, height, hasBl);
     this.address = address;
     this.isPcf8574 = isPcf8574;
@@ -88,7 +105,11 @@ public class I2cLcdCharacterDisplay extends AbstractLcdCharacterDisplay {
     dataMask = ~(BV(d4Pin) | BV(d5Pin) | BV(d6Pin) | BV(d7Pin));
     controlMask = ~(en | rs | rw);
 
-    createPort();
+    if (port != null) {
+      pcf8574 = port;
+    } else {
+      createPort();
+    }
   }
 
   /**
@@ -124,26 +145,74 @@ public class I2cLcdCharacterDisplay extends AbstractLcdCharacterDisplay {
   }
 
   /**
-   * write byte to the display
+   * write byte to the display. The port states that clock the data into the display
+   * are sent in one I2C transaction, or with the rest of the transfer when called
+   * between {@link #beginTransfer()} and {@link #endTransfer()}.
    * @param data
    */
   protected void write(int data) {
-    pcf8574.writeByte(controlMask, rs);         // RS = rs, E = 0, R/W = 0
-    pcf8574.writeByte(controlMask, rs | en);    // RS = rs, E = 1, R/W = 0
-    pcf8574.writeByte(dataMask, data);          // D0-7 = data
-    pcf8574.writeByte(controlMask, rs);         // RS = rs, E = 0, R/W = 0
+    queue(controlMask, rs);         // RS = rs, E = 0, R/W = 0
+    queue(controlMask, rs | en);    // RS = rs, E = 1, R/W = 0
+    queue(dataMask, data);          // D0-7 = data
+    queue(controlMask, rs);         // RS = rs, E = 0, R/W = 0
 
     if (doubleWrite) {
-      pcf8574.writeByte(controlMask, rs | en);  // RS = rs, E = 1, R/W = 0
-      pcf8574.writeByte(dataMask, data << 4);
-      pcf8574.writeByte(controlMask, rs);       // RS = rs, E = 0, R/W = 0
+      queue(controlMask, rs | en);  // RS = rs, E = 1, R/W = 0
+      queue(dataMask, data << 4);
+      queue(controlMask, rs);       // RS = rs, E = 0, R/W = 0
     }
+
+    if (transferDepth == 0) sendTransfer();
   }
 
   protected void writeCommand(int command) {
     rs = 0;
     write(command);
     rs = BV(rsPin);
+
+    if (command == LCD_CLEAR_DISPLAY || command == LCD_RETURN_HOME) {
+      // these take 1.52 ms to execute, don't send anything else until they're done
+      sendTransfer();
+      try {
+        Thread.sleep(2);
+      } catch (InterruptedException e) {
+        // meh
+      }
+    }
+  }
+
+  @Override
+  protected void beginTransfer() {
+    transferDepth++;
+  }
+
+  @Override
+  protected void endTransfer() {
+    if (transferDepth > 0) transferDepth--;
+    if (transferDepth == 0) sendTransfer();
+  }
+
+  /**
+   * add a port state to the transfer, sending the transfer first if it is full
+   * @param mask 8 bit mask, data does not affect port state when mask bit is 1
+   * @param data the data to write to the port
+   */
+  private void queue(int mask, int data) {
+    if (transferCount == TRANSFER_SIZE) sendTransfer();
+    transferMasks[transferCount] = mask;
+    transferData[transferCount] = data;
+    transferCount++;
+  }
+
+  /**
+   * send the queued port states to the PCF8574 in a single I2C transaction
+   */
+  private void sendTransfer() {
+    if (transferCount == 0) return;
+    if (pcf8574 != null) {
+      pcf8574.writeSequence(transferMasks, transferData, transferCount);
+    }
+    transferCount = 0;
   }
 
   protected void switchDisplay(int display) {
@@ -167,7 +236,7 @@ public class I2cLcdCharacterDisplay extends AbstractLcdCharacterDisplay {
   }
 
   /**
-   * Builder used to create a {@link #I2cLcdCharacterDisplay(int, int, int, int, int, int, int, int, int, int, int, boolean, boolean, int, String)}
+   * Builder used to create a {@link #I2cLcdCharacterDisplay(int, int, int, int, int, int, int, int, int, int, int, boolean, boolean, int, String, Pcf8574)}
    */
   public static final class Builder {
     private int width;
@@ -185,6 +254,7 @@ public class I2cLcdCharacterDisplay extends AbstractLcdCharacterDisplay {
     private boolean isPcf8574 = false; // i.e., not pcf8574A, default to no
     private boolean hasBackLight = false;
     private String bus = null;
+    private Pcf8574 port = null;
 
     /*package*/ Builder(int width, int height) {
       this.width = width;
@@ -297,13 +367,23 @@ public class I2cLcdCharacterDisplay extends AbstractLcdCharacterDisplay {
       return this;
     }
 
+    /**
+     * Use the given port rather than opening one, for testing with a simulated device
+     * @param port the port the LCD is connected to
+     * @return the builder
+     */
+    /*package*/ Builder withPort(Pcf8574 port) {
+      this.port = port;
+      return this;
+    }
+
     /**
      * Build the LCD
-     * @return A new {@link #I2cLcdCharacterDisplay(int, int, int, int, int, int, int, int, int, int, int, boolean, boolean, int, String)} with your pin mapping.
+     * @return A new {@link #I2cLcdCharacterDisplay(int, int, int, int, int, int, int, int, int, int, int, boolean, boolean, int, String, Pcf8574)} with your pin mapping.
      */
     public I2cLcdCharacterDisplay build() {
       return new I2cLcdCharacterDisplay(width, height, address, e1Pin, e2Pin, rsPin, rwPin,
-              d4Pin, d5Pin, d6Pin, d7Pin, isPcf8574, hasBackLight, blPin, bus);
+              d4Pin, d5Pin, d6Pin, d7Pin, isPcf8574, hasBackLight, blPin, bus, port);
     }
   }
 }
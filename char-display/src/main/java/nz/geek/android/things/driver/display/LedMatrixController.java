@@ -51,9 +51,18 @@ public class LedMatrixController implements AutoCloseable {
   }
 
   public void write(byte[] data) {
+    write(data, data.length);
+  }
+
+  /**
+   * Write the first length bytes of the given data
+   * @param data the data to write
+   * @param length number of bytes to write
+   */
+  public void write(byte[] data, int length) {
     if (device != null) {
       try {
-        device.write(data, data.length);
+        device.write(data, length);
       } catch (IOException ignore) {
         //
       }
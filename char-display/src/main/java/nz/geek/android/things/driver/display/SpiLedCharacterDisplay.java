@@ -1,7 +1,5 @@
 package nz.geek.android.things.driver.display;
 
-import java.nio.ByteBuffer;
-
 public class SpiLedCharacterDisplay implements CharacterDisplay {
 
   private LedMatrixController device;
@@ -26,6 +24,11 @@ public class SpiLedCharacterDisplay implements CharacterDisplay {
   // | start | command | param | data | end |
   // | STX   | 0xXX    | 0xYY  | ...  | ETX |
 
+  /**
+   * packet reused by every command, grown as required
+   */
+  private byte[] packet = new byte[16];
+
   public SpiLedCharacterDisplay(int width, int height) {
     this.width = width;
     this.height = height;
@@ -47,49 +50,53 @@ public class SpiLedCharacterDisplay implements CharacterDisplay {
   }
 
   @Override
-  public void enable(boolean enable) {
-    if (enable) {
-      device.write(toPacket(new byte[]{CMD_DISPLAY_ON}));
-    } else {
-      device.write(toPacket(new byte[]{CMD_DISPLAY_OFF}));
-    }
+  public synchronized void enable(boolean enable) {
+    startPacket(1);
+    packet[1] = enable ? CMD_DISPLAY_ON : CMD_DISPLAY_OFF;
+    sendPacket(1);
   }
 
-  private byte[] toPacket(int line, String message) {
-    ByteBuffer bb = ByteBuffer.allocate(5 + message.length());
-    bb.put(STX);
-    bb.put(CMD_PRINT_LINE);
-    bb.put((byte)(line & 0xFF));
-    bb.put(message.getBytes());
-    bb.put(ETX);
-    return bb.array();
+  /**
+   * make room for a packet of the given length and add the start and end characters
+   * @param length number of bytes between STX and ETX
+   */
+  private void startPacket(int length) {
+    if (packet.length < length + 2) {
+      packet = new byte[length + 2];
+    }
+    packet[0] = STX;
+    packet[length + 1] = ETX;
   }
 
-  private byte[] toPacket(byte[] message) {
-    ByteBuffer bb = ByteBuffer.allocate(message.length + 2);
-    bb.put(STX);
-    bb.put(message);
-    bb.put(ETX);
-    return bb.array();
+  private void sendPacket(int length) {
+    device.write(packet, length + 2);
   }
 
   @Override
-  public void print(int line, String message) {
-    device.write(toPacket(line, message));
+  public synchronized void print(int line, String message) {
+    int length = message.length();
+    startPacket(length + 2);
+    packet[1] = CMD_PRINT_LINE;
+    packet[2] = (byte) (line & 0xFF);
+    for (int i = 0; i < length; i++) {
+      packet[3 + i] = (byte) message.charAt(i);
+    }
+    sendPacket(length + 2);
   }
 
   @Override
-  public void clearLine(int line) {
-    byte[] buffer = new byte[2];
-    buffer[0] = CMD_CLEAR_LINE;
-    buffer[1] = (byte) (line & 0xFF);
-    device.write(toPacket(buffer));
+  public synchronized void clearLine(int line) {
+    startPacket(2);
+    packet[1] = CMD_CLEAR_LINE;
+    packet[2] = (byte) (line & 0xFF);
+    sendPacket(2);
   }
 
   @Override
-  public void clearDisplay() {
-    byte[] buffer = new byte[]{CMD_CLEAR_DISP};
-    device.write(toPacket(buffer));
+  public synchronized void clearDisplay() {
+    startPacket(1);
+    packet[1] = CMD_CLEAR_DISP;
+    sendPacket(1);
   }
 
   @Override
@@ -113,12 +120,12 @@ public class SpiLedCharacterDisplay implements CharacterDisplay {
   }
 
   @Override
-  public void setCustomCharacter(int address, byte[] pattern) {
-    ByteBuffer bb = ByteBuffer.allocate(pattern.length + 2);
-    bb.put(CMD_SET_CHARACTER);
-    bb.put(CUSTOM_CHAR_ADDRESS);
-    bb.put(pattern);
-    device.write(toPacket(bb.array()));
+  public synchronized void setCustomCharacter(int address, byte[] pattern) {
+    startPacket(pattern.length + 2);
+    packet[1] = CMD_SET_CHARACTER;
+    packet[2] = CUSTOM_CHAR_ADDRESS;
+    System.arraycopy(pattern, 0, packet, 3, pattern.length);
+    sendPacket(pattern.length + 2);
   }
 
   @Override
@@ -0,0 +1,134 @@
+package nz.geek.android.things.driver.display;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AbstractLcdCharacterDisplayTest {
+
+  /**
+   * records the writes made to the display, commands are recorded as "C:xx",
+   * data as the character written and display switches as "D:n"
+   */
+  private static class RecordingDisplay extends AbstractLcdCharacterDisplay {
+    final List<String> log = new ArrayList<>();
+
+    RecordingDisplay(int width, int height) {
+      super(width, height, false);
+    }
+
+    @Override
+    protected void write(int data) {
+      log.add(String.valueOf((char) data));
+    }
+
+    @Override
+    protected void writeCommand(int command) {
+      log.add(String.format("C:%02X", command));
+    }
+
+    @Override
+    protected void switchDisplay(int display) {
+      log.add("D:" + display);
+    }
+
+    @Override
+    public void connect() {
+      init();
+      log.clear();
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public void enable(boolean enable) {
+    }
+
+    @Override
+    public void enableBackLight(boolean enable) {
+    }
+  }
+
+  private RecordingDisplay display;
+
+  @Before
+  public void before() {
+    display = new RecordingDisplay(16, 2);
+    display.connect();
+  }
+
+  @Test
+  public void testPrintSendsOnlyChangedCharacters() {
+    display.print(1, "abc");
+    assertEquals("[C:80, a, b, c]", display.log.toString());
+    display.log.clear();
+
+    display.print(1, "abd");
+    assertEquals("[C:82, d]", display.log.toString());
+  }
+
+  @Test
+  public void testUnchangedPrintSendsNothing() {
+    display.print(2, "hello");
+    display.log.clear();
+    display.print(2, "hello");
+    assertEquals(0, display.log.size());
+  }
+
+  @Test
+  public void testCursorJumpsOverUnchangedCharacters() {
+    display.print(1, "12345678");
+    display.log.clear();
+    display.print(1, "X23456YZ");
+    assertEquals("[C:80, X, C:86, Y, Z]", display.log.toString());
+  }
+
+  @Test
+  public void testMessageTruncatedToWidth() {
+    display.print(2, "0123456789ABCDEFGHIJ");
+    assertEquals(17, display.log.size());
+    assertEquals("F", display.log.get(16));
+  }
+
+  @Test
+  public void testFlushCollectsChanges() {
+    display.setAutoFlush(false);
+    display.print(1, "a");
+    display.print(1, "b");
+    display.print(2, "c");
+    assertEquals(0, display.log.size());
+    display.flush();
+    assertEquals("[C:80, b, C:C0, c]", display.log.toString());
+  }
+
+  @Test
+  public void testClearLineWritesSpaces() {
+    display.print(1, "ab");
+    display.log.clear();
+    display.clearLine(1);
+    assertEquals("[C:80,  ,  ]", display.log.toString());
+  }
+
+  @Test
+  public void testInvalidateRewritesEverything() {
+    display.print(1, "ab");
+    display.log.clear();
+    display.invalidate();
+    display.flush();
+    assertEquals(2 * (16 + 1), display.log.size());
+  }
+
+  @Test
+  public void testLargeDisplaySwitchesForLowerLines() {
+    RecordingDisplay large = new RecordingDisplay(40, 4);
+    large.connect();
+    large.print(3, "x");
+    assertEquals("[D:2, C:80, x, D:1]", large.log.toString());
+  }
+}
@@ -0,0 +1,98 @@
+package nz.geek.android.things.driver.display;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+import static org.junit.Assert.assertEquals;
+
+public class I2cLcdCharacterDisplayTest {
+
+  // LCM1602 pin mapping, RS = P0, R/W = P1, E = P2, D4-D7 = P4-P7
+  private static final int RS = 0x01;
+  private static final int E = 0x04;
+
+  private SimI2cBus bus;
+  private I2cLcdCharacterDisplay display;
+  private final List<Integer> writes = new ArrayList<>();
+
+  @Before
+  public void before() {
+    bus = SimI2cBus.fastMode();
+    SimPcf8574 device = new SimPcf8574(bus);
+    Pcf8574 pcf8574 = Pcf8574.create(device);
+    pcf8574.writeByte(0x00, 0x00);
+    display = I2cLcdCharacterDisplay.builder(16, 2)
+        .rs(0).rw(1).e(2).bl(3).data(4, 5, 6, 7)
+        .withPort(pcf8574)
+        .build();
+    // 4 bit mode, as left by init()
+    display.doubleWrite = true;
+    bus.resetCounters();
+    device.setPortListener(new SimPcf8574.PortListener() {
+      @Override
+      public void onPortWrite(int value) {
+        writes.add(value);
+      }
+    });
+  }
+
+  private void assertWrites(int... expected) {
+    assertEquals(expected.length, writes.size());
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals("state " + i, expected[i], (int) writes.get(i));
+    }
+  }
+
+  @Test
+  public void testCommandIsOneTransaction() {
+    display.writeCommand(0x28);
+    assertEquals(1, bus.getTransactionCount());
+    // each nibble is set up while E is high and latched as E falls, RS low for a command
+    assertWrites(0x00, E, 0x20 | E, 0x20, 0x20 | E, 0x80 | E, 0x80);
+  }
+
+  @Test
+  public void testCharacterIsOneTransaction() {
+    display.write('A');
+    assertEquals(1, bus.getTransactionCount());
+    // 'A' is 0x41, high nibble first, RS high for data
+    assertWrites(RS, RS | E, 0x40 | RS | E, 0x40 | RS, 0x40 | RS | E, 0x10 | RS | E, 0x10 | RS);
+  }
+
+  @Test
+  public void testNestedTransfersSendOnce() {
+    display.beginTransfer();
+    display.writeCommand(0x80);
+    display.beginTransfer();
+    display.write('A');
+    display.write('B');
+    display.endTransfer();
+    assertEquals(0, bus.getTransactionCount());
+    display.endTransfer();
+    assertEquals(1, bus.getTransactionCount());
+    assertEquals(3 * 7, writes.size());
+  }
+
+  @Test
+  public void testFullTransferIsSent() {
+    display.beginTransfer();
+    // 7 port states per write, the 37th write fills the transfer part way through
+    for (int i = 0; i < 36; i++) {
+      display.write('A');
+    }
+    assertEquals(0, bus.getTransactionCount());
+    display.write('A');
+    assertEquals(1, bus.getTransactionCount());
+    assertEquals(256, writes.size());
+    display.endTransfer();
+    assertEquals(2, bus.getTransactionCount());
+    assertEquals(37 * 7, writes.size());
+  }
+}
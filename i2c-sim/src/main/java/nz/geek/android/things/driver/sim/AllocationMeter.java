@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.sim;
+
+import java.lang.reflect.Method;
+
+/**
+ * Measures the memory allocated by the current thread, for tests that check a driver
+ * method does not allocate. Uses the HotSpot thread allocation counter of the JVM
+ * running the unit tests, found by reflection as it is not part of the Android API.
+ * <pre>
+ *   long bytes = AllocationMeter.measure(task, 10000);
+ * </pre>
+ */
+public final class AllocationMeter {
+
+  private static final int WARM_UP = 1000;
+  private static final int RUNS = 5;
+
+  private static final Object threadBean;
+  private static final Method allocatedBytes;
+
+  static {
+    Object bean = null;
+    Method method = null;
+    try {
+      Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+      bean = factory.getMethod("getThreadMXBean").invoke(null);
+      Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+      method = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+      if ((Long) method.invoke(bean, Thread.currentThread().getId()) < 0) {
+        method = null;    // allocation measurement disabled
+      }
+    } catch (Exception | LinkageError e) {
+      method = null;
+    }
+    threadBean = bean;
+    allocatedBytes = method;
+  }
+
+  private AllocationMeter() {
+  }
+
+  /**
+   * @return true when allocations can be measured by this JVM
+   */
+  public static boolean isSupported() {
+    return allocatedBytes != null;
+  }
+
+  /**
+   * Run the task count times, after running it enough times to warm up, and return
+   * the number of bytes allocated by the current thread while doing so. The JVM itself
+   * sometimes allocates on the thread, e.g., when it compiles the task, so the count is
+   * measured a few times and the least is returned.
+   * @param task the code to measure
+   * @param count number of times to run it
+   * @return bytes allocated, or -1 when not supported
+   */
+  public static long measure(Runnable task, int count) {
+    if (!isSupported()) return -1;
+    for (int i = 0; i < WARM_UP; i++) {
+      task.run();
+    }
+    // the meter itself allocates on its first use, so take a reading beforehand
+    allocatedBytes();
+    long least = Long.MAX_VALUE;
+    for (int run = 0; run < RUNS; run++) {
+      long before = allocatedBytes();
+      for (int i = 0; i < count; i++) {
+        task.run();
+      }
+      long after = allocatedBytes();
+      // subtract the cost of a reading
+      long overhead = allocatedBytes() - after;
+      least = Math.min(least, Math.max(0, after - before - overhead));
+    }
+    return least;
+  }
+
+  private static long allocatedBytes() {
+    try {
+      return (Long) allocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.sim;
+
+/**
+ * A simulated I2C bus shared by {@link SimI2cDevice}s. The bus keeps a simulated clock
+ * that advances by a configurable cost for each transaction and each byte transferred,
+ * and counts transactions and bytes, so driver throughput can be measured without
+ * hardware. Optionally the cost is also spent in real time.
+ */
+public class SimI2cBus {
+
+  /**
+   * 9 clocks (8 data bits and ACK) per byte at 100 kHz
+   */
+  public static final long STANDARD_MODE_BYTE_NANOS = 90000;
+
+  /**
+   * 9 clocks (8 data bits and ACK) per byte at 400 kHz
+   */
+  public static final long FAST_MODE_BYTE_NANOS = 22500;
+
+  /**
+   * START, STOP and the cost of a system call to the I2C driver
+   */
+  public static final long DEFAULT_TRANSACTION_NANOS = 50000;
+
+  private final long transactionNanos;
+  private final long byteNanos;
+  private boolean realTime = false;
+
+  private long nanoTime = 0;
+  private long transactions = 0;
+  private long bytes = 0;
+
+  /**
+   * Create a bus with no latency, the clock only advances with {@link #advance(long)}
+   */
+  public SimI2cBus() {
+    this(0, 0);
+  }
+
+  /**
+   * Create a bus with the given latency
+   * @param transactionNanos cost of each transaction, in addition to its bytes
+   * @param byteNanos cost of each byte transferred, including address bytes
+   */
+  public SimI2cBus(long transactionNanos, long byteNanos) {
+    this.transactionNanos = transactionNanos;
+    this.byteNanos = byteNanos;
+  }
+
+  /**
+   * @return a bus clocked at 100 kHz
+   */
+  public static SimI2cBus standardMode() {
+    return new SimI2cBus(DEFAULT_TRANSACTION_NANOS, STANDARD_MODE_BYTE_NANOS);
+  }
+
+  /**
+   * @return a bus clocked at 400 kHz
+   */
+  public static SimI2cBus fastMode() {
+    return new SimI2cBus(DEFAULT_TRANSACTION_NANOS, FAST_MODE_BYTE_NANOS);
+  }
+
+  /**
+   * Spend the cost of each transaction in real time as well as simulated time, so that
+   * callers measuring wall clock time see the bus latency.
+   * @param realTime true to busy wait for the cost of each transaction
+   */
+  public synchronized void setRealTime(boolean realTime) {
+    this.realTime = realTime;
+  }
+
+  /**
+   * Account for a transaction on the bus
+   * @param byteCount number of bytes transferred, including address bytes
+   */
+  /* package */ void transaction(int byteCount) {
+    long cost;
+    boolean spin;
+    synchronized (this) {
+      cost = transactionNanos + byteNanos * byteCount;
+      transactions++;
+      bytes += byteCount;
+      nanoTime += cost;
+      spin = realTime;
+    }
+    if (spin) {
+      long end = System.nanoTime() + cost;
+      while (System.nanoTime() < end) {
+        // busy wait, sleep is too coarse for single transactions
+      }
+    }
+  }
+
+  /**
+   * Advance the simulated clock, e.g., to let a sensor integration complete
+   * @param nanos time to advance by
+   */
+  public synchronized void advance(long nanos) {
+    nanoTime += nanos;
+  }
+
+  /**
+   * @return simulated time in nanoseconds since the bus was created
+   */
+  public synchronized long nanoTime() {
+    return nanoTime;
+  }
+
+  /**
+   * @return number of transactions since the bus was created or {@link #resetCounters()}
+   */
+  public synchronized long getTransactionCount() {
+    return transactions;
+  }
+
+  /**
+   * @return number of bytes, including address bytes, since the bus was created or {@link #resetCounters()}
+   */
+  public synchronized long getByteCount() {
+    return bytes;
+  }
+
+  /**
+   * Reset the transaction and byte counters, the clock is not affected
+   */
+  public synchronized void resetCounters() {
+    transactions = 0;
+    bytes = 0;
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.sim;
+
+import com.google.android.things.pio.I2cDevice;
+
+import java.io.IOException;
+
+/**
+ * Base class of simulated I2C devices. Each {@link I2cDevice} method is one transaction
+ * on the {@link SimI2cBus}, the register methods follow SMBus conventions: the register
+ * is written as the first data byte, register reads use a repeated start. Subclasses
+ * model a chip by implementing {@link #onWrite(byte[], int, int)} and
+ * {@link #onRead(byte[], int)}. No memory is allocated per transaction once the
+ * scratch buffer has grown to the largest register transfer.
+ */
+public abstract class SimI2cDevice implements I2cDevice {
+
+  private final SimI2cBus bus;
+  private final String name;
+
+  private byte[] scratch = new byte[8];
+  private boolean closed = false;
+  private boolean failing = false;
+
+  private long transactions = 0;
+  private long bytesWritten = 0;
+  private long bytesRead = 0;
+
+  protected SimI2cDevice(SimI2cBus bus, String name) {
+    this.bus = bus;
+    this.name = name;
+  }
+
+  /**
+   * Handle bytes written to the device in one transaction
+   * @param data the bytes written
+   * @param offset index of the first byte in data
+   * @param length number of bytes written
+   */
+  protected abstract void onWrite(byte[] data, int offset, int length);
+
+  /**
+   * Handle a read from the device
+   * @param buffer the buffer to fill
+   * @param length number of bytes read
+   */
+  protected abstract void onRead(byte[] buffer, int length);
+
+  /**
+   * @return the bus this device is on
+   */
+  public SimI2cBus getBus() {
+    return bus;
+  }
+
+  /**
+   * Make every following transaction throw an {@link IOException}, as if the device
+   * did not acknowledge its address.
+   * @param failing true to fail transactions
+   */
+  public synchronized void setFailing(boolean failing) {
+    this.failing = failing;
+  }
+
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * @return number of transactions addressed to this device
+   */
+  public synchronized long getTransactionCount() {
+    return transactions;
+  }
+
+  /**
+   * @return number of data bytes written to this device
+   */
+  public synchronized long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  /**
+   * @return number of data bytes read from this device
+   */
+  public synchronized long getBytesRead() {
+    return bytesRead;
+  }
+
+  public synchronized void resetCounters() {
+    transactions = 0;
+    bytesWritten = 0;
+    bytesRead = 0;
+  }
+
+  /**
+   * account for a transaction, the address byte(s) are added to the given data bytes
+   */
+  private void transaction(int written, int read, int addressBytes) throws IOException {
+    if (closed) throw new IOException("device closed");
+    if (failing) throw new IOException("no acknowledge");
+    transactions++;
+    bytesWritten += written;
+    bytesRead += read;
+    bus.transaction(written + read + addressBytes);
+  }
+
+  private byte[] scratch(int length) {
+    if (scratch.length < length) {
+      scratch = new byte[length];
+    }
+    return scratch;
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public synchronized void read(byte[] buffer, int length) throws IOException {
+    transaction(0, length, 1);
+    onRead(buffer, length);
+  }
+
+  @Override
+  public synchronized void write(byte[] buffer, int length) throws IOException {
+    transaction(length, 0, 1);
+    onWrite(buffer, 0, length);
+  }
+
+  @Override
+  public synchronized void readRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+    transaction(1, length, 2);
+    byte[] data = scratch(1);
+    data[0] = (byte) reg;
+    onWrite(data, 0, 1);
+    onRead(buffer, length);
+  }
+
+  @Override
+  public synchronized byte readRegByte(int reg) throws IOException {
+    transaction(1, 1, 2);
+    byte[] data = scratch(1);
+    data[0] = (byte) reg;
+    onWrite(data, 0, 1);
+    onRead(data, 1);
+    return data[0];
+  }
+
+  @Override
+  public synchronized short readRegWord(int reg) throws IOException {
+    transaction(1, 2, 2);
+    byte[] data = scratch(2);
+    data[0] = (byte) reg;
+    onWrite(data, 0, 1);
+    onRead(data, 2);
+    return (short) ((data[0] & 0xFF) | ((data[1] & 0xFF) << 8));
+  }
+
+  @Override
+  public synchronized void writeRegBuffer(int reg, byte[] buffer, int length) throws IOException {
+    transaction(length + 1, 0, 1);
+    byte[] data = scratch(length + 1);
+    data[0] = (byte) reg;
+    System.arraycopy(buffer, 0, data, 1, length);
+    onWrite(data, 0, length + 1);
+  }
+
+  @Override
+  public synchronized void writeRegByte(int reg, byte value) throws IOException {
+    transaction(2, 0, 1);
+    byte[] data = scratch(2);
+    data[0] = (byte) reg;
+    data[1] = value;
+    onWrite(data, 0, 2);
+  }
+
+  @Override
+  public synchronized void writeRegWord(int reg, short value) throws IOException {
+    transaction(3, 0, 1);
+    byte[] data = scratch(3);
+    data[0] = (byte) reg;
+    data[1] = (byte) (value & 0xFF);
+    data[2] = (byte) ((value >> 8) & 0xFF);
+    onWrite(data, 0, 3);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.sim;
+
+/**
+ * Simulated PCA9685 16 channel PWM controller.
+ * <p>
+ * The first byte written sets the register pointer, following bytes are written to the
+ * register at the pointer, which advances after each byte when MODE1 AI is set. Reads
+ * return the register at the pointer in the same way. PRE_SCALE can only be written
+ * while MODE1 SLEEP is set. Writes to the ALL_LED registers are applied to every channel.
+ */
+public class SimPca9685 extends SimI2cDevice {
+
+  public static final int MODE_1 = 0x00;
+  public static final int MODE_2 = 0x01;
+  public static final int LED0_ON_L = 0x06;
+  public static final int ALL_LED_ON_L = 0xFA;
+  public static final int PRE_SCALE = 0xFE;
+
+  private static final int SLEEP = 0x10;
+  private static final int AI = 0x20;
+  private static final int NUM_CHANNELS = 16;
+  private static final int CLK_FREQ = 25000000;
+
+  private final int[] registers = new int[256];
+  private int pointer = 0;
+
+  private long registerWriteCount = 0;
+  private long sleepCount = 0;
+  private long preScaleWriteCount = 0;
+
+  public SimPca9685(SimI2cBus bus) {
+    super(bus, "PCA9685");
+    // power on values
+    registers[MODE_1] = 0x11;
+    registers[MODE_2] = 0x04;
+    registers[PRE_SCALE] = 0x1E;
+    for (int channel = 0; channel < NUM_CHANNELS; channel++) {
+      registers[LED0_ON_L + 4 * channel + 3] = 0x10;  // LEDn_OFF_H full off
+    }
+  }
+
+  @Override
+  protected void onWrite(byte[] data, int offset, int length) {
+    if (length == 0) return;
+    pointer = data[offset] & 0xFF;
+    for (int i = offset + 1; i < offset + length; i++) {
+      writeRegister(pointer, data[i] & 0xFF);
+      advance();
+    }
+  }
+
+  @Override
+  protected void onRead(byte[] buffer, int length) {
+    for (int i = 0; i < length; i++) {
+      buffer[i] = (byte) registers[pointer];
+      advance();
+    }
+  }
+
+  private void advance() {
+    if ((registers[MODE_1] & AI) != 0) {
+      pointer = (pointer + 1) & 0xFF;
+    }
+  }
+
+  private void writeRegister(int reg, int value) {
+    registerWriteCount++;
+    if (reg == PRE_SCALE) {
+      if ((registers[MODE_1] & SLEEP) == 0) return;  // ignored unless asleep
+      preScaleWriteCount++;
+    } else if (reg == MODE_1) {
+      if ((value & SLEEP) != 0 && (registers[MODE_1] & SLEEP) == 0) {
+        sleepCount++;
+      }
+    } else if (reg >= ALL_LED_ON_L && reg < PRE_SCALE) {
+      for (int channel = 0; channel < NUM_CHANNELS; channel++) {
+        registers[LED0_ON_L + 4 * channel + (reg - ALL_LED_ON_L)] = value;
+      }
+    }
+    registers[reg] = value;
+  }
+
+  /**
+   * @param reg register address
+   * @return the register value
+   */
+  public synchronized int getRegister(int reg) {
+    return registers[reg & 0xFF];
+  }
+
+  /**
+   * @param channel [0:15]
+   * @return the 13 bit on time of the channel, bit 12 is full on
+   */
+  public synchronized int getOn(int channel) {
+    int reg = LED0_ON_L + 4 * channel;
+    return registers[reg] | ((registers[reg + 1] & 0x1F) << 8);
+  }
+
+  /**
+   * @param channel [0:15]
+   * @return the 13 bit off time of the channel, bit 12 is full off
+   */
+  public synchronized int getOff(int channel) {
+    int reg = LED0_ON_L + 4 * channel + 2;
+    return registers[reg] | ((registers[reg + 1] & 0x1F) << 8);
+  }
+
+  /**
+   * @return the output frequency given by PRE_SCALE and the internal oscillator
+   */
+  public synchronized double getFrequencyHz() {
+    return CLK_FREQ / (4096.0 * (registers[PRE_SCALE] + 1));
+  }
+
+  public synchronized boolean isSleeping() {
+    return (registers[MODE_1] & SLEEP) != 0;
+  }
+
+  /**
+   * @return number of register bytes written
+   */
+  public synchronized long getRegisterWriteCount() {
+    return registerWriteCount;
+  }
+
+  /**
+   * @return number of times the oscillator was stopped, each one glitches the outputs
+   */
+  public synchronized long getSleepCount() {
+    return sleepCount;
+  }
+
+  /**
+   * @return number of accepted PRE_SCALE writes
+   */
+  public synchronized long getPreScaleWriteCount() {
+    return preScaleWriteCount;
+  }
+}
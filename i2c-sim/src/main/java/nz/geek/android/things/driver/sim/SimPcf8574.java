@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.sim;
+
+/**
+ * Simulated PCF8574 8 bit IO port.
+ * <p>
+ * The port pins are quasi-bidirectional: each byte written is latched as it arrives, a
+ * latch bit of 1 weakly pulls the pin high so something external can pull it low, a latch
+ * bit of 0 drives the pin low. A read returns the pin levels. The INT output is asserted
+ * when a pin level changes and released by a read or write of the port.
+ */
+public class SimPcf8574 extends SimI2cDevice {
+
+  /**
+   * Notified of every byte latched by the port
+   */
+  public interface PortListener {
+    void onPortWrite(int value);
+  }
+
+  private int latch = 0xFF;          // power on value
+  private int external = 0xFF;       // levels driven by external devices, 1 when not driven
+  private int lastPins = 0xFF;
+  private boolean interrupt = false;
+  private long latchCount = 0;
+  private PortListener listener;
+
+  public SimPcf8574(SimI2cBus bus) {
+    super(bus, "PCF8574");
+  }
+
+  public synchronized void setPortListener(PortListener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  protected void onWrite(byte[] data, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      latch = data[i] & 0xFF;
+      latchCount++;
+      if (listener != null) listener.onPortWrite(latch);
+    }
+    lastPins = getPins();
+    interrupt = false;
+  }
+
+  @Override
+  protected void onRead(byte[] buffer, int length) {
+    int pins = getPins();
+    for (int i = 0; i < length; i++) {
+      buffer[i] = (byte) pins;
+    }
+    lastPins = pins;
+    interrupt = false;
+  }
+
+  /**
+   * Drive the given pins from outside the chip, e.g., a button pulling a pin low
+   * @param mask the pins to set
+   * @param levels the level to drive each pin in mask to, 1 releases the pin
+   */
+  public synchronized void setInputs(int mask, int levels) {
+    external = ((external & ~mask) | (levels & mask)) & 0xFF;
+    if (getPins() != lastPins) {
+      interrupt = true;
+    }
+  }
+
+  /**
+   * @return the level of the port pins, low when either the latch or an external device pulls low
+   */
+  public synchronized int getPins() {
+    return latch & external;
+  }
+
+  /**
+   * @return the last byte written to the port
+   */
+  public synchronized int getLatch() {
+    return latch;
+  }
+
+  /**
+   * @return number of bytes latched, i.e., port states written
+   */
+  public synchronized long getLatchCount() {
+    return latchCount;
+  }
+
+  /**
+   * @return true when the INT output is asserted (low)
+   */
+  public synchronized boolean isInterruptAsserted() {
+    return interrupt;
+  }
+}
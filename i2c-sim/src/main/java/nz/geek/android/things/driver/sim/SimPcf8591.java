@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.sim;
+
+/**
+ * Simulated PCF8591 8 bit ADC and DAC.
+ * <p>
+ * The first byte written is the control byte, following bytes are DAC values. A conversion
+ * is started by each read acknowledge and the result is sent in the next byte, so the
+ * first byte of a read is the result of the previous conversion. With the auto increment
+ * flag set the channel advances after each conversion, wrapping at the number of channels
+ * of the configured input mode.
+ */
+public class SimPcf8591 extends SimI2cDevice {
+
+  private static final int AUTO_INCREMENT = 0x04;
+  private static final int ANALOG_OUTPUT_ENABLE = 0x40;
+  private static final int CHANNEL_MASK = 0x03;
+  private static final int MODE_MASK = 0x30;
+
+  /**
+   * input voltage of AIN0-3 as an 8 bit value
+   */
+  private final int[] inputs = new int[4];
+
+  /**
+   * signal generator for each input, used instead of the fixed input when set
+   */
+  private final Signal[] signals = new Signal[4];
+
+  private int control = 0;
+  private int channel = 0;
+  private int lastConversion = 0x80;   // power on value
+  private int dac = 0;
+  private long dacWriteCount = 0;
+  private long conversionCount = 0;
+
+  /**
+   * Generates an input value for each conversion
+   */
+  public interface Signal {
+    /**
+     * @param conversion number of conversions made by the device so far
+     * @return 8 bit input value
+     */
+    int sample(long conversion);
+  }
+
+  public SimPcf8591(SimI2cBus bus) {
+    super(bus, "PCF8591");
+  }
+
+  @Override
+  protected void onWrite(byte[] data, int offset, int length) {
+    if (length == 0) return;
+    control = data[offset] & 0xFF;
+    channel = control & CHANNEL_MASK;
+    for (int i = offset + 1; i < offset + length; i++) {
+      dac = data[i] & 0xFF;
+      dacWriteCount++;
+    }
+  }
+
+  @Override
+  protected void onRead(byte[] buffer, int length) {
+    for (int i = 0; i < length; i++) {
+      buffer[i] = (byte) lastConversion;
+      lastConversion = convert(channel);
+      if ((control & AUTO_INCREMENT) != 0) {
+        channel = (channel + 1) % getChannelCount();
+      }
+    }
+  }
+
+  private int convert(int channel) {
+    conversionCount++;
+    int a = input(0), b = input(1), c = input(2), d = input(3);
+    switch (control & MODE_MASK) {
+      case 0x10:  // three differential inputs against AIN3
+        return differential(channel == 0 ? a : channel == 1 ? b : c, d);
+      case 0x20:  // AIN0, AIN1 single ended, AIN2 - AIN3
+        return channel < 2 ? input(channel) : differential(c, d);
+      case 0x30:  // AIN0 - AIN1, AIN2 - AIN3
+        return channel == 0 ? differential(a, b) : differential(c, d);
+      default:
+        return input(channel);
+    }
+  }
+
+  private int input(int channel) {
+    Signal signal = signals[channel];
+    return signal != null ? (signal.sample(conversionCount) & 0xFF) : inputs[channel];
+  }
+
+  /**
+   * differential result in two's complement, clamped to [-128:127]
+   */
+  private static int differential(int positive, int negative) {
+    int value = Math.max(-128, Math.min(127, positive - negative));
+    return value & 0xFF;
+  }
+
+  /**
+   * @return number of input channels in the configured mode
+   */
+  public synchronized int getChannelCount() {
+    switch (control & MODE_MASK) {
+      case 0x10:
+      case 0x20:
+        return 3;
+      case 0x30:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+
+  /**
+   * Set the input voltage of an analog input
+   * @param channel AIN0-3 [0:3]
+   * @param value 8 bit value
+   */
+  public synchronized void setInput(int channel, int value) {
+    inputs[channel] = value & 0xFF;
+    signals[channel] = null;
+  }
+
+  /**
+   * Generate an analog input from a signal, e.g., a ramp
+   * @param channel AIN0-3 [0:3]
+   * @param signal the signal
+   */
+  public synchronized void setSignal(int channel, Signal signal) {
+    signals[channel] = signal;
+  }
+
+  /**
+   * @return the last DAC value written
+   */
+  public synchronized int getDac() {
+    return dac;
+  }
+
+  /**
+   * @return true when the analog output is enabled
+   */
+  public synchronized boolean isAnalogOutputEnabled() {
+    return (control & ANALOG_OUTPUT_ENABLE) != 0;
+  }
+
+  /**
+   * @return number of DAC values written
+   */
+  public synchronized long getDacWriteCount() {
+    return dacWriteCount;
+  }
+
+  /**
+   * @return number of conversions made
+   */
+  public synchronized long getConversionCount() {
+    return conversionCount;
+  }
+
+  public synchronized int getControl() {
+    return control;
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.sim;
+
+/**
+ * Simulated TCS34725 colour sensor.
+ * <p>
+ * Every write starts with a COMMAND byte (bit 7 set) that selects a register and a
+ * transaction type: repeated byte (00) keeps accessing the same register, anything else
+ * except special function (11) auto increments. The driver's BLOCK_PROTOCOL (10) is
+ * treated as auto increment. Special function 0x06 clears the RGBC interrupt.
+ * <p>
+ * With PON and AEN set the RGBC cycle runs on the {@link SimI2cBus} clock: each
+ * integration takes (256 - ATIME) * 2.4 ms, at the end of which the data registers are
+ * updated from the light set with {@link #setLight(int, int, int, int)} and AVALID is set.
+ */
+public class SimTcs34725 extends SimI2cDevice {
+
+  private static final int COMMAND = 0x80;
+  private static final int TYPE_MASK = 0x60;
+  private static final int TYPE_REPEATED = 0x00;
+  private static final int TYPE_SPECIAL = 0x60;
+  private static final int ADDRESS_MASK = 0x1F;
+  private static final int SPECIAL_CLEAR_INTERRUPT = 0x06;
+
+  private static final int ENABLE = 0x00;
+  private static final int ATIME = 0x01;
+  private static final int AILTL = 0x04;
+  private static final int ID = 0x12;
+  private static final int STATUS = 0x13;
+  private static final int CDATAL = 0x14;
+
+  private static final int PON = 0x01;
+  private static final int AEN = 0x02;
+  private static final int AIEN = 0x10;
+  private static final int AVALID = 0x01;
+  private static final int AINT = 0x10;
+
+  private static final long CYCLE_STEP_NANOS = 2400000;
+
+  private final int[] registers = new int[32];
+  private int pointer = 0;
+  private boolean autoIncrement = false;
+
+  private int clear, red, green, blue;
+  private long cycleStart = -1;
+  private long cycles = 0;
+  private long invalidCommandCount = 0;
+
+  public SimTcs34725(SimI2cBus bus) {
+    super(bus, "TCS34725");
+    registers[ATIME] = 0xFF;
+    registers[0x03] = 0xFF;     // WTIME
+    registers[ID] = 0x44;
+  }
+
+  @Override
+  protected void onWrite(byte[] data, int offset, int length) {
+    if (length == 0) return;
+    int command = data[offset] & 0xFF;
+    if ((command & COMMAND) == 0) {
+      invalidCommandCount++;
+      return;
+    }
+    update();
+    int type = command & TYPE_MASK;
+    if (type == TYPE_SPECIAL) {
+      if ((command & ADDRESS_MASK) == SPECIAL_CLEAR_INTERRUPT) {
+        registers[STATUS] &= ~AINT;
+      }
+      return;
+    }
+    pointer = command & ADDRESS_MASK;
+    autoIncrement = type != TYPE_REPEATED;
+    for (int i = offset + 1; i < offset + length; i++) {
+      writeRegister(pointer, data[i] & 0xFF);
+      if (autoIncrement) pointer = (pointer + 1) & ADDRESS_MASK;
+    }
+  }
+
+  @Override
+  protected void onRead(byte[] buffer, int length) {
+    update();
+    for (int i = 0; i < length; i++) {
+      buffer[i] = (byte) registers[pointer];
+      if (autoIncrement) pointer = (pointer + 1) & ADDRESS_MASK;
+    }
+  }
+
+  private void writeRegister(int reg, int value) {
+    if (reg == STATUS || reg == ID || reg >= CDATAL) return;  // read only
+    if (reg == ENABLE) {
+      boolean running = (registers[ENABLE] & (PON | AEN)) == (PON | AEN);
+      boolean start = (value & (PON | AEN)) == (PON | AEN);
+      if (start && !running) {
+        cycleStart = getBus().nanoTime();
+      } else if (!start) {
+        cycleStart = -1;
+      }
+    }
+    registers[reg] = value;
+  }
+
+  /**
+   * run any RGBC cycles completed since the last access
+   */
+  private void update() {
+    if (cycleStart < 0) return;
+    long cycle = (256 - registers[ATIME]) * CYCLE_STEP_NANOS;
+    long now = getBus().nanoTime();
+    long completed = (now - cycleStart) / cycle;
+    if (completed == 0) return;
+    cycleStart += completed * cycle;
+    cycles += completed;
+
+    // the count saturates at 1024 per integration step
+    int max = Math.min(0xFFFF, 1024 * (256 - registers[ATIME]));
+    setData(CDATAL, Math.min(max, clear));
+    setData(CDATAL + 2, Math.min(max, red));
+    setData(CDATAL + 4, Math.min(max, green));
+    setData(CDATAL + 6, Math.min(max, blue));
+    registers[STATUS] |= AVALID;
+
+    int low = registers[AILTL] | (registers[AILTL + 1] << 8);
+    int high = registers[AILTL + 2] | (registers[AILTL + 3] << 8);
+    if ((registers[ENABLE] & AIEN) != 0 && (clear < low || clear > high)) {
+      registers[STATUS] |= AINT;
+    }
+  }
+
+  private void setData(int reg, int value) {
+    registers[reg] = value & 0xFF;
+    registers[reg + 1] = (value >> 8) & 0xFF;
+  }
+
+  /**
+   * Set the light falling on the sensor, as the count of a full integration
+   */
+  public synchronized void setLight(int clear, int red, int green, int blue) {
+    this.clear = clear;
+    this.red = red;
+    this.green = green;
+    this.blue = blue;
+  }
+
+  /**
+   * @param reg register address [0x00:0x1F]
+   * @return the register value
+   */
+  public synchronized int getRegister(int reg) {
+    update();
+    return registers[reg & ADDRESS_MASK];
+  }
+
+  /**
+   * @return number of completed RGBC integration cycles
+   */
+  public synchronized long getCycleCount() {
+    update();
+    return cycles;
+  }
+
+  /**
+   * @return number of writes that did not start with a COMMAND byte
+   */
+  public synchronized long getInvalidCommandCount() {
+    return invalidCommandCount;
+  }
+}
@@ -0,0 +1,38 @@
+package nz.geek.android.things.driver.sim;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimI2cBusTest {
+
+  @Test
+  public void testTransactionCost() throws IOException {
+    SimI2cBus bus = new SimI2cBus(1000, 10);
+    SimPcf8574 device = new SimPcf8574(bus);
+    device.write(new byte[]{1, 2, 3}, 3);          // address + 3 bytes
+    device.readRegByte(0x00);                      // address, reg, address, data
+    assertEquals(2, bus.getTransactionCount());
+    assertEquals(8, bus.getByteCount());
+    assertEquals(2 * 1000 + 8 * 10, bus.nanoTime());
+    assertEquals(2, device.getTransactionCount());
+    assertEquals(4, device.getBytesWritten());
+    assertEquals(1, device.getBytesRead());
+  }
+
+  @Test(expected = IOException.class)
+  public void testFailingDevice() throws IOException {
+    SimPcf8574 device = new SimPcf8574(new SimI2cBus());
+    device.setFailing(true);
+    device.write(new byte[]{0}, 1);
+  }
+
+  @Test(expected = IOException.class)
+  public void testClosedDevice() throws IOException {
+    SimPcf8574 device = new SimPcf8574(new SimI2cBus());
+    device.close();
+    device.read(new byte[1], 1);
+  }
+}
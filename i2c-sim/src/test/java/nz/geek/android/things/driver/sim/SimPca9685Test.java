@@ -0,0 +1,47 @@
+package nz.geek.android.things.driver.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimPca9685Test {
+
+  private SimPca9685 device;
+
+  @Before
+  public void before() {
+    device = new SimPca9685(new SimI2cBus());
+  }
+
+  @Test
+  public void testPreScaleOnlyWrittenWhenAsleep() throws IOException {
+    device.writeRegByte(SimPca9685.MODE_1, (byte) 0x20);
+    device.writeRegByte(SimPca9685.PRE_SCALE, (byte) 0x79);
+    assertEquals(0x1E, device.getRegister(SimPca9685.PRE_SCALE));
+    device.writeRegByte(SimPca9685.MODE_1, (byte) 0x30);
+    device.writeRegByte(SimPca9685.PRE_SCALE, (byte) 0x79);
+    assertEquals(0x79, device.getRegister(SimPca9685.PRE_SCALE));
+    assertEquals(50.0, device.getFrequencyHz(), 0.5);
+    assertEquals(1, device.getSleepCount());
+  }
+
+  @Test
+  public void testAutoIncrementWrite() throws IOException {
+    device.writeRegByte(SimPca9685.MODE_1, (byte) 0x20);
+    device.writeRegBuffer(SimPca9685.LED0_ON_L + 4, new byte[]{1, 0, (byte) 0xFF, 0x0F, 2, 0, 3, 0}, 8);
+    assertEquals(1, device.getOn(1));
+    assertEquals(0xFFF, device.getOff(1));
+    assertEquals(2, device.getOn(2));
+    assertEquals(3, device.getOff(2));
+  }
+
+  @Test
+  public void testWithoutAutoIncrementSameRegister() throws IOException {
+    device.writeRegByte(SimPca9685.MODE_1, (byte) 0x00);
+    device.writeRegBuffer(SimPca9685.LED0_ON_L, new byte[]{1, 2}, 2);
+    assertEquals(2, device.getOn(0));
+  }
+}
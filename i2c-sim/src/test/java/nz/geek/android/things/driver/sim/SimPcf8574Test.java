@@ -0,0 +1,50 @@
+package nz.geek.android.things.driver.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimPcf8574Test {
+
+  private SimPcf8574 device;
+
+  @Before
+  public void before() {
+    device = new SimPcf8574(new SimI2cBus());
+  }
+
+  private int read() throws IOException {
+    byte[] buffer = new byte[1];
+    device.read(buffer, 1);
+    return buffer[0] & 0xFF;
+  }
+
+  @Test
+  public void testEveryByteIsLatched() throws IOException {
+    device.write(new byte[]{0x01, 0x02, 0x04}, 3);
+    assertEquals(3, device.getLatchCount());
+    assertEquals(0x04, device.getLatch());
+  }
+
+  @Test
+  public void testQuasiBidirectionalPins() throws IOException {
+    device.write(new byte[]{(byte) 0xF0}, 1);
+    device.setInputs(0xFF, 0x7F);
+    // low latch bits read low, high latch bits follow the external level
+    assertEquals(0x70, read());
+  }
+
+  @Test
+  public void testInterruptClearedByRead() throws IOException {
+    assertFalse(device.isInterruptAsserted());
+    device.setInputs(0x01, 0x00);
+    assertTrue(device.isInterruptAsserted());
+    read();
+    assertFalse(device.isInterruptAsserted());
+  }
+}
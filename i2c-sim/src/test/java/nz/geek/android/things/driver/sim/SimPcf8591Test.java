@@ -0,0 +1,63 @@
+package nz.geek.android.things.driver.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SimPcf8591Test {
+
+  private SimPcf8591 device;
+
+  @Before
+  public void before() {
+    device = new SimPcf8591(new SimI2cBus());
+    for (int i = 0; i < 4; i++) {
+      device.setInput(i, 10 * (i + 1));
+    }
+  }
+
+  @Test
+  public void testFirstByteIsPreviousConversion() throws IOException {
+    byte[] buffer = new byte[2];
+    device.write(new byte[]{0x02}, 1);
+    device.read(buffer, 2);
+    assertEquals(0x80, buffer[0] & 0xFF);
+    assertEquals(30, buffer[1]);
+    device.read(buffer, 2);
+    assertEquals(30, buffer[0]);
+  }
+
+  @Test
+  public void testAutoIncrementWrapsAtChannelCount() throws IOException {
+    byte[] buffer = new byte[6];
+    device.write(new byte[]{0x04}, 1);
+    device.read(buffer, 6);
+    assertEquals(10, buffer[1]);
+    assertEquals(20, buffer[2]);
+    assertEquals(30, buffer[3]);
+    assertEquals(40, buffer[4]);
+    assertEquals(10, buffer[5]);
+  }
+
+  @Test
+  public void testDifferentialMode() throws IOException {
+    byte[] buffer = new byte[3];
+    device.write(new byte[]{0x34}, 1);          // two differential, auto increment
+    device.read(buffer, 3);
+    assertEquals(2, device.getChannelCount());
+    assertEquals(-10, buffer[1]);
+    assertEquals(-10, buffer[2]);
+  }
+
+  @Test
+  public void testDacBytesFollowControlByte() throws IOException {
+    device.write(new byte[]{0x40, 1, 2, 3}, 4);
+    assertTrue(device.isAnalogOutputEnabled());
+    assertEquals(3, device.getDac());
+    assertEquals(3, device.getDacWriteCount());
+  }
+}
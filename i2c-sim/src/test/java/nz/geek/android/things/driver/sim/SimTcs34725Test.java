@@ -0,0 +1,54 @@
+package nz.geek.android.things.driver.sim;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class SimTcs34725Test {
+
+  private SimI2cBus bus;
+  private SimTcs34725 device;
+
+  @Before
+  public void before() {
+    bus = new SimI2cBus();
+    device = new SimTcs34725(bus);
+  }
+
+  @Test
+  public void testDataValidAfterIntegration() throws IOException {
+    device.setLight(100, 20, 30, 40);
+    device.writeRegByte(0x80 | 0x01, (byte) 0xF6);    // ATIME 10 cycles = 24 ms
+    device.writeRegByte(0x80, (byte) 0x03);           // PON | AEN
+    assertEquals(0, device.readRegByte(0x80 | 0x13) & 0x01);
+
+    bus.advance(24000000);
+    assertEquals(1, device.readRegByte(0x80 | 0x13) & 0x01);
+
+    byte[] buffer = new byte[8];
+    device.readRegBuffer(0x80 | 0x20 | 0x14, buffer, buffer.length);
+    assertEquals(100, buffer[0]);
+    assertEquals(20, buffer[2]);
+    assertEquals(30, buffer[4]);
+    assertEquals(40, buffer[6]);
+    assertEquals(1, device.getCycleCount());
+  }
+
+  @Test
+  public void testRepeatedByteProtocol() throws IOException {
+    byte[] buffer = new byte[2];
+    device.readRegBuffer(0x80 | 0x12, buffer, 2);
+    assertEquals(0x44, buffer[0]);
+    assertEquals(0x44, buffer[1]);
+  }
+
+  @Test
+  public void testWriteWithoutCommandBitIgnored() throws IOException {
+    device.writeRegByte(0x01, (byte) 0x00);
+    assertEquals(0xFF, device.getRegister(0x01));
+    assertEquals(1, device.getInvalidCommandCount());
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.ledmux;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.concurrent.TimeUnit;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.scheduler.BusScheduler;
+
+/**
+ * Driver for a multiplexed LED display, e.g., 7 segment digits behind a BCD decoder or an
+ * LED matrix, with the rows (or digits) and columns (or segments) on the pins of a PCF8574.
+ * <p>
+ * The display is refreshed at a fixed rate, each row is shown in turn for an equal share of
+ * the refresh period, see {@link ScanPattern}. Brightness is set per row by the share of its
+ * slot it is lit for.
+ * Draw with {@link #setRow(int, int)} and {@link #setBrightness(int, int)}, then call
+ * {@link #show()}. Drawing never holds up the refresh.
+ * <pre>
+ * LedMultiplexer display = LedMultiplexer.builder().address(0).build();
+ * display.setRow(0, 0x05);
+ * display.show();
+ * </pre>
+ */
+public class LedMultiplexer implements AutoCloseable {
+  private static final String TAG = LedMultiplexer.class.getSimpleName();
+  private static final int MAX_LINES = 8; // 8 pin IO port
+
+  private static final int DEFAULT_REFRESH_RATE_HZ = 100;
+  private static final int DEFAULT_LEVELS = 8;
+
+  private final Pcf8574 pcf8574;
+  private final ScanPattern scanPattern;
+
+  /**
+   * when set the display is refreshed on the scheduler, otherwise on a thread of its own
+   */
+  private final BusScheduler scheduler;
+  private HandlerThread handlerThread;
+  private Handler handler;
+
+  /**
+   * set by {@link #close()}, a refresh already posted then does nothing
+   */
+  private volatile boolean closed = false;
+
+  private LedMultiplexer(LedMultiplexerBuilder builder) {
+    this.scheduler = builder.scheduler;
+    if (scheduler != null) {
+      pcf8574 = Pcf8574.create(builder.address, scheduler.getBus(), builder.isPcf8574);
+    } else {
+      pcf8574 = Pcf8574.create(builder.address, builder.isPcf8574);
+    }
+    scanPattern = new ScanPattern(pcf8574, builder.rowPins, builder.columnPins, builder.levels,
+        builder.rowsActiveHigh, builder.columnsActiveHigh,
+        TimeUnit.SECONDS.toNanos(1) / builder.refreshRateHz);
+    scanPattern.start(System.nanoTime());
+
+    if (scheduler != null) {
+      scheduler.post(BusScheduler.PRIORITY_POLL, refreshRunnable);
+    } else {
+      handlerThread = new HandlerThread(TAG);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+      handler.post(refreshRunnable);
+    }
+  }
+
+  /**
+   * Draw a row, shown from the next call to {@link #show()}
+   * @param row index of the row (or digit), an index into the row pins
+   * @param columns bit n set to light column n (or segment n)
+   */
+  public void setRow(int row, int columns) {
+    checkRow(row);
+    scanPattern.setRow(row, columns);
+  }
+
+  /**
+   * @param row index of the row
+   * @return the columns drawn in the row
+   */
+  public int getRow(int row) {
+    checkRow(row);
+    return scanPattern.getRow(row);
+  }
+
+  /**
+   * Clear every row, shown from the next call to {@link #show()}
+   */
+  public void clear() {
+    for (int row = 0; row < scanPattern.getRowCount(); row++) {
+      scanPattern.setRow(row, 0);
+    }
+  }
+
+  /**
+   * Set the brightness of a row, shown from the next call to {@link #show()}
+   * @param row index of the row
+   * @param level [0:{@link #getBrightnessLevels()}], 0 is off
+   */
+  public void setBrightness(int row, int level) {
+    checkRow(row);
+    scanPattern.setLevel(row, level);
+  }
+
+  /**
+   * Set the brightness of every row, shown from the next call to {@link #show()}
+   * @param level [0:{@link #getBrightnessLevels()}], 0 is off
+   */
+  public void setBrightness(int level) {
+    for (int row = 0; row < scanPattern.getRowCount(); row++) {
+      scanPattern.setLevel(row, level);
+    }
+  }
+
+  /**
+   * @return the level of full brightness
+   */
+  public int getBrightnessLevels() {
+    return scanPattern.getLevels();
+  }
+
+  /**
+   * Show what has been drawn from the next refresh
+   */
+  public void show() {
+    scanPattern.show();
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= scanPattern.getRowCount()) throw new IllegalArgumentException("row out of range");
+  }
+
+  /**
+   * Write the next step of the scan and sleep until the one after, to the nearest
+   * millisecond. The scan keeps its deadlines in nanoseconds so rounding doesn't drift.
+   */
+  private void refresh() {
+    if (closed) return;
+    long now = System.nanoTime();
+    long delayMs = toMillis(scanPattern.step(now) - now);
+    if (scheduler != null) {
+      scheduler.postDelayed(BusScheduler.PRIORITY_POLL, refreshRunnable, delayMs);
+      return;
+    }
+    Handler handler = this.handler;
+    if (handler != null) {
+      handler.postDelayed(refreshRunnable, delayMs);
+    }
+  }
+
+  private static long toMillis(long nanos) {
+    return nanos <= 0 ? 0 : (nanos + 500000) / 1000000;
+  }
+
+  private final Runnable refreshRunnable = new Runnable() {
+    @Override
+    public void run() {
+      refresh();
+    }
+  };
+
+  @Override
+  public void close() {
+    closed = true;
+    if (scheduler != null) {
+      scheduler.removeCallbacks(refreshRunnable);
+    }
+    if (handler != null) {
+      handler.removeCallbacks(refreshRunnable);
+      handlerThread.quitSafely();
+      handler = null;
+      handlerThread = null;
+    }
+    if (pcf8574 != null) {
+      scanPattern.blank();
+      pcf8574.close();
+    }
+  }
+
+  public static LedMultiplexerBuilder builder() {
+    return new LedMultiplexerBuilder();
+  }
+
+  public static final class LedMultiplexerBuilder {
+    private int address;
+    private boolean isPcf8574 = false;
+    private BusScheduler scheduler;
+    private int[] rowPins = {0, 1, 2, 3};
+    private int[] columnPins = {4, 5, 6, 7};
+    private boolean rowsActiveHigh = false;
+    private boolean columnsActiveHigh = false;
+    private int levels = DEFAULT_LEVELS;
+    private int refreshRateHz = DEFAULT_REFRESH_RATE_HZ;
+
+    private LedMultiplexerBuilder() {
+
+    }
+
+    /**
+     * Specify the I2C address of the PCF8574. This is the value of A0-A2 pins, not
+     * the base address of the PCF8574 which is inferred with {@link #isPcf8574(boolean)}
+     * @param address value of A0-A2 [0:7]
+     * @return builder
+     */
+    public final LedMultiplexerBuilder address(int address) {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Specify that the display is connected with a PCF8574. This uses a different
+     * base address to the more typical PCF8574A.
+     * @param isPcf8574 true when PCF8574 should be used
+     * @return builder
+     */
+    public final LedMultiplexerBuilder isPcf8574(boolean isPcf8574) {
+      this.isPcf8574 = isPcf8574;
+      return this;
+    }
+
+    /**
+     * Refresh the display on the given {@link BusScheduler}. The PCF8574 is opened on the
+     * scheduler's bus.
+     * @param scheduler the scheduler of the I2C bus the PCF8574 is connected to
+     * @return builder
+     */
+    public final LedMultiplexerBuilder withScheduler(BusScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Specify the port pins of the rows (or digits), P0-P3 by default
+     * @param pins port pin of each row [0:7]
+     * @return builder
+     */
+    public final LedMultiplexerBuilder rows(int... pins) {
+      checkPins(pins);
+      this.rowPins = pins.clone();
+      return this;
+    }
+
+    /**
+     * Specify the port pins of the columns (or segments), P4-P7 by default
+     * @param pins port pin of each column [0:7]
+     * @return builder
+     */
+    public final LedMultiplexerBuilder columns(int... pins) {
+      checkPins(pins);
+      this.columnPins = pins.clone();
+      return this;
+    }
+
+    private static void checkPins(int[] pins) {
+      if (pins.length == 0 || pins.length > MAX_LINES) throw new IllegalArgumentException("invalid pin count");
+      for (int pin : pins) {
+        if (pin < 0 || pin >= MAX_LINES) throw new IllegalArgumentException("pin out of range");
+      }
+    }
+
+    /**
+     * Specify the level that lights a row and a column. Both are active low by default,
+     * the PCF8574 sinks far more current than it sources.
+     * @param rowsActiveHigh true when a row pin is driven high to light its row
+     * @param columnsActiveHigh true when a column pin is driven high to light its column
+     * @return builder
+     */
+    public final LedMultiplexerBuilder activeLevels(boolean rowsActiveHigh, boolean columnsActiveHigh) {
+      this.rowsActiveHigh = rowsActiveHigh;
+      this.columnsActiveHigh = columnsActiveHigh;
+      return this;
+    }
+
+    /**
+     * Number of brightness levels, 8 by default. A row is turned off at its level's share of
+     * its slot, timed to the nearest millisecond, so levels closer together than a
+     * millisecond may look the same.
+     * @param levels [1:64]
+     * @return builder
+     */
+    public final LedMultiplexerBuilder brightnessLevels(int levels) {
+      if (levels < 1 || levels > 64) throw new IllegalArgumentException("invalid brightness levels");
+      this.levels = levels;
+      return this;
+    }
+
+    /**
+     * Refresh rate of the display, 100Hz by default
+     * @param hz refreshes per second [1:1000]
+     * @return builder
+     */
+    public final LedMultiplexerBuilder refreshRate(int hz) {
+      if (hz < 1 || hz > 1000) throw new IllegalArgumentException("invalid refresh rate");
+      this.refreshRateHz = hz;
+      return this;
+    }
+
+    public LedMultiplexer build() {
+      if (rowPins.length + columnPins.length > MAX_LINES) {
+        throw new IllegalStateException("too many rows and columns");
+      }
+      return new LedMultiplexer(this);
+    }
+  }
+}
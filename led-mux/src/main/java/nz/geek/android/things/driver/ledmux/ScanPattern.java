@@ -0,0 +1,280 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.ledmux;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+
+import static nz.geek.android.things.driver.pcf8574.Pcf8574.BV;
+
+/**
+ * Frame buffer and scan pattern of a multiplexed display on a {@link Pcf8574}, one row
+ * (or digit) lit at a time by its row pin, with the columns (or segments) of that row on
+ * the column pins.
+ * <p>
+ * The frame period is split into one slot per row. At the start of its slot a row is
+ * written in one transaction of two port states, the first with all rows off while the
+ * columns change so the previous row doesn't ghost, then the row lit. The row stays lit
+ * for its brightness share of the slot, then is turned off. A row at full brightness is
+ * left lit until the next slot, so the display is lit for the whole period.
+ * <p>
+ * The frame is triple buffered. The application draws into a back frame and publishes it
+ * with {@link #show()}, {@link #step(long)} picks up the latest published frame at the
+ * start of the first row, so neither waits on the other and a frame is never shown half
+ * drawn.
+ */
+/* package */ final class ScanPattern {
+
+  private static final int INDEX_MASK = 0x03;
+  private static final int DIRTY = 0x04;
+
+  private final Pcf8574 port;
+  private final int rowCount;
+  private final int levels;
+  private final int[] rowOn;
+  private final int[] columnPins;
+  private final int rowsOff;
+  private final int columnsOff;
+  private final boolean columnsActiveHigh;
+  private final int mask;
+  private final long slotNanos;
+
+  /**
+   * three frames, each the columns of every row followed by the brightness of every row
+   */
+  private final int[][] frames = new int[3][];
+
+  /**
+   * the frame being drawn, guarded by {@link #drawLock}
+   */
+  private int back = 0;
+  private final Object drawLock = new Object();
+
+  /**
+   * index of the frame last published, with {@link #DIRTY} set until the refresh picks it up
+   */
+  private final AtomicInteger published = new AtomicInteger(1 | DIRTY);
+
+  /**
+   * the frame being shown, the two port states of each row and its level, only used by
+   * {@link #step(long)}
+   */
+  private int front = 2;
+  private final int[][] rowStates;
+  private final int[] rowLevels;
+
+  /**
+   * the row of the current slot, whether it is still to be turned off, and the start of
+   * the next slot in nanoseconds
+   */
+  private int row;
+  private boolean rowLit = false;
+  private long nextSlot;
+
+  /**
+   * @param port the port the display is connected to
+   * @param rowPins the port pin of each row
+   * @param columnPins the port pin of each column
+   * @param levels number of brightness levels, the states a row is lit for at full brightness
+   * @param rowsActiveHigh true when a row pin is driven high to light its row
+   * @param columnsActiveHigh true when a column pin is driven high to light its column
+   * @param periodNanos time to show every row once
+   */
+  ScanPattern(Pcf8574 port, int[] rowPins, int[] columnPins, int levels,
+              boolean rowsActiveHigh, boolean columnsActiveHigh, long periodNanos) {
+    if (rowPins.length == 0 || columnPins.length == 0) {
+      throw new IllegalArgumentException("no rows or columns");
+    }
+    if (levels < 1) throw new IllegalArgumentException("at least one brightness level required");
+    if (periodNanos < rowPins.length) throw new IllegalArgumentException("period too short");
+    this.port = port;
+    this.slotNanos = periodNanos / rowPins.length;
+    this.rowCount = rowPins.length;
+    this.levels = levels;
+    this.columnPins = columnPins.clone();
+    this.columnsActiveHigh = columnsActiveHigh;
+
+    int rowMask = 0;
+    for (int pin : rowPins) {
+      rowMask |= BV(pin);
+    }
+    int columnMask = 0;
+    for (int pin : columnPins) {
+      columnMask |= BV(pin);
+    }
+    if ((rowMask & columnMask) != 0) throw new IllegalArgumentException("row and column share a pin");
+    if (Integer.bitCount(rowMask) != rowPins.length || Integer.bitCount(columnMask) != columnPins.length) {
+      throw new IllegalArgumentException("pin used twice");
+    }
+
+    rowsOff = rowsActiveHigh ? 0 : rowMask;
+    columnsOff = columnsActiveHigh ? 0 : columnMask;
+    rowOn = new int[rowCount];
+    for (int row = 0; row < rowCount; row++) {
+      rowOn[row] = rowsOff ^ BV(rowPins[row]);
+    }
+    mask = 0xFF & ~(rowMask | columnMask);
+
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = new int[rowCount * 2];
+      for (int row = 0; row < rowCount; row++) {
+        frames[i][rowCount + row] = levels;
+      }
+    }
+    rowStates = new int[rowCount][2];
+    rowLevels = new int[rowCount];
+    row = rowCount - 1;
+  }
+
+  int getRowCount() {
+    return rowCount;
+  }
+
+  int getLevels() {
+    return levels;
+  }
+
+  /**
+   * @return time each row is shown for in nanoseconds, at full brightness
+   */
+  long getSlotNanos() {
+    return slotNanos;
+  }
+
+  /**
+   * Draw a row into the back frame
+   * @param row index of the row
+   * @param columns bit n set to light column n
+   */
+  void setRow(int row, int columns) {
+    synchronized (drawLock) {
+      frames[back][row] = columns;
+    }
+  }
+
+  /**
+   * @param row index of the row
+   * @return the columns of the row in the back frame
+   */
+  int getRow(int row) {
+    synchronized (drawLock) {
+      return frames[back][row];
+    }
+  }
+
+  /**
+   * Set the brightness of a row in the back frame
+   * @param row index of the row
+   * @param level [0:levels], 0 is off
+   */
+  void setLevel(int row, int level) {
+    if (level < 0 || level > levels) throw new IllegalArgumentException("level out of range");
+    synchronized (drawLock) {
+      frames[back][rowCount + row] = level;
+    }
+  }
+
+  /**
+   * Publish the back frame, it is shown from the next refresh. Drawing carries on in a
+   * copy of the frame published.
+   */
+  void show() {
+    synchronized (drawLock) {
+      int[] frame = frames[back];
+      back = published.getAndSet(back | DIRTY) & INDEX_MASK;
+      // only read by the refresh, so safe to copy while it builds a pattern from it
+      System.arraycopy(frame, 0, frames[back], 0, frame.length);
+    }
+  }
+
+  /**
+   * Start scanning from the first row
+   * @param now time in nanoseconds, of the same clock as given to {@link #step(long)}
+   */
+  void start(long now) {
+    row = rowCount - 1;
+    rowLit = false;
+    nextSlot = now;
+  }
+
+  /**
+   * Write the next step of the scan, either the next row at the start of its slot, taking
+   * up the latest published frame first at the first row, or turning off the row of the
+   * current slot once it has been lit for its share. Slots are kept on the period from
+   * {@link #start(long)} so the rate doesn't drift, slots missed by an overrun are skipped.
+   * @param now time in nanoseconds
+   * @return time of the next step in nanoseconds
+   */
+  long step(long now) {
+    if (rowLit) {
+      rowLit = false;
+      port.writeSequence(mask, rowStates[row], 1);
+      return nextSlot;
+    }
+
+    row = row + 1 == rowCount ? 0 : row + 1;
+    if (row == 0 && (published.get() & DIRTY) != 0) {
+      front = published.getAndSet(front) & INDEX_MASK;
+      build(frames[front]);
+    }
+    long slotStart = nextSlot;
+    nextSlot += slotNanos;
+    if (nextSlot <= now) {
+      nextSlot += ((now - nextSlot) / slotNanos + 1) * slotNanos;
+    }
+
+    int level = rowLevels[row];
+    port.writeSequence(mask, rowStates[row], level == 0 ? 1 : 2);
+    if (level == 0 || level == levels) {
+      // a row at full brightness is turned off by the first state of the next slot
+      return nextSlot;
+    }
+    rowLit = true;
+    return slotStart + slotNanos * level / levels;
+  }
+
+  /**
+   * Turn every row and column off, leaving the frames as they are
+   * @return true when written
+   */
+  boolean blank() {
+    return port.writeByte(mask, rowsOff | columnsOff);
+  }
+
+  private void build(int[] frame) {
+    for (int row = 0; row < rowCount; row++) {
+      int columns = toColumnPins(frame[row]);
+      rowStates[row][0] = rowsOff | columns;
+      rowStates[row][1] = rowOn[row] | columns;
+      rowLevels[row] = frame[rowCount + row];
+    }
+  }
+
+  /**
+   * @param columns bit n set to light column n
+   * @return the column pin levels
+   */
+  private int toColumnPins(int columns) {
+    int lit = 0;
+    for (int column = 0; column < columnPins.length; column++) {
+      if ((columns & BV(column)) != 0) {
+        lit |= BV(columnPins[column]);
+      }
+    }
+    return columnsActiveHigh ? lit : columnsOff & ~lit;
+  }
+}
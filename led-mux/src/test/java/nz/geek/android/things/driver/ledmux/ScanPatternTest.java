@@ -0,0 +1,227 @@
+package nz.geek.android.things.driver.ledmux;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.sim.AllocationMeter;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ScanPatternTest {
+
+  private static final int[] ROWS = {0, 1, 2};
+  private static final int[] COLUMNS = {4, 5, 6};
+  private static final int LEVELS = 4;
+  private static final long PERIOD = 12000000;    // 4ms slots
+  private static final long SLOT = PERIOD / 3;
+
+  private SimI2cBus bus;
+  private SimPcf8574 device;
+  private Pcf8574 pcf8574;
+  private ScanPattern scanPattern;
+  private long now;
+  private final List<Integer> writes = new ArrayList<>();
+  private final List<Long> writeTimes = new ArrayList<>();
+
+  @Before
+  public void before() {
+    bus = SimI2cBus.fastMode();
+    device = new SimPcf8574(bus);
+    pcf8574 = Pcf8574.create(device);
+    scanPattern = new ScanPattern(pcf8574, ROWS, COLUMNS, LEVELS, false, false, PERIOD);
+    device.setPortListener(new SimPcf8574.PortListener() {
+      @Override
+      public void onPortWrite(int value) {
+        writes.add(value);
+        writeTimes.add(now);
+      }
+    });
+    now = 0;
+    scanPattern.start(now);
+  }
+
+  /**
+   * Step the scan on time through whole frames
+   */
+  private void scan(int frames) {
+    long end = now + frames * PERIOD;
+    while (now < end) {
+      now = scanPattern.step(now);
+    }
+  }
+
+  /**
+   * @return the time each row was lit for, and check the columns of a row only change
+   * while every row is off
+   */
+  private long[] litTimes(int[] columnsSeen) {
+    long[] lit = new long[ROWS.length];
+    int lastColumns = -1;
+    boolean lastOff = true;
+    for (int i = 0; i < writes.size(); i++) {
+      int value = writes.get(i);
+      long until = i + 1 < writes.size() ? writeTimes.get(i + 1) : now;
+      int row = -1;
+      for (int r = 0; r < ROWS.length; r++) {
+        if ((value & (1 << ROWS[r])) == 0) {
+          assertEquals("two rows lit", -1, row);
+          row = r;
+        }
+      }
+      int columns = (~value >> 4) & 0x07;
+      if (row >= 0) {
+        lit[row] += until - writeTimes.get(i);
+        columnsSeen[row] = columns;
+        if (!lastOff) assertEquals("columns changed while lit", lastColumns, columns);
+      }
+      lastColumns = columns;
+      lastOff = row < 0;
+    }
+    return lit;
+  }
+
+  @Test
+  public void testRowIsOneTransaction() {
+    scanPattern.show();
+    scanPattern.step(now);
+    assertEquals(1, bus.getTransactionCount());
+    assertEquals(2, writes.size());
+    assertEquals(SLOT, scanPattern.getSlotNanos());
+  }
+
+  @Test
+  public void testRowsAreScanned() {
+    scanPattern.setRow(0, 0x01);
+    scanPattern.setRow(1, 0x06);
+    scanPattern.setRow(2, 0x00);
+    scanPattern.show();
+    scan(1);
+    int[] columns = new int[ROWS.length];
+    long[] lit = litTimes(columns);
+    // full brightness is lit for the whole slot
+    assertEquals(SLOT, lit[0]);
+    assertEquals(SLOT, lit[1]);
+    assertEquals(0x01, columns[0]);
+    assertEquals(0x06, columns[1]);
+    assertEquals(0x00, columns[2]);
+  }
+
+  @Test
+  public void testBrightnessIsShareOfSlot() {
+    scanPattern.setLevel(0, 1);
+    scanPattern.setLevel(1, 0);
+    scanPattern.setLevel(2, 3);
+    scanPattern.show();
+    scan(2);
+    long[] lit = litTimes(new int[ROWS.length]);
+    assertEquals(2 * SLOT / LEVELS, lit[0]);
+    assertEquals(0, lit[1]);
+    assertEquals(2 * SLOT * 3 / LEVELS, lit[2]);
+  }
+
+  @Test
+  public void testOverrunSkipsMissedSlots() {
+    now = scanPattern.step(now);
+    assertEquals(SLOT, now);
+    // late by more than a slot, the next deadline stays on the period
+    now = scanPattern.step(now + SLOT + 1000);
+    assertEquals(3 * SLOT, now);
+  }
+
+  @Test
+  public void testDrawingIsShownOnlyAfterShow() {
+    scanPattern.setRow(0, 0x07);
+    scan(1);
+    int[] columns = new int[ROWS.length];
+    litTimes(columns);
+    assertEquals(0, columns[0]);
+
+    scanPattern.show();
+    // drawing carries on from the frame shown
+    assertEquals(0x07, scanPattern.getRow(0));
+    scanPattern.setRow(1, 0x02);
+    writes.clear();
+    writeTimes.clear();
+    scan(1);
+    litTimes(columns);
+    assertEquals(0x07, columns[0]);
+    assertEquals(0, columns[1]);
+  }
+
+  @Test
+  public void testOtherPinsAreKept() {
+    pcf8574.writeByte(0x7F, 0x00);
+    scan(1);
+    for (int value : writes) {
+      assertEquals(0, value & 0x80);
+    }
+    // the last row is left lit at full brightness, columns off
+    assertEquals(0x73, device.getLatch());
+    assertTrue(scanPattern.blank());
+    assertEquals(0x77, device.getLatch());
+  }
+
+  @Test
+  public void testActiveHigh() {
+    ScanPattern activeHigh = new ScanPattern(pcf8574, ROWS, COLUMNS, LEVELS, true, true, PERIOD);
+    activeHigh.setRow(2, 0x04);
+    activeHigh.setLevel(2, 1);
+    activeHigh.show();
+    activeHigh.start(now);
+    writes.clear();
+    while (now < PERIOD) {
+      now = activeHigh.step(now);
+    }
+    assertTrue(writes.contains(0x04 | 0x40));
+    assertEquals(0x40, device.getLatch() & 0x77);
+  }
+
+  @Test
+  public void testFramesAreNeverTorn() throws InterruptedException {
+    Thread drawer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 20000; i++) {
+          int columns = i & 0x07;
+          for (int row = 0; row < ROWS.length; row++) {
+            scanPattern.setRow(row, columns);
+          }
+          scanPattern.show();
+        }
+      }
+    });
+    drawer.start();
+    int[] columns = new int[ROWS.length];
+    while (drawer.isAlive()) {
+      writes.clear();
+      writeTimes.clear();
+      scan(1);
+      litTimes(columns);
+      assertEquals(columns[0], columns[1]);
+      assertEquals(columns[0], columns[2]);
+    }
+    drawer.join();
+  }
+
+  @Test
+  public void testRefreshDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    device.setPortListener(null);
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        scanPattern.show();
+        now = scanPattern.step(now);
+      }
+    }, 1000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 1000);
+  }
+}
@@ -87,6 +87,26 @@ public class Pca9685 implements AutoCloseable {
 
   private final I2cDevice device;
 
+  /**
+   * LEDn_ON_L to LEDn_OFF_H of every channel, reused by {@link #setPwmOnOff(int, int[], int[])}
+   * and {@link #setPinPwmOnOff(int, int, int)}
+   */
+  private final byte[] channelBuffer = new byte[4 * NUM_PINS];
+
+  /**
+   * value of a shadow register that has not been read or written
+   */
+  private static final int UNKNOWN = -1;
+
+  /**
+   * Shadow copies of the device registers, writes of the value already held are skipped.
+   * Use {@link #resync()} if the device may have been changed by something else.
+   */
+  private int mode1 = UNKNOWN;
+  private int mode2 = UNKNOWN;
+  private int preScale = UNKNOWN;
+  private final int[] onShadow = new int[NUM_PINS];
+  private final int[] offShadow = new int[NUM_PINS];
 
   /**
    * Constructor given I2cDevice for testing with mock device
@@ -94,6 +114,7 @@ public class Pca9685 implements AutoCloseable {
    */
   /* package */ Pca9685(I2cDevice device) {
     this.device = device;
+    invalidate();
   }
 
   /**
@@ -176,26 +197,100 @@ public class Pca9685 implements AutoCloseable {
    * @throws IllegalArgumentException if frequency out of range
    * @throws IOException on I2C exception
    */
-  public void setPwmFrequencyHz(double frequency) throws IllegalArgumentException, IOException {
+  public synchronized void setPwmFrequencyHz(double frequency) throws IllegalArgumentException, IOException {
     if (frequency < MIN_FREQ || frequency > MAX_FREQ) {
       throw new IllegalArgumentException("frequency out of range (" + MIN_FREQ + "-" + MAX_FREQ + ")");
     }
 
     // from datasheet (7.3.5)
-    int preScale = Math.round((float) (CLK_FREQ / (4096 * frequency))) - 1;
+    int preScale = (Math.round((float) (CLK_FREQ / (4096 * frequency))) - 1) & 0xFF;
+
+    if (mode1 == UNKNOWN) {
+      mode1 = device.readRegByte(MODE_1_ADDR) & 0xFF;
+    }
 
-    int mode1 = device.readRegByte(MODE_1_ADDR);
+    // already running at this frequency, avoid glitching the outputs with a restart
+    if (preScale == this.preScale && mode1 == BV(AI)) return;
 
     // put to sleep
     int newMode = mode1 | BV(SLEEP);
-    device.writeRegByte(MODE_1_ADDR, (byte)(newMode & 0xFF));
+    writeMode1(newMode);
 
     // write preScale value
+    this.preScale = UNKNOWN;
     device.writeRegByte(PRE_SCALE, (byte)(preScale & 0xFF));
+    this.preScale = preScale;
 
     // wake up, auto increment
     newMode = BV(AI);
-    device.writeRegByte(MODE_1_ADDR, (byte)(newMode & 0xFF));
+    writeMode1(newMode);
+  }
+
+  /**
+   * Set the MODE2 register, which configures the output drivers (refer datasheet 7.3.2).
+   * Nothing is written when the register already holds the given value.
+   * @param mode MODE2 register value
+   * @throws IOException on I2C exception
+   */
+  public synchronized void setMode2(int mode) throws IOException {
+    mode &= 0xFF;
+    if (mode == mode2) return;
+    mode2 = UNKNOWN;
+    device.writeRegByte(MODE_2_ADDR, (byte) mode);
+    mode2 = mode;
+  }
+
+  /**
+   * Read MODE1, MODE2, PRE_SCALE and the registers of every channel from the device
+   * into the shadow registers used to skip unchanged writes. Use this if the device may
+   * have been changed by something other than this driver, e.g., it was reset.
+   * @throws IOException on I2C exception
+   */
+  public synchronized void resync() throws IOException {
+    invalidate();
+    mode1 = device.readRegByte(MODE_1_ADDR) & 0xFF;
+    mode2 = device.readRegByte(MODE_2_ADDR) & 0xFF;
+    preScale = device.readRegByte(PRE_SCALE) & 0xFF;
+
+    if ((mode1 & BV(AI)) != 0) {
+      device.readRegBuffer(LED0_ON_L, channelBuffer, channelBuffer.length);
+    } else {
+      for (int i = 0; i < channelBuffer.length; i++) {
+        channelBuffer[i] = device.readRegByte(LED0_ON_L + i);
+      }
+    }
+    for (int pin = 0; pin < NUM_PINS; pin++) {
+      int i = 4 * pin;
+      onShadow[pin] = ((channelBuffer[i] & 0xFF) | ((channelBuffer[i + 1] & 0xFF) << 8)) & 0x1FFF;
+      offShadow[pin] = ((channelBuffer[i + 2] & 0xFF) | ((channelBuffer[i + 3] & 0xFF) << 8)) & 0x1FFF;
+    }
+  }
+
+  /**
+   * forget the shadow registers, the next write of each register goes to the device
+   */
+  private void invalidate() {
+    mode1 = UNKNOWN;
+    mode2 = UNKNOWN;
+    preScale = UNKNOWN;
+    for (int pin = 0; pin < NUM_PINS; pin++) {
+      onShadow[pin] = UNKNOWN;
+      offShadow[pin] = UNKNOWN;
+    }
+  }
+
+  private void writeMode1(int mode) throws IOException {
+    mode &= 0xFF;
+    mode1 = UNKNOWN;
+    device.writeRegByte(MODE_1_ADDR, (byte) mode);
+    mode1 = mode;
+  }
+
+  /**
+   * @return true when the given channel already has the given on and off times
+   */
+  private boolean isUnchanged(int pin, int on, int off) {
+    return onShadow[pin] == (on & 0x1FFF) && offShadow[pin] == (off & 0x1FFF);
   }
 
   /**
@@ -221,19 +316,87 @@ public class Pca9685 implements AutoCloseable {
    * @throws IllegalArgumentException if on and off times are the same
    * @throws IOException on I2C exception
    */
-  public void setPinPwmOnOff(int on, int off, int pin) throws IllegalArgumentException, IOException {
+  public synchronized void setPinPwmOnOff(int on, int off, int pin) throws IllegalArgumentException, IOException {
     if (on == off) throw new IllegalArgumentException("on and off time cannot be the same");
     if (pin < 0 || pin > 15) throw new IllegalArgumentException("pin out of range");
+    if (isUnchanged(pin, on, off)) return;
+
+    channelBuffer[0] = (byte) (on & 0xFF);
+    channelBuffer[1] = (byte) ((on >> 8) & 0xFF);
+
+    channelBuffer[2] = (byte) (off & 0xFF);
+    channelBuffer[3] = (byte) ((off >> 8) & 0xFF);
+
+    onShadow[pin] = UNKNOWN;
+    offShadow[pin] = UNKNOWN;
+    device.writeRegBuffer((LED0_ON_L + (4 * pin)), channelBuffer, 4);
+    onShadow[pin] = on & 0x1FFF;
+    offShadow[pin] = off & 0x1FFF;
+  }
 
-    byte[] buffer = new byte[4];
+  /**
+   * Set the on and off times of all 16 channels. The registers of all channels are written
+   * in a single auto increment transaction so the outputs change together.
+   * Auto increment is enabled by {@link #setPwmFrequencyHz(double)}.
+   * @param on on times [0:4095] indexed by channel
+   * @param off off times [0:4095] indexed by channel
+   * @throws IllegalArgumentException if on and off times of a channel are the same, or
+   * either array has fewer than 16 entries
+   * @throws IOException on I2C exception
+   */
+  public void setAllPwmOnOff(int[] on, int[] off) throws IllegalArgumentException, IOException {
+    setPwmOnOff((1 << NUM_PINS) - 1, on, off);
+  }
 
-    buffer[0] = (byte) (on & 0xFF);
-    buffer[1] = (byte) ((on >> 8) & 0xFF);
+  /**
+   * Set the on and off times of the channels in the given mask. Channels that already
+   * have the given times are skipped, each run of adjacent changed channels is written
+   * in a single auto increment transaction, so updating channels 0-3 and 8 takes two
+   * transactions. Auto increment is enabled by
+   * {@link #setPwmFrequencyHz(double)}.
+   * @param channelMask bit n set to update channel n
+   * @param on on times [0:4095] indexed by channel, only entries in mask are used
+   * @param off off times [0:4095] indexed by channel, only entries in mask are used
+   * @throws IllegalArgumentException if on and off times of a channel are the same, or
+   * either array is too short for the highest channel in mask
+   * @throws IOException on I2C exception
+   */
+  public synchronized void setPwmOnOff(int channelMask, int[] on, int[] off) throws IllegalArgumentException, IOException {
+    channelMask &= (1 << NUM_PINS) - 1;
+    int channels = Integer.SIZE - Integer.numberOfLeadingZeros(channelMask);
+    if (on == null || off == null || on.length < channels || off.length < channels) {
+      throw new IllegalArgumentException("on and off times required for every channel in mask");
+    }
+    for (int pin = 0; pin < NUM_PINS; pin++) {
+      if ((channelMask & BV(pin)) == 0) continue;
+      if (on[pin] == off[pin]) throw new IllegalArgumentException("on and off time cannot be the same (pin " + pin + ")");
+      if (isUnchanged(pin, on[pin], off[pin])) channelMask &= ~BV(pin);
+    }
 
-    buffer[2] = (byte) (off & 0xFF);
-    buffer[3] = (byte) ((off >> 8) & 0xFF);
+    int pin = 0;
+    while (pin < NUM_PINS) {
+      if ((channelMask & BV(pin)) == 0) {
+        pin++;
+        continue;
+      }
 
-    device.writeRegBuffer((LED0_ON_L + (4 * pin)), buffer, buffer.length);
+      int first = pin;
+      int length = 0;
+      while (pin < NUM_PINS && (channelMask & BV(pin)) != 0) {
+        channelBuffer[length++] = (byte) (on[pin] & 0xFF);
+        channelBuffer[length++] = (byte) ((on[pin] >> 8) & 0xFF);
+        channelBuffer[length++] = (byte) (off[pin] & 0xFF);
+        channelBuffer[length++] = (byte) ((off[pin] >> 8) & 0xFF);
+        onShadow[pin] = UNKNOWN;
+        offShadow[pin] = UNKNOWN;
+        pin++;
+      }
+      device.writeRegBuffer((LED0_ON_L + (4 * first)), channelBuffer, length);
+      for (int i = first; i < pin; i++) {
+        onShadow[i] = on[i] & 0x1FFF;
+        offShadow[i] = off[i] & 0x1FFF;
+      }
+    }
   }
 
   /**
@@ -0,0 +1,190 @@
+package nz.geek.android.things.driver.pca9685;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPca9685;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class Pca9685Test {
+
+  private SimPca9685 device;
+  private Pca9685 pca9685;
+
+  @Before
+  public void before() throws IOException {
+    device = new SimPca9685(new SimI2cBus());
+    pca9685 = new Pca9685(device);
+    pca9685.setPwmFrequencyHz(50);
+    device.resetCounters();
+  }
+
+  @Test
+  public void testSetPinPwmOnOff() throws IOException {
+    pca9685.setPinPwmOnOff(10, 2000, 3);
+    assertEquals(10, device.getOn(3));
+    assertEquals(2000, device.getOff(3));
+  }
+
+  @Test
+  public void testSetAllIsOneTransaction() throws IOException {
+    int[] on = new int[16];
+    int[] off = new int[16];
+    for (int i = 0; i < 16; i++) {
+      on[i] = i;
+      off[i] = 100 * (i + 1);
+    }
+    pca9685.setAllPwmOnOff(on, off);
+    assertEquals(1, device.getTransactionCount());
+    for (int i = 0; i < 16; i++) {
+      assertEquals(i, device.getOn(i));
+      assertEquals(100 * (i + 1), device.getOff(i));
+    }
+  }
+
+  @Test
+  public void testSparseUpdateOneTransactionPerRun() throws IOException {
+    int[] on = new int[16];
+    int[] off = new int[16];
+    for (int i = 0; i < 16; i++) {
+      off[i] = 1000;
+    }
+    pca9685.setPwmOnOff(0x810F, on, off);   // 0-3, 8, 15
+    assertEquals(3, device.getTransactionCount());
+    assertEquals(1000, device.getOff(8));
+    assertEquals(1000, device.getOff(15));
+    assertEquals(0x1000, device.getOff(4));  // untouched, full off
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSameOnOffRejectedBeforeWriting() throws IOException {
+    int[] on = new int[16];
+    int[] off = new int[16];
+    off[0] = 100;
+    try {
+      pca9685.setPwmOnOff(0x03, on, off);
+    } finally {
+      assertEquals(0, device.getTransactionCount());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testShortArraysRejectedBeforeWriting() throws IOException {
+    int[] on = new int[8];
+    int[] off = new int[16];
+    off[0] = 100;
+    try {
+      pca9685.setAllPwmOnOff(on, off);
+    } finally {
+      assertEquals(0, device.getTransactionCount());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNullArrayRejected() throws IOException {
+    pca9685.setPwmOnOff(0x01, null, new int[16]);
+  }
+
+  @Test
+  public void testSameFrequencyDoesNotRestart() throws IOException {
+    long sleeps = device.getSleepCount();
+    pca9685.setPwmFrequencyHz(50);
+    assertEquals(sleeps, device.getSleepCount());
+    assertEquals(0, device.getTransactionCount());
+
+    pca9685.setPwmFrequencyHz(200);
+    assertEquals(sleeps + 1, device.getSleepCount());
+    assertEquals(3, device.getTransactionCount());   // MODE1 is not read again
+    assertEquals(200, device.getFrequencyHz(), 5);
+  }
+
+  @Test
+  public void testSameSetpointNotWritten() throws IOException {
+    pca9685.setPinPwmOnOff(10, 2000, 3);
+    pca9685.setPinPwmOnOff(10, 2000, 3);
+    pca9685.setPwmDutyCycle(50, 3);
+    pca9685.setPwmDutyCycle(50, 3);
+    assertEquals(2, device.getTransactionCount());
+  }
+
+  @Test
+  public void testBulkUpdateSkipsUnchangedChannels() throws IOException {
+    int[] on = new int[16];
+    int[] off = new int[16];
+    for (int i = 0; i < 16; i++) {
+      off[i] = 1000;
+    }
+    pca9685.setAllPwmOnOff(on, off);
+    device.resetCounters();
+
+    pca9685.setAllPwmOnOff(on, off);
+    assertEquals(0, device.getTransactionCount());
+
+    off[5] = 500;
+    pca9685.setAllPwmOnOff(on, off);
+    assertEquals(1, device.getTransactionCount());
+    assertEquals(5, device.getBytesWritten());   // register address and channel 5 only
+    assertEquals(500, device.getOff(5));
+  }
+
+  @Test
+  public void testFailedWriteIsRetried() throws IOException {
+    device.setFailing(true);
+    try {
+      pca9685.setPinPwmOnOff(0, 100, 1);
+    } catch (IOException e) {
+      // expected
+    }
+    device.setFailing(false);
+    pca9685.setPinPwmOnOff(0, 100, 1);
+    assertEquals(100, device.getOff(1));
+  }
+
+  @Test
+  public void testResync() throws IOException {
+    pca9685.setPinPwmOnOff(0, 100, 1);
+
+    // another master changes the chip behind the driver's back
+    Pca9685 other = new Pca9685(device);
+    other.setPinPwmOnOff(0, 300, 1);
+
+    pca9685.setPinPwmOnOff(0, 100, 1);
+    assertEquals(300, device.getOff(1));     // suppressed by the stale shadow
+
+    pca9685.resync();
+    device.resetCounters();
+    pca9685.setPinPwmOnOff(0, 300, 1);
+    assertEquals(0, device.getTransactionCount());
+    pca9685.setPinPwmOnOff(0, 100, 1);
+    assertEquals(100, device.getOff(1));
+    pca9685.setPwmFrequencyHz(50);
+    assertEquals(1, device.getTransactionCount());
+  }
+
+  @Test
+  public void testSetPinPwmOnOffDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    long bytes = AllocationMeter.measure(new Runnable() {
+      private int off = 1;
+
+      @Override
+      public void run() {
+        try {
+          // a new value each time so the write is not skipped
+          pca9685.setPinPwmOnOff(0, off, 2);
+          off = off % 4000 + 1;
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+  }
+}
@@ -23,6 +23,7 @@ import com.google.android.things.pio.PeripheralManager;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Android Things driver for the PCF8574 8 bit I2C IO port
@@ -48,8 +49,38 @@ public class Pcf8574 implements AutoCloseable {
    * because the PCF8574 is a 'quasi-bidirectional' any value written
    * will be changed by a read, so cache the values written to keep
    * track of the current state of the port pins.
+   * <p>
+   * The port value is in the low 8 bits, the rest is a version that changes with
+   * every commit so a write can tell whether the chip already has the latest state.
+   * State changes are committed with compare and set, the chip is then written under
+   * {@link #ioLock} with whatever state is latest at that time, so the last committed
+   * state is always the last one written.
    */
-  private int currentValue = 0x00;
+  private final AtomicInteger state = new AtomicInteger(0);
+
+  private static final int VALUE_MASK = 0xFF;
+  private static final int VERSION_INCREMENT = 0x100;
+
+  /**
+   * held while talking to the device, guards {@link #buffer}, {@link #sequenceBuffer}
+   * and {@link #writtenState}
+   */
+  private final Object ioLock = new Object();
+
+  /**
+   * the last state written to the chip, the version never matches before the first write
+   */
+  private int writtenState = -1;
+
+  /**
+   * buffer reused by {@link #writeByte(int, int)} and {@link #readByte()}
+   */
+  private final byte[] buffer = new byte[1];
+
+  /**
+   * buffer reused by the writeSequence methods, grown as required
+   */
+  private byte[] sequenceBuffer = new byte[0];
 
   /**
    * Constructor given I2cDevice for testing with mock device
@@ -60,6 +91,17 @@ public class Pcf8574 implements AutoCloseable {
     this.device = device;
   }
 
+  /**
+   * Create a pcf8574 on an open device, for tests of drivers built on the port with a
+   * simulated device
+   * @param device I2cDevice of the port
+   * @return new Pcf8574
+   */
+  @VisibleForTesting
+  public static Pcf8574 create(I2cDevice device) {
+    return new Pcf8574(device);
+  }
+
   /**
    * Create a pcf8574 with the given address
    * @param address value of A0-A2 for your pcf8574
@@ -142,32 +184,184 @@ public class Pcf8574 implements AutoCloseable {
    * @return true when data written to port
    */
   public boolean writeByte(int mask, int data) {
+    return update(mask, data & ~mask, 0);
+  }
+
+  /**
+   * Set and clear port pins in one atomic step, pins in neither mask are not changed.
+   * Safe to call from several threads at once, no change made by another thread is lost.
+   * @param setBits pins to set
+   * @param clearBits pins to clear, a pin in both masks is cleared
+   * @return true when data written to port
+   */
+  public boolean modify(int setBits, int clearBits) {
+    return update(~(setBits | clearBits), setBits & ~clearBits, 0);
+  }
+
+  /**
+   * Invert port pins in one atomic step. Safe to call from several threads at once.
+   * @param bits pins to invert
+   * @return true when data written to port
+   */
+  public boolean toggle(int bits) {
+    return update(0xFF, 0, bits);
+  }
+
+  /**
+   * commit the new port value ((current & keep) | set) ^ flip, then write it
+   */
+  private boolean update(int keep, int set, int flip) {
     if (device == null) return false;
 
-    int value = currentValue;
+    int previous;
+    int next;
+    do {
+      previous = state.get();
+      int value = (((previous & keep) | set) ^ flip) & VALUE_MASK;
+      next = nextVersion(previous) | value;
+    } while (!state.compareAndSet(previous, next));
 
-    data &= ~mask;  // apply the mask to the data
-    value &= mask;  // apply the mask to the current value
-    value |= data;  // apply the data to the current value
-    value &= 0xFF;  // clear any higher bits
+    return flush(previous, next);
+  }
 
-    byte[] buffer = new byte[1];
-    buffer[0] = (byte) (value & 0xFF);
-    try {
-      device.write(buffer, buffer.length);
-      currentValue = value;
-      return true;
-    } catch (IOException e) {
-      return false;
+  private static int nextVersion(int state) {
+    return (state & ~VALUE_MASK) + VERSION_INCREMENT;
+  }
+
+  /**
+   * Write the latest committed state to the chip, unless another thread already has.
+   * On failure the commit is undone if nothing has been committed since.
+   * @param previous the state before the commit
+   * @param committed the state committed
+   * @return true when the committed state, or a later one, has been written
+   */
+  private boolean flush(int previous, int committed) {
+    synchronized (ioLock) {
+      int latest = state.get();
+      if (latest == writtenState) return true;
+      buffer[0] = (byte) (latest & VALUE_MASK);
+      try {
+        device.write(buffer, 1);
+        writtenState = latest;
+        return true;
+      } catch (IOException e) {
+        state.compareAndSet(committed, previous);
+        return false;
+      }
     }
   }
 
+  /**
+   * Write a sequence of port states in a single I2C transaction. The PCF8574 latches
+   * each byte of a multi-byte write as it arrives, so this is equivalent to calling
+   * {@link #writeByte(int, int)} for each mask and data pair, minus the overhead of
+   * a START, address and STOP per state.
+   * @param masks 8 bit masks, data does not affect port state when mask bit is 1
+   * @param data the data to write to the port, one entry per port state
+   * @param count the number of port states to write
+   * @return true when data written to port
+   * @throws IllegalArgumentException when masks is null, or count exceeds masks or data
+   */
+  public boolean writeSequence(int[] masks, int[] data, int count) {
+    if (masks == null) throw new IllegalArgumentException("masks required");
+    return writeSequence(masks, 0, data, count);
+  }
+
+  /**
+   * Write a sequence of port states in a single I2C transaction, as
+   * {@link #writeSequence(int[], int[], int)} with the same mask for every state.
+   * @param mask 8 bit mask, data does not affect port state when mask bit is 1
+   * @param data the data to write to the port, one entry per port state
+   * @param count the number of port states to write
+   * @return true when data written to port
+   */
+  public boolean writeSequence(int mask, int[] data, int count) {
+    return writeSequence(null, mask, data, count);
+  }
+
+  /**
+   * @param masks a mask per state, or null to use mask for every state
+   */
+  private boolean writeSequence(int[] masks, int mask, int[] data, int count) {
+    if (device == null) return false;
+    if (count <= 0) return true;
+    if (count > data.length || (masks != null && count > masks.length)) {
+      throw new IllegalArgumentException("count exceeds length of masks or data");
+    }
+
+    int previous;
+    int next;
+    synchronized (ioLock) {
+      if (sequenceBuffer.length < count) {
+        sequenceBuffer = new byte[count];
+      }
+
+      // the sequence has to start from the latest state, so commit under the lock
+      do {
+        previous = state.get();
+        int value = previous & VALUE_MASK;
+        for (int i = 0; i < count; i++) {
+          int m = masks != null ? masks[i] : mask;
+          value = (value & m) | (data[i] & ~m);
+          value &= 0xFF;
+          sequenceBuffer[i] = (byte) value;
+        }
+        next = nextVersion(previous) | value;
+      } while (!state.compareAndSet(previous, next));
+
+      try {
+        device.write(sequenceBuffer, count);
+        writtenState = next;
+      } catch (IOException e) {
+        state.compareAndSet(next, previous);
+        return false;
+      }
+    }
+    // another thread may have committed while the sequence was written
+    return flush(next, next);
+  }
+
+  /**
+   * Write a byte to the IO port then read the port in a single I2C transaction, a write
+   * of the port value followed by a read after a repeated START. Used to select something,
+   * e.g., a keypad row, and read the result without a second START, address and STOP.
+   * @param mask 8 bit mask, data does not affect port state when mask bit is 1
+   * @param data The data to write to the port
+   * @return the byte read from the port [0:255], or -1 when the transaction fails
+   */
+  public int writeAndRead(int mask, int data) {
+    if (device == null) return -1;
+
+    int previous;
+    int next;
+    int value;
+    synchronized (ioLock) {
+      do {
+        previous = state.get();
+        int written = ((previous & mask) | (data & ~mask)) & VALUE_MASK;
+        next = nextVersion(previous) | written;
+      } while (!state.compareAndSet(previous, next));
+
+      try {
+        device.readRegBuffer(next & VALUE_MASK, buffer, 1);
+        writtenState = next;
+        value = buffer[0] & 0xFF;
+      } catch (IOException e) {
+        state.compareAndSet(next, previous);
+        return -1;
+      }
+    }
+    // another thread may have committed while the port was written
+    flush(next, next);
+    return value;
+  }
+
   /**
    * Read the last value written to the port.
    * @return last value written to the port (LSB is value)
    */
   public int readValue() {
-    return (currentValue & 0xFF);
+    return (state.get() & VALUE_MASK);
   }
 
   /**
@@ -177,9 +371,11 @@ public class Pcf8574 implements AutoCloseable {
    */
   public void setPin(int pin, boolean state) {
     if (pin < 0 || pin > 7) return;
-    int mask = ~BV(pin);
-    int data = state ? BV(pin) : 0;
-    writeByte(mask, data & 0xFF);
+    if (state) {
+      modify(BV(pin), 0);
+    } else {
+      modify(0, BV(pin));
+    }
   }
 
   /**
@@ -200,13 +396,31 @@ public class Pcf8574 implements AutoCloseable {
   public int readByte() {
     if (device == null) return 0;
 
-    byte[] buffer = new byte[]{0};
+    synchronized (ioLock) {
+      buffer[0] = 0;
+      try {
+        device.read(buffer, 1);
+      } catch (IOException e) {
+        // ignore
+      }
+      return buffer[0];
+    }
+  }
 
-    try {
-      device.read(buffer, 1);
-    } catch (IOException e) {
-      // ignore
+  /**
+   * Read the port data, telling a failed read apart from all pins low
+   * @return the byte read from the port [0:255], or -1 when the read fails
+   */
+  public int readPort() {
+    if (device == null) return -1;
+
+    synchronized (ioLock) {
+      try {
+        device.read(buffer, 1);
+      } catch (IOException e) {
+        return -1;
+      }
+      return buffer[0] & 0xFF;
     }
-    return buffer[0];
   }
 }
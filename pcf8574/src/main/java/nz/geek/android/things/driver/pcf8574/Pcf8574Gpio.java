@@ -0,0 +1,228 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.pcf8574;
+
+import android.os.Handler;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A pin of a {@link Pcf8574} as a {@link Gpio}, opened with
+ * {@link Pcf8574GpioManager#openGpio(int)}. The port is quasi-bidirectional, so an input
+ * is a pin latched high that something outside can pull low, and
+ * {@link #DIRECTION_OUT_INITIALLY_HIGH} and {@link #DIRECTION_OUT_INITIALLY_LOW} set the
+ * level of the pin. Edge triggers apply to the value, after the active type.
+ */
+public class Pcf8574Gpio implements Gpio {
+
+  private static final int DIRECTION_NONE = -1;
+
+  private final Pcf8574GpioManager manager;
+  private final int pin;
+  private final String name;
+
+  private int direction = DIRECTION_NONE;
+  private int activeType = ACTIVE_HIGH;
+  private int edgeTriggerType = EDGE_NONE;
+  private boolean closed = false;
+
+  /**
+   * registered callbacks, replaced rather than changed so edges can be dispatched without locking
+   */
+  private volatile Registration[] registrations = new Registration[0];
+
+  private static final class Registration {
+    final GpioCallback callback;
+    final Handler handler;
+
+    Registration(GpioCallback callback, Handler handler) {
+      this.callback = callback;
+      this.handler = handler;
+    }
+  }
+
+  /* package */ Pcf8574Gpio(Pcf8574GpioManager manager, int pin) {
+    this.manager = manager;
+    this.pin = pin;
+    this.name = "PCF8574_PIN_" + pin;
+  }
+
+  /* package */ synchronized boolean isClosed() {
+    return closed;
+  }
+
+  private void checkOpen() {
+    if (closed) throw new IllegalStateException(name + " is closed");
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    registrations = new Registration[0];
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public synchronized void setDirection(int direction) throws IOException {
+    checkOpen();
+    // direction changes are written now, even when batching
+    switch (direction) {
+      case DIRECTION_IN:
+      case DIRECTION_OUT_INITIALLY_HIGH:
+        manager.setLevel(pin, true, true);
+        break;
+      case DIRECTION_OUT_INITIALLY_LOW:
+        manager.setLevel(pin, false, true);
+        break;
+      default:
+        throw new IllegalArgumentException("invalid direction " + direction);
+    }
+    this.direction = direction;
+  }
+
+  @Override
+  public synchronized void setActiveType(int activeType) {
+    checkOpen();
+    if (activeType != ACTIVE_LOW && activeType != ACTIVE_HIGH) {
+      throw new IllegalArgumentException("invalid active type " + activeType);
+    }
+    this.activeType = activeType;
+  }
+
+  @Override
+  public synchronized void setEdgeTriggerType(int edgeTriggerType) {
+    checkOpen();
+    if (edgeTriggerType < EDGE_NONE || edgeTriggerType > EDGE_BOTH) {
+      throw new IllegalArgumentException("invalid edge trigger type " + edgeTriggerType);
+    }
+    this.edgeTriggerType = edgeTriggerType;
+  }
+
+  @Override
+  public void setValue(boolean value) throws IOException {
+    boolean high;
+    synchronized (this) {
+      checkOpen();
+      if (direction != DIRECTION_OUT_INITIALLY_HIGH && direction != DIRECTION_OUT_INITIALLY_LOW) {
+        throw new IllegalStateException(name + " is not an output");
+      }
+      high = value == (activeType == ACTIVE_HIGH);
+    }
+    manager.setLevel(pin, high, false);
+  }
+
+  @Override
+  public boolean getValue() throws IOException {
+    boolean output;
+    synchronized (this) {
+      checkOpen();
+      if (direction == DIRECTION_NONE) throw new IllegalStateException(name + " has no direction");
+      output = direction != DIRECTION_IN;
+    }
+    boolean high = output ? manager.getOutputLevel(pin) : manager.readInputLevel(pin);
+    return toValue(high);
+  }
+
+  private synchronized boolean toValue(boolean high) {
+    return high == (activeType == ACTIVE_HIGH);
+  }
+
+  @Override
+  public void registerGpioCallback(GpioCallback callback) throws IOException {
+    registerGpioCallback(null, callback);
+  }
+
+  @Override
+  public synchronized void registerGpioCallback(Handler handler, GpioCallback callback) throws IOException {
+    checkOpen();
+    if (callback == null) throw new IllegalArgumentException("callback is null");
+    if (direction != DIRECTION_IN) throw new IllegalStateException(name + " is not an input");
+    if (!manager.hasInterrupt()) throw new IOException("no interrupt Gpio for " + name);
+    Registration[] next = Arrays.copyOf(registrations, registrations.length + 1);
+    next[registrations.length] = new Registration(callback, handler);
+    registrations = next;
+  }
+
+  @Override
+  public synchronized void unregisterGpioCallback(GpioCallback callback) {
+    Registration[] current = registrations;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].callback == callback) {
+        Registration[] next = new Registration[current.length - 1];
+        System.arraycopy(current, 0, next, 0, i);
+        System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+        registrations = next;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Called by the manager when the level of the pin has changed
+   * @param high the new level
+   */
+  /* package */ void onLevelChanged(boolean high) {
+    int edgeTriggerType;
+    synchronized (this) {
+      if (closed || direction != DIRECTION_IN) return;
+      edgeTriggerType = this.edgeTriggerType;
+    }
+    boolean value = toValue(high);
+    boolean trigger;
+    switch (edgeTriggerType) {
+      case EDGE_RISING:
+        trigger = value;
+        break;
+      case EDGE_FALLING:
+        trigger = !value;
+        break;
+      case EDGE_BOTH:
+        trigger = true;
+        break;
+      default:
+        trigger = false;
+        break;
+    }
+    if (!trigger) return;
+
+    for (final Registration registration : registrations) {
+      if (registration.handler != null) {
+        registration.handler.post(new Runnable() {
+          @Override
+          public void run() {
+            dispatch(registration);
+          }
+        });
+      } else {
+        dispatch(registration);
+      }
+    }
+  }
+
+  private void dispatch(Registration registration) {
+    if (!registration.callback.onGpioEdge(this)) {
+      unregisterGpioCallback(registration.callback);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.pcf8574;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import androidx.annotation.Nullable;
+
+import com.google.android.things.pio.Gpio;
+
+import java.io.IOException;
+
+import static nz.geek.android.things.driver.pcf8574.Pcf8574.BV;
+
+/**
+ * Hands out the pins of a {@link Pcf8574} as {@link Gpio}s, so expander pins can be
+ * used by code written for GPIO. Every pin shares the one port.
+ * <p>
+ * Output changes can be coalesced: with a batch window, changes made within the window
+ * are written to the port in one I2C write when it closes. With
+ * {@link #BATCH_ON_COMMIT}, changes are only written by {@link #commit()}.
+ * <p>
+ * Callbacks registered on input pins are served by a {@link Pcf8574InputDispatcher}
+ * reading the port once per falling edge of the PCF8574 INT pin, given with
+ * {@link Pcf8574GpioManagerBuilder#withInterrupt(Gpio)}.
+ * <pre>
+ *   Pcf8574GpioManager manager = Pcf8574GpioManager.builder()
+ *       .port(pcf8574)
+ *       .batchWindow(2)
+ *       .build();
+ *   Gpio led = manager.openGpio(3);
+ *   led.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+ * </pre>
+ */
+public class Pcf8574GpioManager implements AutoCloseable {
+  private static final String TAG = Pcf8574GpioManager.class.getSimpleName();
+
+  /**
+   * write every change as it is made
+   */
+  public static final int BATCH_IMMEDIATE = 0;
+
+  /**
+   * write changes when {@link #commit()} is called
+   */
+  public static final int BATCH_ON_COMMIT = -1;
+
+  private static final int NUM_PINS = 8;
+
+  private final Pcf8574 pcf8574;
+  private final int batchWindow;
+  private final Pcf8574Gpio[] pins = new Pcf8574Gpio[NUM_PINS];
+
+  /**
+   * changes waiting for the batch window to close, guarded by {@link #pendingLock}. The lock
+   * is also held across every write to the port, so writes happen in the order they were made.
+   */
+  private final Object pendingLock = new Object();
+  private int pendingSet = 0;
+  private int pendingClear = 0;
+  private boolean flushScheduled = false;
+
+  /**
+   * only created when there is a batch window
+   */
+  private HandlerThread handlerThread;
+  private Handler handler;
+
+  /**
+   * only created when there is an interrupt
+   */
+  private Pcf8574InputDispatcher dispatcher;
+
+  private Pcf8574GpioManager(Pcf8574 pcf8574, Gpio interruptGpio, int batchWindow) {
+    this.pcf8574 = pcf8574;
+    this.batchWindow = batchWindow;
+    if (batchWindow > 0) {
+      handlerThread = new HandlerThread(TAG);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
+    initDispatcher(interruptGpio);
+  }
+
+  private void initDispatcher(Gpio interruptGpio) {
+    if (interruptGpio == null) return;
+
+    dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .withInterrupt(interruptGpio)
+        .build();
+    for (int pin = 0; pin < NUM_PINS; pin++) {
+      dispatcher.addListener(pin, Gpio.EDGE_BOTH, inputListener);
+    }
+  }
+
+  public static Pcf8574GpioManagerBuilder builder() {
+    return new Pcf8574GpioManagerBuilder();
+  }
+
+  /**
+   * Open a pin of the port as a {@link Gpio}. The pin has no direction until
+   * {@link Gpio#setDirection(int)} is called.
+   * @param pin the pin [0:7]
+   * @return the Gpio of the pin
+   */
+  public synchronized Gpio openGpio(int pin) {
+    if (pin < 0 || pin >= NUM_PINS) throw new IllegalArgumentException("pin out of range");
+    if (pins[pin] == null || pins[pin].isClosed()) {
+      pins[pin] = new Pcf8574Gpio(this, pin);
+    }
+    return pins[pin];
+  }
+
+  /**
+   * Write the changes made since the last write to the port now
+   * @return true when written
+   */
+  public boolean commit() {
+    synchronized (pendingLock) {
+      int set = pendingSet;
+      int clear = pendingClear;
+      pendingSet = 0;
+      pendingClear = 0;
+      flushScheduled = false;
+      if ((set | clear) == 0) return true;
+      return pcf8574.modify(set, clear);
+    }
+  }
+
+  private final Runnable commitRunnable = new Runnable() {
+    @Override
+    public void run() {
+      commit();
+    }
+  };
+
+  /**
+   * Set the level of a pin, or queue it when batching
+   * @param pin the pin [0:7]
+   * @param high true for a high level
+   * @param now write now even when batching, e.g., to make the pin an input
+   * @throws IOException when written now and the write fails
+   */
+  /* package */ void setLevel(int pin, boolean high, boolean now) throws IOException {
+    if (now || batchWindow == BATCH_IMMEDIATE) {
+      boolean written;
+      synchronized (pendingLock) {
+        pendingSet &= ~BV(pin);
+        pendingClear &= ~BV(pin);
+        written = high ? pcf8574.modify(BV(pin), 0) : pcf8574.modify(0, BV(pin));
+      }
+      if (!written) throw new IOException("unable to write port");
+      return;
+    }
+    synchronized (pendingLock) {
+      if (high) {
+        pendingSet |= BV(pin);
+        pendingClear &= ~BV(pin);
+      } else {
+        pendingClear |= BV(pin);
+        pendingSet &= ~BV(pin);
+      }
+      if (handler != null && !flushScheduled) {
+        flushScheduled = true;
+        handler.postDelayed(commitRunnable, batchWindow);
+      }
+    }
+  }
+
+  /**
+   * @param pin the pin [0:7]
+   * @return the level the pin is driven to, including changes not yet written
+   */
+  /* package */ boolean getOutputLevel(int pin) {
+    synchronized (pendingLock) {
+      int value = (pcf8574.readValue() | pendingSet) & ~pendingClear;
+      return (value & BV(pin)) != 0;
+    }
+  }
+
+  /**
+   * @param pin the pin [0:7]
+   * @return the level read from the pin
+   */
+  /* package */ boolean readInputLevel(int pin) {
+    return (pcf8574.readByte() & BV(pin)) != 0;
+  }
+
+  /* package */ boolean hasInterrupt() {
+    return dispatcher != null;
+  }
+
+  /**
+   * passes changed pins to the callbacks of their Gpio
+   */
+  private final Pcf8574InputDispatcher.InputListener inputListener =
+      new Pcf8574InputDispatcher.InputListener() {
+    @Override
+    public void onInputChanged(int pin, boolean high) {
+      Pcf8574Gpio gpio;
+      synchronized (Pcf8574GpioManager.this) {
+        gpio = pins[pin];
+      }
+      if (gpio != null) {
+        gpio.onLevelChanged(high);
+      }
+    }
+  };
+
+  /**
+   * Write any pending changes, then close the port and the interrupt Gpio
+   */
+  @Override
+  public void close() {
+    commit();
+    if (handler != null) {
+      handler.removeCallbacks(commitRunnable);
+      handlerThread.quitSafely();
+      handler = null;
+      handlerThread = null;
+    }
+    if (dispatcher != null) {
+      dispatcher.close();
+    }
+    pcf8574.close();
+  }
+
+  public static final class Pcf8574GpioManagerBuilder {
+    private Pcf8574 pcf8574;
+    private Gpio interruptGpio;
+    private int batchWindow = BATCH_IMMEDIATE;
+
+    private Pcf8574GpioManagerBuilder() {
+
+    }
+
+    /**
+     * @param pcf8574 the port whose pins are handed out
+     * @return builder
+     */
+    public Pcf8574GpioManagerBuilder port(Pcf8574 pcf8574) {
+      this.pcf8574 = pcf8574;
+      return this;
+    }
+
+    /**
+     * Specify the GPIO that the INT pin of the PCF8574 is connected to, required for
+     * callbacks on input pins
+     * @param gpio the GPIO returned from {@link com.google.android.things.pio.PeripheralManager#openGpio(String)}
+     * @return builder
+     */
+    public Pcf8574GpioManagerBuilder withInterrupt(@Nullable Gpio gpio) {
+      this.interruptGpio = gpio;
+      return this;
+    }
+
+    /**
+     * Coalesce output changes made within the given window into one write
+     * @param batchWindow window in milliseconds, {@link #BATCH_IMMEDIATE} or {@link #BATCH_ON_COMMIT}
+     * @return builder
+     */
+    public Pcf8574GpioManagerBuilder batchWindow(int batchWindow) {
+      if (batchWindow < BATCH_ON_COMMIT) throw new IllegalArgumentException("invalid batch window");
+      this.batchWindow = batchWindow;
+      return this;
+    }
+
+    public Pcf8574GpioManager build() {
+      if (pcf8574 == null) throw new IllegalStateException("no port");
+      return new Pcf8574GpioManager(pcf8574, interruptGpio, batchWindow);
+    }
+  }
+}
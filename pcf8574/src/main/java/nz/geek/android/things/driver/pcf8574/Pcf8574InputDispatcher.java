@@ -0,0 +1,305 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.pcf8574;
+
+import androidx.annotation.Nullable;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the inputs of a {@link Pcf8574} when they change and passes the pins that rose
+ * or fell to their {@link InputListener}s. With the INT pin of the PCF8574 given with
+ * {@link Pcf8574InputDispatcherBuilder#withInterrupt(Gpio)} the port is read once per
+ * falling edge of INT, otherwise it is polled.
+ * <p>
+ * Input pins must be latched high, e.g., with {@link Pcf8574#writeByte(int, int)}, so
+ * that something outside can pull them low.
+ * <pre>
+ *   Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+ *       .port(pcf8574)
+ *       .withInterrupt(intGpio)
+ *       .build();
+ *   dispatcher.addListener(3, Gpio.EDGE_FALLING, doorOpenListener);
+ * </pre>
+ */
+public class Pcf8574InputDispatcher implements AutoCloseable {
+
+  /**
+   * don't poll, the port is only read by {@link #poll()}
+   */
+  public static final int POLL_NONE = 0;
+
+  private static final int DEFAULT_POLL_INTERVAL = 20;
+  private static final int NUM_PINS = 8;
+  private static final InputListener[] NO_LISTENERS = new InputListener[0];
+
+  public interface InputListener {
+    /**
+     * Called when an input has changed level
+     * @param pin the pin [0:7]
+     * @param high the new level of the pin
+     */
+    void onInputChanged(int pin, boolean high);
+  }
+
+  private final Pcf8574 pcf8574;
+  private final Gpio interruptGpio;
+  private final int pollInterval;
+
+  /**
+   * listeners by pin, replaced rather than changed so they can be dispatched without locking
+   */
+  private volatile InputListener[][] risingListeners = new InputListener[NUM_PINS][];
+  private volatile InputListener[][] fallingListeners = new InputListener[NUM_PINS][];
+
+  /**
+   * pin levels as of the last read, guarded by {@link #pollLock}
+   */
+  private final Object pollLock = new Object();
+  private int lastInput;
+
+  private volatile boolean running = false;
+  private Thread thread;
+
+  private Pcf8574InputDispatcher(Pcf8574 pcf8574, Gpio interruptGpio, int pollInterval) {
+    this.pcf8574 = pcf8574;
+    this.interruptGpio = interruptGpio;
+    this.pollInterval = pollInterval;
+    Arrays.fill(risingListeners, NO_LISTENERS);
+    Arrays.fill(fallingListeners, NO_LISTENERS);
+    int input = pcf8574.readPort();
+    lastInput = input < 0 ? 0xFF : input;
+    if (interruptGpio != null) {
+      initInterrupt();
+    } else if (pollInterval > 0) {
+      startPolling();
+    }
+  }
+
+  private void initInterrupt() {
+    try {
+      interruptGpio.setDirection(Gpio.DIRECTION_IN);
+      interruptGpio.setActiveType(Gpio.ACTIVE_HIGH);
+      interruptGpio.setEdgeTriggerType(Gpio.EDGE_FALLING);
+      interruptGpio.registerGpioCallback(interruptCallback);
+    } catch (IOException e) {
+      // no dispatch then
+    }
+  }
+
+  private void startPolling() {
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (running) {
+          poll();
+          try {
+            Thread.sleep(pollInterval);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    }, Pcf8574InputDispatcher.class.getSimpleName());
+    thread.start();
+  }
+
+  public static Pcf8574InputDispatcherBuilder builder() {
+    return new Pcf8574InputDispatcherBuilder();
+  }
+
+  /**
+   * Add a listener for changes of a pin
+   * @param pin the pin [0:7]
+   * @param edge {@link Gpio#EDGE_RISING}, {@link Gpio#EDGE_FALLING} or {@link Gpio#EDGE_BOTH}
+   * @param listener the listener
+   */
+  public synchronized void addListener(int pin, int edge, InputListener listener) {
+    if (pin < 0 || pin >= NUM_PINS) throw new IllegalArgumentException("pin out of range");
+    if (listener == null) throw new IllegalArgumentException("listener is null");
+    if (edge == Gpio.EDGE_RISING || edge == Gpio.EDGE_BOTH) {
+      risingListeners = added(risingListeners, pin, listener);
+    }
+    if (edge == Gpio.EDGE_FALLING || edge == Gpio.EDGE_BOTH) {
+      fallingListeners = added(fallingListeners, pin, listener);
+    }
+  }
+
+  /**
+   * Remove a listener from every pin and edge it was added for
+   * @param listener the listener
+   */
+  public synchronized void removeListener(InputListener listener) {
+    risingListeners = removed(risingListeners, listener);
+    fallingListeners = removed(fallingListeners, listener);
+  }
+
+  private static InputListener[][] added(InputListener[][] table, int pin, InputListener listener) {
+    InputListener[][] next = table.clone();
+    next[pin] = Arrays.copyOf(table[pin], table[pin].length + 1);
+    next[pin][table[pin].length] = listener;
+    return next;
+  }
+
+  private static InputListener[][] removed(InputListener[][] table, InputListener listener) {
+    InputListener[][] next = table.clone();
+    for (int pin = 0; pin < NUM_PINS; pin++) {
+      InputListener[] listeners = next[pin];
+      for (int i = 0; i < listeners.length; i++) {
+        if (listeners[i] == listener) {
+          InputListener[] shorter = new InputListener[listeners.length - 1];
+          System.arraycopy(listeners, 0, shorter, 0, i);
+          System.arraycopy(listeners, i + 1, shorter, i, listeners.length - i - 1);
+          next[pin] = shorter;
+          break;
+        }
+      }
+    }
+    return next;
+  }
+
+  /**
+   * @return pin levels as of the last read of the port
+   */
+  public int getInputs() {
+    synchronized (pollLock) {
+      return lastInput;
+    }
+  }
+
+  /**
+   * Read the port now and dispatch any changes. Called on each interrupt or poll,
+   * call it directly when reading the port on your own schedule.
+   * @return true when the port was read
+   */
+  public boolean poll() {
+    synchronized (pollLock) {
+      int input = pcf8574.readPort();
+      if (input < 0) return false;
+      int changed = input ^ lastInput;
+      lastInput = input;
+      if (changed != 0) {
+        dispatch(risingListeners, changed & input, true);
+        dispatch(fallingListeners, changed & ~input, false);
+      }
+      return true;
+    }
+  }
+
+  private static void dispatch(InputListener[][] table, int pins, boolean high) {
+    while (pins != 0) {
+      int pin = Integer.numberOfTrailingZeros(pins);
+      pins &= pins - 1;
+      InputListener[] listeners = table[pin];
+      for (int i = 0; i < listeners.length; i++) {
+        listeners[i].onInputChanged(pin, high);
+      }
+    }
+  }
+
+  private final GpioCallback interruptCallback = new GpioCallback() {
+    @Override
+    public boolean onGpioEdge(Gpio gpio) {
+      poll();
+      return true;
+    }
+
+    @Override
+    public void onGpioError(Gpio gpio, int error) {
+      //
+    }
+  };
+
+  /**
+   * Stop polling, or unregister from and close the interrupt Gpio. The port is not closed.
+   */
+  @Override
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = this.thread;
+      this.thread = null;
+    }
+    if (thread != null && thread != Thread.currentThread()) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (interruptGpio != null) {
+      interruptGpio.unregisterGpioCallback(interruptCallback);
+      try {
+        interruptGpio.close();
+      } catch (IOException e) {
+        //
+      }
+    }
+  }
+
+  public static final class Pcf8574InputDispatcherBuilder {
+    private Pcf8574 pcf8574;
+    private Gpio interruptGpio;
+    private int pollInterval = DEFAULT_POLL_INTERVAL;
+
+    private Pcf8574InputDispatcherBuilder() {
+
+    }
+
+    /**
+     * @param pcf8574 the port to read
+     * @return builder
+     */
+    public Pcf8574InputDispatcherBuilder port(Pcf8574 pcf8574) {
+      this.pcf8574 = pcf8574;
+      return this;
+    }
+
+    /**
+     * Specify the GPIO that the INT pin of the PCF8574 is connected to. Without it the
+     * port is polled.
+     * @param gpio the GPIO returned from {@link com.google.android.things.pio.PeripheralManager#openGpio(String)}
+     * @return builder
+     */
+    public Pcf8574InputDispatcherBuilder withInterrupt(@Nullable Gpio gpio) {
+      this.interruptGpio = gpio;
+      return this;
+    }
+
+    /**
+     * Poll interval when there is no interrupt, 20ms by default
+     * @param pollInterval interval in milliseconds or {@link #POLL_NONE}
+     * @return builder
+     */
+    public Pcf8574InputDispatcherBuilder pollInterval(int pollInterval) {
+      if (pollInterval < POLL_NONE) throw new IllegalArgumentException("invalid poll interval");
+      this.pollInterval = pollInterval;
+      return this;
+    }
+
+    public Pcf8574InputDispatcher build() {
+      if (pcf8574 == null) throw new IllegalStateException("no port");
+      return new Pcf8574InputDispatcher(pcf8574, interruptGpio, pollInterval);
+    }
+  }
+}
@@ -0,0 +1,29 @@
+package nz.geek.android.things.driver.pcf8574;
+
+import android.os.Handler;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+
+/**
+ * stands in for the GPIO connected to the PCF8574 INT pin
+ */
+class InterruptGpio implements Gpio {
+  GpioCallback callback;
+  boolean closed = false;
+
+  void edge() {
+    callback.onGpioEdge(this);
+  }
+
+  @Override public void close() { closed = true; }
+  @Override public String getName() { return "INT"; }
+  @Override public boolean getValue() { return false; }
+  @Override public void registerGpioCallback(GpioCallback callback) { this.callback = callback; }
+  @Override public void registerGpioCallback(Handler handler, GpioCallback callback) { this.callback = callback; }
+  @Override public void setActiveType(int activeType) {}
+  @Override public void setDirection(int direction) {}
+  @Override public void setEdgeTriggerType(int edgeTriggerType) {}
+  @Override public void setValue(boolean value) {}
+  @Override public void unregisterGpioCallback(GpioCallback callback) { this.callback = null; }
+}
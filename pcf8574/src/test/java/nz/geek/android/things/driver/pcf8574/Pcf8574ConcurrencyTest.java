@@ -0,0 +1,86 @@
+package nz.geek.android.things.driver.pcf8574;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+import static org.junit.Assert.assertEquals;
+
+public class Pcf8574ConcurrencyTest {
+
+  private static final int THREADS = 8;
+  private static final int ITERATIONS = 2000;
+
+  private SimPcf8574 device;
+  private Pcf8574 pcf8574;
+
+  @Before
+  public void before() {
+    device = new SimPcf8574(new SimI2cBus());
+    pcf8574 = new Pcf8574(device);
+    pcf8574.writeByte(0x00, 0x00);
+  }
+
+  private interface PinTask {
+    void run(int pin);
+  }
+
+  private void runOnEachPin(final PinTask task) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[THREADS];
+    for (int i = 0; i < THREADS; i++) {
+      final int pin = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          task.run(pin);
+        }
+      });
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testConcurrentTogglesAreNotLost() throws InterruptedException {
+    runOnEachPin(new PinTask() {
+      @Override
+      public void run(int pin) {
+        // an odd number of toggles leaves every pin set
+        for (int i = 0; i < ITERATIONS + 1; i++) {
+          pcf8574.toggle(Pcf8574.BV(pin));
+        }
+      }
+    });
+    assertEquals(0xFF, pcf8574.readValue());
+    assertEquals(0xFF, device.getLatch());
+  }
+
+  @Test
+  public void testConcurrentSetPinIsNotLost() throws InterruptedException {
+    runOnEachPin(new PinTask() {
+      @Override
+      public void run(int pin) {
+        for (int i = 0; i < ITERATIONS; i++) {
+          pcf8574.setPin(pin, true);
+          pcf8574.setPin(pin, false);
+        }
+        pcf8574.setPin(pin, pin % 2 == 0);
+      }
+    });
+    assertEquals(0x55, pcf8574.readValue());
+    assertEquals(0x55, device.getLatch());
+  }
+}
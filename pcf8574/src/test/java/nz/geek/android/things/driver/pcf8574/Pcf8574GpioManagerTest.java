@@ -0,0 +1,164 @@
+package nz.geek.android.things.driver.pcf8574;
+
+import com.google.android.things.pio.Gpio;
+import com.google.android.things.pio.GpioCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class Pcf8574GpioManagerTest {
+
+  private SimPcf8574 device;
+  private Pcf8574 pcf8574;
+  private InterruptGpio interrupt;
+
+  private static class CountingCallback implements GpioCallback {
+    int edges = 0;
+    boolean keep = true;
+
+    @Override
+    public boolean onGpioEdge(Gpio gpio) {
+      edges++;
+      return keep;
+    }
+
+    @Override
+    public void onGpioError(Gpio gpio, int error) {
+    }
+  }
+
+  @Before
+  public void before() {
+    device = new SimPcf8574(new SimI2cBus());
+    pcf8574 = new Pcf8574(device);
+    interrupt = new InterruptGpio();
+  }
+
+  @Test
+  public void testImmediateWrites() throws IOException {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder().port(pcf8574).build();
+    Gpio gpio = manager.openGpio(2);
+    gpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+    gpio.setValue(true);
+    assertEquals(0x04, device.getLatch() & 0x04);
+    assertTrue(gpio.getValue());
+    assertEquals(2, device.getLatchCount());
+  }
+
+  @Test
+  public void testChangesCoalescedUntilCommit() throws IOException {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder()
+        .port(pcf8574)
+        .batchWindow(Pcf8574GpioManager.BATCH_ON_COMMIT)
+        .build();
+    Gpio[] gpios = new Gpio[4];
+    for (int i = 0; i < 4; i++) {
+      gpios[i] = manager.openGpio(i);
+      gpios[i].setDirection(Gpio.DIRECTION_OUT_INITIALLY_LOW);
+    }
+    long latches = device.getLatchCount();
+    for (Gpio gpio : gpios) {
+      gpio.setValue(true);
+    }
+    gpios[3].setValue(false);
+    assertEquals(latches, device.getLatchCount());
+    assertTrue(gpios[0].getValue());     // pending changes are visible
+    assertFalse(gpios[3].getValue());
+
+    assertTrue(manager.commit());
+    assertEquals(latches + 1, device.getLatchCount());
+    assertEquals(0x07, device.getLatch() & 0x0F);
+  }
+
+  @Test
+  public void testActiveLow() throws IOException {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder().port(pcf8574).build();
+    Gpio gpio = manager.openGpio(5);
+    gpio.setDirection(Gpio.DIRECTION_OUT_INITIALLY_HIGH);
+    gpio.setActiveType(Gpio.ACTIVE_LOW);
+    gpio.setValue(true);
+    assertEquals(0, device.getLatch() & 0x20);
+    assertTrue(gpio.getValue());
+  }
+
+  @Test
+  public void testSameGpioForPin() {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder().port(pcf8574).build();
+    assertSame(manager.openGpio(1), manager.openGpio(1));
+  }
+
+  @Test
+  public void testCallbacksShareOneRead() throws IOException {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder()
+        .port(pcf8574)
+        .withInterrupt(interrupt)
+        .build();
+    CountingCallback[] callbacks = new CountingCallback[3];
+    for (int i = 0; i < 3; i++) {
+      Gpio gpio = manager.openGpio(i);
+      gpio.setDirection(Gpio.DIRECTION_IN);
+      gpio.setEdgeTriggerType(Gpio.EDGE_FALLING);
+      callbacks[i] = new CountingCallback();
+      gpio.registerGpioCallback(callbacks[i]);
+    }
+
+    device.setInputs(0x03, 0x00);     // pull pins 0 and 1 low
+    long transactions = device.getTransactionCount();
+    interrupt.edge();
+    assertEquals(transactions + 1, device.getTransactionCount());
+    assertEquals(1, callbacks[0].edges);
+    assertEquals(1, callbacks[1].edges);
+    assertEquals(0, callbacks[2].edges);
+
+    // rising edges are not wanted
+    device.setInputs(0x03, 0x03);
+    interrupt.edge();
+    assertEquals(1, callbacks[0].edges);
+  }
+
+  @Test
+  public void testCallbackReturningFalseIsUnregistered() throws IOException {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder()
+        .port(pcf8574)
+        .withInterrupt(interrupt)
+        .build();
+    Gpio gpio = manager.openGpio(4);
+    gpio.setDirection(Gpio.DIRECTION_IN);
+    gpio.setEdgeTriggerType(Gpio.EDGE_BOTH);
+    CountingCallback callback = new CountingCallback();
+    callback.keep = false;
+    gpio.registerGpioCallback(callback);
+
+    device.setInputs(0x10, 0x00);
+    interrupt.edge();
+    device.setInputs(0x10, 0x10);
+    interrupt.edge();
+    assertEquals(1, callback.edges);
+  }
+
+  @Test(expected = IOException.class)
+  public void testCallbackNeedsInterrupt() throws IOException {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder().port(pcf8574).build();
+    Gpio gpio = manager.openGpio(0);
+    gpio.setDirection(Gpio.DIRECTION_IN);
+    gpio.registerGpioCallback(new CountingCallback());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testInputCannotBeSet() throws IOException {
+    Pcf8574GpioManager manager = Pcf8574GpioManager.builder().port(pcf8574).build();
+    Gpio gpio = manager.openGpio(0);
+    gpio.setDirection(Gpio.DIRECTION_IN);
+    gpio.setValue(false);
+  }
+}
@@ -0,0 +1,184 @@
+package nz.geek.android.things.driver.pcf8574;
+
+import com.google.android.things.pio.Gpio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class Pcf8574InputDispatcherTest {
+
+  private SimPcf8574 device;
+  private Pcf8574 pcf8574;
+  private InterruptGpio interrupt;
+
+  private static class RecordingListener implements Pcf8574InputDispatcher.InputListener {
+    final List<String> events = new ArrayList<>();
+
+    @Override
+    public void onInputChanged(int pin, boolean high) {
+      events.add(pin + (high ? "+" : "-"));
+    }
+  }
+
+  @Before
+  public void before() {
+    device = new SimPcf8574(new SimI2cBus());
+    pcf8574 = new Pcf8574(device);
+    interrupt = new InterruptGpio();
+  }
+
+  @Test
+  public void testOneReadPerInterrupt() {
+    Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .withInterrupt(interrupt)
+        .build();
+    RecordingListener listener = new RecordingListener();
+    for (int pin = 0; pin < 8; pin++) {
+      dispatcher.addListener(pin, Gpio.EDGE_BOTH, listener);
+    }
+
+    device.setInputs(0x81, 0x00);
+    long transactions = device.getTransactionCount();
+    interrupt.edge();
+    assertEquals(transactions + 1, device.getTransactionCount());
+    assertEquals(2, listener.events.size());
+    assertEquals("0-", listener.events.get(0));
+    assertEquals("7-", listener.events.get(1));
+    assertEquals(0x7E, dispatcher.getInputs());
+  }
+
+  @Test
+  public void testRisingAndFallingListeners() {
+    Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .pollInterval(Pcf8574InputDispatcher.POLL_NONE)
+        .build();
+    RecordingListener rising = new RecordingListener();
+    RecordingListener falling = new RecordingListener();
+    dispatcher.addListener(2, Gpio.EDGE_RISING, rising);
+    dispatcher.addListener(2, Gpio.EDGE_FALLING, falling);
+
+    device.setInputs(0x04, 0x00);
+    assertTrue(dispatcher.poll());
+    device.setInputs(0x04, 0x04);
+    assertTrue(dispatcher.poll());
+    assertTrue(dispatcher.poll());     // no change, no dispatch
+
+    assertEquals(1, rising.events.size());
+    assertEquals("2+", rising.events.get(0));
+    assertEquals(1, falling.events.size());
+    assertEquals("2-", falling.events.get(0));
+  }
+
+  @Test
+  public void testRemoveListener() {
+    Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .pollInterval(Pcf8574InputDispatcher.POLL_NONE)
+        .build();
+    RecordingListener listener = new RecordingListener();
+    dispatcher.addListener(1, Gpio.EDGE_BOTH, listener);
+    dispatcher.addListener(5, Gpio.EDGE_BOTH, listener);
+    dispatcher.removeListener(listener);
+
+    device.setInputs(0x22, 0x00);
+    dispatcher.poll();
+    assertTrue(listener.events.isEmpty());
+  }
+
+  @Test
+  public void testFailedReadIsNotAChange() {
+    Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .pollInterval(Pcf8574InputDispatcher.POLL_NONE)
+        .build();
+    RecordingListener listener = new RecordingListener();
+    dispatcher.addListener(0, Gpio.EDGE_BOTH, listener);
+
+    device.setFailing(true);
+    assertFalse(dispatcher.poll());
+    assertTrue(listener.events.isEmpty());
+    assertEquals(0xFF, dispatcher.getInputs());
+  }
+
+  @Test
+  public void testPollingWithoutInterrupt() throws InterruptedException {
+    Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .pollInterval(1)
+        .build();
+    final RecordingListener listener = new RecordingListener();
+    final Object lock = new Object();
+    dispatcher.addListener(6, Gpio.EDGE_FALLING, new Pcf8574InputDispatcher.InputListener() {
+      @Override
+      public void onInputChanged(int pin, boolean high) {
+        synchronized (lock) {
+          listener.onInputChanged(pin, high);
+          lock.notifyAll();
+        }
+      }
+    });
+    synchronized (lock) {
+      device.setInputs(0x40, 0x00);
+      long deadline = System.currentTimeMillis() + 1000;
+      while (listener.events.isEmpty() && System.currentTimeMillis() < deadline) {
+        lock.wait(100);
+      }
+    }
+    dispatcher.close();
+    assertEquals(1, listener.events.size());
+    assertEquals("6-", listener.events.get(0));
+  }
+
+  @Test
+  public void testCloseReleasesInterrupt() {
+    Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .withInterrupt(interrupt)
+        .build();
+    dispatcher.close();
+    assertNull(interrupt.callback);
+    assertTrue(interrupt.closed);
+  }
+
+  @Test
+  public void testDispatchDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    final Pcf8574InputDispatcher dispatcher = Pcf8574InputDispatcher.builder()
+        .port(pcf8574)
+        .pollInterval(Pcf8574InputDispatcher.POLL_NONE)
+        .build();
+    final int[] count = new int[1];
+    dispatcher.addListener(3, Gpio.EDGE_BOTH, new Pcf8574InputDispatcher.InputListener() {
+      @Override
+      public void onInputChanged(int pin, boolean high) {
+        count[0]++;
+      }
+    });
+    final boolean[] low = new boolean[1];
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        low[0] = !low[0];
+        device.setInputs(0x08, low[0] ? 0x00 : 0x08);
+        dispatcher.poll();
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+    assertTrue(count[0] > 10000);
+  }
+}
@@ -8,11 +8,18 @@ import org.junit.runner.RunWith;
 import org.mockito.Matchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
 
 @RunWith(MockitoJUnitRunner.class)
 public class Pcf8574Test {
@@ -22,36 +29,59 @@ public class Pcf8574Test {
 
   Pcf8574 pcf8574;
 
+  /**
+   * copy of the bytes of each write, the driver reuses its buffer so the arguments
+   * recorded by the mock only hold the last value written
+   */
+  private final List<byte[]> writes = new ArrayList<>();
+
   @Before
-  public void before() {
+  public void before() throws IOException {
     pcf8574 = new Pcf8574(device);
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        byte[] buffer = (byte[]) invocation.getArguments()[0];
+        int length = (Integer) invocation.getArguments()[1];
+        writes.add(Arrays.copyOf(buffer, length));
+        return null;
+      }
+    }).when(device).write(Matchers.any(byte[].class), Matchers.anyInt());
+  }
+
+  /**
+   * assert that the given number of writes have been made, the last one of the given byte
+   */
+  private void assertWritten(int count, int value) {
+    assertEquals(count, writes.size());
+    assertTrue(Arrays.equals(new byte[]{(byte) value}, writes.get(count - 1)));
   }
 
   @Test
   public void testSetPinDoesntMangleOtherPins() throws Exception {
     pcf8574.setPin(0, true);
-    Mockito.verify(device).write(new byte[]{0x01}, 1);
+    assertWritten(1, 0x01);
     assertEquals(0x01, pcf8574.readValue());
     pcf8574.setPin(1, true);
-    Mockito.verify(device).write(new byte[]{0x03}, 1);
+    assertWritten(2, 0x03);
     assertEquals(0x03, pcf8574.readValue());
     pcf8574.setPin(2, true);
-    Mockito.verify(device).write(new byte[]{0x07}, 1);
+    assertWritten(3, 0x07);
     assertEquals(0x07, pcf8574.readValue());
     pcf8574.setPin(3, true);
-    Mockito.verify(device).write(new byte[]{0x0F}, 1);
+    assertWritten(4, 0x0F);
     assertEquals(0x0F, pcf8574.readValue());
     pcf8574.setPin(4, true);
-    Mockito.verify(device).write(new byte[]{0x1F}, 1);
+    assertWritten(5, 0x1F);
     assertEquals(0x1F, pcf8574.readValue());
     pcf8574.setPin(5, true);
-    Mockito.verify(device).write(new byte[]{0x3F}, 1);
+    assertWritten(6, 0x3F);
     assertEquals(0x3F, pcf8574.readValue());
     pcf8574.setPin(6, true);
-    Mockito.verify(device).write(new byte[]{0x7F}, 1);
+    assertWritten(7, 0x7F);
     assertEquals(0x7F, pcf8574.readValue());
     pcf8574.setPin(7, true);
-    Mockito.verify(device).write(new byte[]{(byte) 0xFF}, 1);
+    assertWritten(8, 0xFF);
     assertEquals(0xFF, pcf8574.readValue());
   }
 
@@ -59,21 +89,67 @@ public class Pcf8574Test {
   public void testClearPinDoesntMangleOtherPins() throws Exception {
     pcf8574.writeByte(0x00, 0xFF);
     pcf8574.setPin(0, false);
-    Mockito.verify(device).write(new byte[]{(byte) 0xFE}, 1);
+    assertWritten(2, 0xFE);
     pcf8574.setPin(1, false);
-    Mockito.verify(device).write(new byte[]{(byte) 0xFC}, 1);
+    assertWritten(3, 0xFC);
     pcf8574.setPin(2, false);
-    Mockito.verify(device).write(new byte[]{(byte) 0xF8}, 1);
+    assertWritten(4, 0xF8);
     pcf8574.setPin(3, false);
-    Mockito.verify(device).write(new byte[]{(byte) 0xF0}, 1);
+    assertWritten(5, 0xF0);
     pcf8574.setPin(4, false);
-    Mockito.verify(device).write(new byte[]{(byte) 0xE0}, 1);
+    assertWritten(6, 0xE0);
     pcf8574.setPin(5, false);
-    Mockito.verify(device).write(new byte[]{(byte) 0xC0}, 1);
+    assertWritten(7, 0xC0);
     pcf8574.setPin(6, false);
-    Mockito.verify(device).write(new byte[]{(byte) 0x80}, 1);
+    assertWritten(8, 0x80);
     pcf8574.setPin(7, false);
-    Mockito.verify(device).write(new byte[]{0x00}, 1);
+    assertWritten(9, 0x00);
+  }
+
+  @Test
+  public void testWriteSequenceIsOneTransaction() throws Exception {
+    int[] masks = {0xF0, 0xF0, 0x0F};
+    int[] data = {0x01, 0x03, 0xA0};
+    assertTrue(pcf8574.writeSequence(masks, data, data.length));
+    Mockito.verify(device).write(new byte[]{0x01, 0x03, (byte) 0xA3}, 3);
+    Mockito.verifyNoMoreInteractions(device);
+    assertEquals(0xA3, pcf8574.readValue());
+  }
+
+  @Test
+  public void testWriteSequenceDoesntMangleOtherPins() throws Exception {
+    pcf8574.writeByte(0x00, 0x80);
+    int[] masks = {~0x01, ~0x01};
+    int[] data = {0x01, 0x00};
+    pcf8574.writeSequence(masks, data, 2);
+    Mockito.verify(device).write(new byte[]{(byte) 0x81, (byte) 0x80}, 2);
+    assertEquals(0x80, pcf8574.readValue());
+  }
+
+  @Test
+  public void testWriteSequenceWithOneMask() throws Exception {
+    pcf8574.writeByte(0x00, 0x80);
+    int[] data = {0x01, 0x02, 0x7F};
+    assertTrue(pcf8574.writeSequence(0x80, data, 2));
+    Mockito.verify(device).write(new byte[]{(byte) 0x81, (byte) 0x82}, 2);
+    assertEquals(0x82, pcf8574.readValue());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWriteSequenceRejectsNullMasks() throws Exception {
+    try {
+      pcf8574.writeSequence(null, new int[]{0x01}, 1);
+    } finally {
+      Mockito.verify(device, Mockito.never()).write(Matchers.any(byte[].class), Matchers.anyInt());
+    }
+  }
+
+  @Test
+  public void testWriteSequenceFailureKeepsValue() throws Exception {
+    pcf8574.writeByte(0x00, 0x55);
+    Mockito.doThrow(new IOException()).when(device).write(Matchers.any(byte[].class), Matchers.eq(2));
+    assertFalse(pcf8574.writeSequence(new int[]{0x00, 0x00}, new int[]{0x01, 0x02}, 2));
+    assertEquals(0x55, pcf8574.readValue());
   }
 
   @Test
@@ -93,4 +169,39 @@ public class Pcf8574Test {
     pcf8574.getPin(1);
     Mockito.verify(device).read(Matchers.any(byte[].class), Matchers.eq(1));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testModify() throws Exception {
+    pcf8574.writeByte(0x00, 0x0F);
+    assertTrue(pcf8574.modify(0x30, 0x03));
+    assertWritten(2, 0x3C);
+    // a pin in both masks is cleared
+    assertTrue(pcf8574.modify(0x04, 0x04));
+    assertWritten(3, 0x38);
+    assertEquals(0x38, pcf8574.readValue());
+  }
+
+  @Test
+  public void testToggle() throws Exception {
+    pcf8574.writeByte(0x00, 0x0F);
+    assertTrue(pcf8574.toggle(0x81));
+    assertWritten(2, 0x8E);
+    assertTrue(pcf8574.toggle(0x81));
+    assertWritten(3, 0x0F);
+  }
+
+  @Test
+  public void testSameValueIsWrittenAgain() throws Exception {
+    pcf8574.writeByte(0x00, 0x0F);
+    pcf8574.writeByte(0x00, 0x0F);
+    assertWritten(2, 0x0F);
+  }
+
+  @Test
+  public void testWriteByteFailureKeepsValue() throws Exception {
+    pcf8574.writeByte(0x00, 0x55);
+    Mockito.doThrow(new IOException()).when(device).write(Matchers.any(byte[].class), Matchers.eq(1));
+    assertFalse(pcf8574.toggle(0xFF));
+    assertEquals(0x55, pcf8574.readValue());
+  }
+}
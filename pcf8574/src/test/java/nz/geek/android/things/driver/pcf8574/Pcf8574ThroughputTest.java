@@ -0,0 +1,83 @@
+package nz.geek.android.things.driver.pcf8574;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8574;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class Pcf8574ThroughputTest {
+
+  private static final int STATES = 140;  // one 20 character LCD line
+
+  private SimI2cBus bus;
+  private SimPcf8574 device;
+  private Pcf8574 pcf8574;
+
+  @Before
+  public void before() {
+    bus = SimI2cBus.standardMode();
+    device = new SimPcf8574(bus);
+    pcf8574 = new Pcf8574(device);
+  }
+
+  @Test
+  public void testWriteSequenceIsFasterThanWriteByte() {
+    int[] masks = new int[STATES];
+    int[] data = new int[STATES];
+    for (int i = 0; i < STATES; i++) {
+      masks[i] = 0xF0;
+      data[i] = i & 0x0F;
+    }
+
+    for (int i = 0; i < STATES; i++) {
+      pcf8574.writeByte(masks[i], data[i]);
+    }
+    long byteTime = bus.nanoTime();
+    assertEquals(STATES, bus.getTransactionCount());
+
+    bus.resetCounters();
+    pcf8574.writeSequence(masks, data, STATES);
+    long sequenceTime = bus.nanoTime() - byteTime;
+    assertEquals(1, bus.getTransactionCount());
+    assertEquals(2 * STATES, device.getLatchCount());
+
+    // a single byte transaction costs at least twice a byte of a burst
+    assertTrue(sequenceTime * 2 < byteTime);
+  }
+
+  @Test
+  public void testWriteAndReadIsOneTransaction() {
+    device.setInputs(0x10, 0x00);
+    bus.resetCounters();
+    assertEquals(0xEE, pcf8574.writeAndRead(0x00, 0xFE));
+    assertEquals(1, bus.getTransactionCount());
+    assertEquals(0xFE, device.getLatch());
+    assertEquals(0xFE, pcf8574.readValue());
+
+    device.setFailing(true);
+    assertEquals(-1, pcf8574.writeAndRead(0x00, 0x00));
+    assertEquals(0xFE, pcf8574.readValue());
+  }
+
+  @Test
+  public void testWriteAndReadDoNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    final int[] masks = {0xF0, 0xF0, 0xF0};
+    final int[] data = {0x01, 0x02, 0x03};
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        pcf8574.writeByte(0x0F, 0xA0);
+        pcf8574.readByte();
+        pcf8574.writeSequence(masks, data, data.length);
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+  }
+}
@@ -53,6 +53,20 @@ public class Pcf8591 implements AutoCloseable {
   public static final int MODE_TWO_DIFFERENTIAL = 0x30;
   public static final int AUTO_INCREMENT = 0x04;
 
+  /* package */ static final int CHANNEL_MASK = 0x03;
+  private static final int MODE_MASK = 0x30;
+
+  /**
+   * buffers reused by {@link #readChannel(int)} and {@link #readAllChannels(int[])}
+   */
+  private final byte[] controlBuffer = new byte[1];
+  private final byte[] readBuffer = new byte[5];
+
+  /**
+   * control byte followed by DAC values, grown by {@link #writeAnalogOutput(byte[], int)}
+   */
+  private byte[] dacBuffer = new byte[2];
+
   /**
    * Constructor given I2cDevice for testing with mock device
    * @param device I2cDevice of the ADC
@@ -142,23 +156,100 @@ public class Pcf8591 implements AutoCloseable {
     control = configuration;
   }
 
+  /* package */ int getControl() {
+    return control;
+  }
+
+  /**
+   * @param control device control byte
+   * @return number of input channels in the mode of the control byte
+   */
+  /* package */ static int getChannelCount(int control) {
+    switch (control & MODE_MASK) {
+      case MODE_THREE_DIFFERENTIAL:
+      case MODE_TWO_SINGLE_ONE_DIFFERENTIAL:
+        return 3;
+      case MODE_TWO_DIFFERENTIAL:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+
+  /**
+   * Create a stream that reads every channel continuously, many samples per transaction
+   * @return builder of the stream
+   */
+  public Pcf8591Stream.Pcf8591StreamBuilder stream() {
+    return Pcf8591Stream.builder(this);
+  }
+
+  /**
+   * Create a player that streams a waveform to the analog output
+   * @return builder of the player
+   */
+  public Pcf8591WaveformPlayer.Pcf8591WaveformPlayerBuilder waveform() {
+    return Pcf8591WaveformPlayer.builder(this);
+  }
+
+  /**
+   * Set the analog output. This enables the analog output, which then stays enabled
+   * for following ADC reads.
+   * @param value DAC value [0:255]
+   * @return true if the value was written
+   */
+  public synchronized boolean writeAnalogOutput(int value) {
+    dacBuffer[1] = (byte) (value & 0xFF);
+    return writeDac(1);
+  }
+
+  /**
+   * Write a sequence of values to the analog output in a single transaction. The DAC
+   * is updated as each byte is received, so the values are output at the rate of
+   * bytes on the bus.
+   * @param values DAC values [0:255]
+   * @param count number of values to write
+   * @return true if the values were written
+   */
+  public synchronized boolean writeAnalogOutput(byte[] values, int count) {
+    if (count > values.length) throw new IllegalArgumentException("count greater than values");
+    if (count <= 0) return true;
+    if (dacBuffer.length < count + 1) {
+      dacBuffer = new byte[count + 1];
+    }
+    System.arraycopy(values, 0, dacBuffer, 1, count);
+    return writeDac(count);
+  }
+
+  private boolean writeDac(int count) {
+    if (device == null) return false;
+    control |= ANALOG_OUTPUT_ENABLE;
+    dacBuffer[0] = (byte) (control & 0xFF);
+    try {
+      device.write(dacBuffer, count + 1);
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
   /**
    * read a single ADC channel
    * @param channel to read [0:3]
    * @return ADC result
    */
-  public int readChannel(int channel) {
+  public synchronized int readChannel(int channel) {
     if (channel < 0 || channel > 3) return -1;
 
-    byte[] config = {(byte) ((channel | control) & 0xFF)};
-    byte[] buffer = new byte[2];
+    controlBuffer[0] = (byte) ((channel | control) & 0xFF);
+    readBuffer[1] = 0;
     try {
-      device.write(config, 1);
-      device.read(buffer, buffer.length);
+      device.write(controlBuffer, 1);
+      device.read(readBuffer, 2);
     } catch (IOException e) {
       // nah, bra
     }
-    return (buffer[1] & 0xFF);
+    return (readBuffer[1] & 0xFF);
   }
 
   /**
@@ -166,14 +257,30 @@ public class Pcf8591 implements AutoCloseable {
    * @return values for channels 0 - 3
    */
   public int[] readAllChannels() {
-    byte[] config = {(byte) (control | AUTO_INCREMENT)};
-    byte[] buffer = new byte[5];
+    int[] values = new int[4];
+    readAllChannels(values);
+    return values;
+  }
+
+  /**
+   * Read all ADC channels into the given array, without allocating
+   * @param dst destination for the values of channels 0 - 3, at least 4 long
+   * @return true if the channels were read
+   */
+  public synchronized boolean readAllChannels(int[] dst) {
+    if (dst.length < 4) throw new IllegalArgumentException("dst must hold 4 channels");
+    controlBuffer[0] = (byte) (control | AUTO_INCREMENT);
+    boolean read = false;
     try {
-      device.write(config, 1);
-      device.read(buffer, buffer.length);
+      device.write(controlBuffer, 1);
+      device.read(readBuffer, readBuffer.length);
+      read = true;
     } catch (IOException e) {
       // nope
     }
-    return new int[]{buffer[1] & 0xFF, buffer[2] & 0xFF, buffer[3] & 0xFF, buffer[4] & 0xFF};
+    for (int i = 0; i < 4; i++) {
+      dst[i] = read ? readBuffer[i + 1] & 0xFF : 0;
+    }
+    return read;
   }
 }
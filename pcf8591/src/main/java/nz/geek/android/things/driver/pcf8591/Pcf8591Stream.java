@@ -0,0 +1,288 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.pcf8591;
+
+import com.google.android.things.pio.I2cDevice;
+
+import java.io.IOException;
+
+import static nz.geek.android.things.driver.pcf8591.Pcf8591.AUTO_INCREMENT;
+
+/**
+ * Continuous acquisition from a {@link Pcf8591}.
+ * <p>
+ * The PCF8591 starts a conversion on every read acknowledge and sends the result in the
+ * next byte, so a single long read returns successive samples of every channel of the
+ * configured mode, one after the other. The control byte is written once, with auto
+ * increment, then blocks of samples are read one transaction each on a thread of the
+ * stream's own. The first byte of each read is the conversion started by the last byte
+ * of the previous read, which continues the sequence, so only the first byte after
+ * starting is thrown away.
+ * <p>
+ * Samples are de-interleaved into a ring buffer per channel and passed to the
+ * {@link SampleListener} a block at a time. While the stream is running the
+ * {@link Pcf8591} should not be used for anything else.
+ * <pre>
+ *   Pcf8591Stream stream = Pcf8591Stream.builder(pcf8591)
+ *       .samplesPerBlock(64)
+ *       .listener(listener)
+ *       .build();
+ *   stream.start();
+ * </pre>
+ */
+public class Pcf8591Stream implements AutoCloseable {
+
+  private static final int DEFAULT_SAMPLES_PER_BLOCK = 64;
+  private static final int DEFAULT_BUFFER_BLOCKS = 8;
+
+  /**
+   * Receives blocks of samples on the stream thread
+   */
+  public interface SampleListener {
+    /**
+     * Called when a block of samples has been read. The samples of channel n are in
+     * samples[n][offset] to samples[n][offset + count - 1] and are unsigned 8 bit values,
+     * differential inputs are two's complement. The arrays are the stream's ring buffers,
+     * a block stays valid until the ring wraps around to it again.
+     * @param samples ring buffer of each channel
+     * @param offset index of the block's first sample
+     * @param count number of samples of each channel in the block
+     */
+    void onSamples(short[][] samples, int offset, int count);
+
+    /**
+     * Called when a read fails, the stream has stopped
+     * @param e the exception
+     */
+    void onStreamError(IOException e);
+  }
+
+  private final I2cDevice device;
+  private final int control;
+  private final int channels;
+  private final int samplesPerBlock;
+  private final int capacity;
+  private final short[][] samples;
+  private final byte[] buffer;
+  private final SampleListener listener;
+
+  private int position = 0;
+  private boolean primed = false;
+  private long sampleCount = 0;
+
+  private volatile boolean running = false;
+  private Thread thread;
+
+  private Pcf8591Stream(Pcf8591 pcf8591, int samplesPerBlock, int bufferBlocks, SampleListener listener) {
+    this.device = pcf8591.device;
+    this.control = (pcf8591.getControl() & ~Pcf8591.CHANNEL_MASK) | AUTO_INCREMENT;
+    this.channels = Pcf8591.getChannelCount(control);
+    this.samplesPerBlock = samplesPerBlock;
+    this.capacity = samplesPerBlock * bufferBlocks;
+    this.samples = new short[channels][capacity];
+    // one extra byte for the stale conversion of the first read
+    this.buffer = new byte[channels * samplesPerBlock + 1];
+    this.listener = listener;
+  }
+
+  public static Pcf8591StreamBuilder builder(Pcf8591 pcf8591) {
+    return new Pcf8591StreamBuilder(pcf8591);
+  }
+
+  /**
+   * @return number of channels in the configured mode
+   */
+  public int getChannelCount() {
+    return channels;
+  }
+
+  /**
+   * @return number of samples of each channel read per transaction
+   */
+  public int getSamplesPerBlock() {
+    return samplesPerBlock;
+  }
+
+  /**
+   * @return number of samples of each channel read since the stream was started
+   */
+  public synchronized long getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Copy the latest samples of a channel, oldest first
+   * @param channel the channel [0:channel count - 1]
+   * @param dst destination of the samples
+   * @param length number of samples wanted, at most the ring buffer size
+   * @return number of samples copied, less than length until enough have been read
+   */
+  public synchronized int getLatest(int channel, short[] dst, int length) {
+    if (channel < 0 || channel >= channels) return 0;
+    int available = (int) Math.min(Math.min(sampleCount, capacity), length);
+    int start = position - available;
+    if (start < 0) {
+      int tail = -start;
+      System.arraycopy(samples[channel], capacity - tail, dst, 0, tail);
+      System.arraycopy(samples[channel], 0, dst, tail, available - tail);
+    } else {
+      System.arraycopy(samples[channel], start, dst, 0, available);
+    }
+    return available;
+  }
+
+  public synchronized boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Write the control byte and start reading samples
+   */
+  public synchronized void start() {
+    if (running || device == null) return;
+    running = true;
+    primed = false;
+    sampleCount = 0;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        stream();
+      }
+    }, Pcf8591Stream.class.getSimpleName());
+    thread.start();
+  }
+
+  /**
+   * Stop reading samples, waits for the current block to complete
+   */
+  public void stop() {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = this.thread;
+      this.thread = null;
+    }
+    if (thread != null && thread != Thread.currentThread()) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    stop();
+  }
+
+  private void stream() {
+    while (running) {
+      try {
+        readBlock();
+      } catch (IOException e) {
+        running = false;
+        if (listener != null) {
+          listener.onStreamError(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Read one block of samples into the ring buffers and notify the listener
+   * @throws IOException on I2C exception
+   */
+  /* package */ void readBlock() throws IOException {
+    int first = 0;
+    if (!primed) {
+      buffer[0] = (byte) control;
+      device.write(buffer, 1);
+      device.read(buffer, buffer.length);
+      primed = true;
+      first = 1;
+    } else {
+      device.read(buffer, buffer.length - 1);
+    }
+
+    int offset;
+    synchronized (this) {
+      deinterleave(first);
+      offset = position;
+      position += samplesPerBlock;
+      if (position == capacity) position = 0;
+      sampleCount += samplesPerBlock;
+    }
+    if (listener != null) {
+      listener.onSamples(samples, offset, samplesPerBlock);
+    }
+  }
+
+  /**
+   * every block holds a whole number of samples of each channel, so it always starts at channel 0
+   */
+  private void deinterleave(int first) {
+    int length = channels * samplesPerBlock;
+    for (int i = 0; i < length; i++) {
+      samples[i % channels][position + i / channels] = (short) (buffer[first + i] & 0xFF);
+    }
+  }
+
+  public static class Pcf8591StreamBuilder {
+
+    private final Pcf8591 pcf8591;
+    private int samplesPerBlock = DEFAULT_SAMPLES_PER_BLOCK;
+    private int bufferBlocks = DEFAULT_BUFFER_BLOCKS;
+    private SampleListener listener;
+
+    private Pcf8591StreamBuilder(Pcf8591 pcf8591) {
+      this.pcf8591 = pcf8591;
+    }
+
+    /**
+     * Set the number of samples of each channel read in one transaction. Larger blocks
+     * spend less of the bus on transaction overhead, smaller blocks reach the listener
+     * sooner.
+     * @param samplesPerBlock samples of each channel per block
+     * @return the builder
+     */
+    public Pcf8591StreamBuilder samplesPerBlock(int samplesPerBlock) {
+      if (samplesPerBlock < 1) throw new IllegalArgumentException("samplesPerBlock must be at least 1");
+      this.samplesPerBlock = samplesPerBlock;
+      return this;
+    }
+
+    /**
+     * Set the size of the ring buffers in blocks
+     * @param bufferBlocks number of blocks kept for each channel
+     * @return the builder
+     */
+    public Pcf8591StreamBuilder bufferBlocks(int bufferBlocks) {
+      if (bufferBlocks < 1) throw new IllegalArgumentException("bufferBlocks must be at least 1");
+      this.bufferBlocks = bufferBlocks;
+      return this;
+    }
+
+    public Pcf8591StreamBuilder listener(SampleListener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    public Pcf8591Stream build() {
+      return new Pcf8591Stream(pcf8591, samplesPerBlock, bufferBlocks, listener);
+    }
+  }
+}
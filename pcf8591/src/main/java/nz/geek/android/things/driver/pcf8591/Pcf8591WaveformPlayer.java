@@ -0,0 +1,351 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.pcf8591;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a waveform on the analog output of a {@link Pcf8591}.
+ * <p>
+ * The DAC is updated as each byte of a write arrives, so a transfer of the control byte
+ * followed by n values outputs n samples at the byte rate of the bus. The player
+ * writes transfers on a thread of its own, one per period, the period being the time a
+ * transfer takes on the bus: the address, control byte and values at 9 clocks each plus
+ * the overhead of a transaction. Samples are taken from a table, e.g., {@link #sine(int)},
+ * with a phase accumulator so any frequency can be played from the same table.
+ * <p>
+ * Transfers are scheduled against absolute deadlines so the rate does not drift. The
+ * phase carries on from one transfer to the next, so neither a late transfer nor a change
+ * of frequency puts a step in the waveform. Transfers that are missed altogether are
+ * skipped and counted by {@link #getOverrunCount()}.
+ * <pre>
+ *   Pcf8591WaveformPlayer player = pcf8591.waveform()
+ *       .table(Pcf8591WaveformPlayer.sine(256))
+ *       .frequencyHz(50)
+ *       .build();
+ *   player.start();
+ * </pre>
+ */
+public class Pcf8591WaveformPlayer implements AutoCloseable {
+
+  private static final int DEFAULT_BUS_SPEED_HZ = 100000;
+  private static final int DEFAULT_SAMPLES_PER_TRANSFER = 64;
+  private static final int BITS_PER_BYTE = 9; // 8 data bits and ACK
+
+  /**
+   * address and control byte sent ahead of the values of a transfer
+   */
+  private static final int HEADER_BYTES = 2;
+
+  /**
+   * start, stop and the time to get a transaction through the I2C driver
+   */
+  private static final long TRANSFER_OVERHEAD_NANOS = 200000;
+
+  /**
+   * fractional bits of the phase accumulator
+   */
+  private static final int PHASE_BITS = 16;
+
+  private final Pcf8591 pcf8591;
+  private final int[] table;
+  private final byte[] buffer;
+  private final long periodNanos;
+  private final double sampleRate;
+  private final long phaseWrap;
+
+  /**
+   * index into the table of the next sample, with {@link #PHASE_BITS} fractional bits,
+   * only used by the player thread
+   */
+  private long phase = 0;
+
+  private volatile double frequency;
+  private volatile boolean running = false;
+  private Thread thread;
+  private long overrunCount = 0;
+  private long transferCount = 0;
+
+  private Pcf8591WaveformPlayer(Pcf8591 pcf8591, int[] table, double frequency, long periodNanos,
+                                int samplesPerTransfer) {
+    this.pcf8591 = pcf8591;
+    this.table = table;
+    this.frequency = frequency;
+    this.buffer = new byte[samplesPerTransfer];
+    this.periodNanos = periodNanos;
+    this.sampleRate = sampleRate(periodNanos, samplesPerTransfer);
+    this.phaseWrap = ((long) table.length) << PHASE_BITS;
+  }
+
+  /**
+   * @param busSpeedHz bus clock
+   * @param samplesPerTransfer DAC values per transfer
+   * @return time a transfer takes on the bus
+   */
+  private static long transferNanos(int busSpeedHz, int samplesPerTransfer) {
+    long bits = (long) (samplesPerTransfer + HEADER_BYTES) * BITS_PER_BYTE;
+    return TimeUnit.SECONDS.toNanos(bits) / busSpeedHz + TRANSFER_OVERHEAD_NANOS;
+  }
+
+  private static double sampleRate(long periodNanos, int samplesPerTransfer) {
+    return samplesPerTransfer * (double) TimeUnit.SECONDS.toNanos(1) / periodNanos;
+  }
+
+  public static Pcf8591WaveformPlayerBuilder builder(Pcf8591 pcf8591) {
+    return new Pcf8591WaveformPlayerBuilder(pcf8591);
+  }
+
+  /**
+   * @param length number of samples
+   * @return one cycle of a sine wave centred on 128
+   */
+  public static int[] sine(int length) {
+    int[] table = new int[length];
+    for (int i = 0; i < length; i++) {
+      table[i] = (int) Math.round(127.5 + 127.5 * Math.sin(2 * Math.PI * i / length));
+    }
+    return table;
+  }
+
+  /**
+   * @param length number of samples
+   * @return one cycle of a ramp from 0 to 255
+   */
+  public static int[] ramp(int length) {
+    int[] table = new int[length];
+    for (int i = 0; i < length; i++) {
+      table[i] = (int) ((256L * i) / length);
+    }
+    return table;
+  }
+
+  /**
+   * @param length number of samples
+   * @return one cycle of a triangle from 0 to 255 and back
+   */
+  public static int[] triangle(int length) {
+    int[] table = new int[length];
+    for (int i = 0; i < length; i++) {
+      int value = (int) ((512L * i) / length);
+      table[i] = value < 256 ? value : 511 - value;
+    }
+    return table;
+  }
+
+  /**
+   * Change the frequency while playing, takes effect from the next transfer
+   * @param frequency waveform frequency in Hz
+   */
+  public void setFrequencyHz(double frequency) {
+    checkFrequency(frequency, sampleRate);
+    this.frequency = frequency;
+  }
+
+  public double getFrequencyHz() {
+    return frequency;
+  }
+
+  /**
+   * @return average DAC updates per second, the samples of a transfer are output at the
+   * byte rate of the bus with the last held until the next transfer
+   */
+  public double getSampleRateHz() {
+    return sampleRate;
+  }
+
+  /**
+   * @return time between transfers in nanoseconds
+   */
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+
+  /**
+   * @return number of transfer periods skipped because the player fell behind
+   */
+  public synchronized long getOverrunCount() {
+    return overrunCount;
+  }
+
+  /**
+   * @return number of transfers written
+   */
+  public synchronized long getTransferCount() {
+    return transferCount;
+  }
+
+  public synchronized boolean isRunning() {
+    return running;
+  }
+
+  public synchronized void start() {
+    if (running) return;
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        play();
+      }
+    }, Pcf8591WaveformPlayer.class.getSimpleName());
+    thread.start();
+  }
+
+  /**
+   * Stop playing, the analog output holds the last value written
+   */
+  public void stop() {
+    Thread thread;
+    synchronized (this) {
+      running = false;
+      thread = this.thread;
+      this.thread = null;
+    }
+    if (thread != null && thread != Thread.currentThread()) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    stop();
+  }
+
+  private void play() {
+    long deadline = System.nanoTime();
+    while (running) {
+      long wait = deadline - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+        continue;
+      }
+      writeTransfer();
+      deadline += periodNanos;
+
+      // fell behind by a whole period or more, skip the missed transfers, the waveform
+      // carries on from where it was rather than jumping ahead
+      long late = System.nanoTime() - deadline;
+      if (late >= periodNanos) {
+        long missed = late / periodNanos;
+        deadline += missed * periodNanos;
+        synchronized (this) {
+          overrunCount += missed;
+        }
+      }
+    }
+  }
+
+  /**
+   * Fill the buffer with the next samples and write them
+   * @return true if the transfer was written
+   */
+  /* package */ boolean writeTransfer() {
+    fill();
+    boolean written = pcf8591.writeAnalogOutput(buffer, buffer.length);
+    synchronized (this) {
+      transferCount++;
+    }
+    return written;
+  }
+
+  /**
+   * Fill the buffer with the next samples, advancing the phase
+   */
+  /* package */ void fill() {
+    long step = Math.round(frequency * phaseWrap / sampleRate);
+    long phase = this.phase;
+    for (int i = 0; i < buffer.length; i++) {
+      buffer[i] = (byte) table[(int) (phase >>> PHASE_BITS)];
+      phase += step;
+      if (phase >= phaseWrap) phase %= phaseWrap;
+    }
+    this.phase = phase;
+  }
+
+  private static void checkFrequency(double frequency, double sampleRate) {
+    if (frequency < 0 || frequency > sampleRate / 2.0) {
+      throw new IllegalArgumentException("frequency out of range (0-" + sampleRate / 2.0 + ")");
+    }
+  }
+
+  /* package */ byte[] getBuffer() {
+    return buffer;
+  }
+
+  public static class Pcf8591WaveformPlayerBuilder {
+
+    private final Pcf8591 pcf8591;
+    private int[] table;
+    private double frequency = 1;
+    private int busSpeedHz = DEFAULT_BUS_SPEED_HZ;
+    private int samplesPerTransfer = DEFAULT_SAMPLES_PER_TRANSFER;
+
+    private Pcf8591WaveformPlayerBuilder(Pcf8591 pcf8591) {
+      this.pcf8591 = pcf8591;
+    }
+
+    /**
+     * Set the samples of one cycle of the waveform
+     * @param table DAC values [0:255]
+     * @return the builder
+     */
+    public Pcf8591WaveformPlayerBuilder table(int[] table) {
+      this.table = table;
+      return this;
+    }
+
+    public Pcf8591WaveformPlayerBuilder frequencyHz(double frequency) {
+      this.frequency = frequency;
+      return this;
+    }
+
+    /**
+     * Speed of the I2C bus, 100kHz by default. The time between transfers is the time a
+     * transfer takes at this speed, so this must match the bus.
+     * @param hz bus clock
+     * @return the builder
+     */
+    public Pcf8591WaveformPlayerBuilder busSpeed(int hz) {
+      if (hz < 10000 || hz > 1000000) throw new IllegalArgumentException("invalid bus speed");
+      this.busSpeedHz = hz;
+      return this;
+    }
+
+    /**
+     * Set the number of samples written per transfer, 64 by default. Longer transfers
+     * spread the overhead of a transaction over more samples but hold the bus for longer.
+     * @param samplesPerTransfer DAC values per transfer
+     * @return the builder
+     */
+    public Pcf8591WaveformPlayerBuilder samplesPerTransfer(int samplesPerTransfer) {
+      this.samplesPerTransfer = samplesPerTransfer;
+      return this;
+    }
+
+    public Pcf8591WaveformPlayer build() {
+      if (table == null || table.length == 0) throw new IllegalStateException("no waveform table");
+      if (samplesPerTransfer < 1) throw new IllegalArgumentException("samplesPerTransfer must be at least 1");
+      long periodNanos = transferNanos(busSpeedHz, samplesPerTransfer);
+      checkFrequency(frequency, sampleRate(periodNanos, samplesPerTransfer));
+      return new Pcf8591WaveformPlayer(pcf8591, table, frequency, periodNanos, samplesPerTransfer);
+    }
+  }
+}
@@ -0,0 +1,107 @@
+package nz.geek.android.things.driver.pcf8591;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8591;
+
+import static org.junit.Assert.assertEquals;
+
+public class Pcf8591StreamTest {
+
+  private SimPcf8591 device;
+  private Pcf8591 pcf8591;
+
+  @Before
+  public void before() {
+    device = new SimPcf8591(new SimI2cBus());
+    pcf8591 = new Pcf8591(device);
+    // each channel reads the number of the conversion, so every sample is distinct
+    for (int i = 0; i < 4; i++) {
+      device.setSignal(i, new SimPcf8591.Signal() {
+        @Override
+        public int sample(long conversion) {
+          return (int) conversion;
+        }
+      });
+    }
+  }
+
+  @Test
+  public void testOneTransactionPerBlock() throws IOException {
+    Pcf8591Stream stream = pcf8591.stream().samplesPerBlock(16).build();
+    stream.readBlock();
+    assertEquals(2, device.getTransactionCount());    // control byte and first block
+    stream.readBlock();
+    stream.readBlock();
+    assertEquals(4, device.getTransactionCount());
+    assertEquals(48, stream.getSampleCount());
+  }
+
+  @Test
+  public void testSamplesAreContinuousAcrossBlocks() throws IOException {
+    final int[] blocks = new int[1];
+    Pcf8591Stream stream = pcf8591.stream()
+        .samplesPerBlock(8)
+        .bufferBlocks(4)
+        .listener(new Pcf8591Stream.SampleListener() {
+          @Override
+          public void onSamples(short[][] samples, int offset, int count) {
+            assertEquals(8 * (blocks[0] % 4), offset);
+            assertEquals(8, count);
+            blocks[0]++;
+          }
+
+          @Override
+          public void onStreamError(IOException e) {
+          }
+        })
+        .build();
+    for (int i = 0; i < 6; i++) {
+      stream.readBlock();
+    }
+    assertEquals(6, blocks[0]);
+
+    short[] latest = new short[32];
+    for (int channel = 0; channel < 4; channel++) {
+      assertEquals(32, stream.getLatest(channel, latest, 32));
+      for (int i = 1; i < 32; i++) {
+        // the next sample of a channel is four conversions later
+        assertEquals((latest[i - 1] + 4) & 0xFF, latest[i]);
+      }
+      // first sample of the first block was conversion 1
+      assertEquals((1 + channel + 4 * 16) & 0xFF, latest[0]);
+    }
+  }
+
+  @Test
+  public void testChannelCountFollowsMode() throws IOException {
+    pcf8591.configure(Pcf8591.MODE_TWO_DIFFERENTIAL);
+    device.setInput(0, 100);
+    device.setInput(1, 40);
+    device.setInput(2, 40);
+    device.setInput(3, 100);
+    Pcf8591Stream stream = pcf8591.stream().samplesPerBlock(4).build();
+    assertEquals(2, stream.getChannelCount());
+    stream.readBlock();
+    stream.readBlock();
+
+    short[] latest = new short[8];
+    assertEquals(8, stream.getLatest(0, latest, 8));
+    for (short sample : latest) assertEquals(60, sample);
+    assertEquals(8, stream.getLatest(1, latest, 8));
+    for (short sample : latest) assertEquals(-60 & 0xFF, sample);
+  }
+
+  @Test
+  public void testLatestBeforeBufferFull() throws IOException {
+    Pcf8591Stream stream = pcf8591.stream().samplesPerBlock(4).bufferBlocks(4).build();
+    stream.readBlock();
+    short[] latest = new short[16];
+    assertEquals(4, stream.getLatest(2, latest, 16));
+    assertEquals(0, stream.getLatest(4, latest, 16));
+  }
+}
@@ -0,0 +1,66 @@
+package nz.geek.android.things.driver.pcf8591;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8591;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class Pcf8591Test {
+
+  private SimPcf8591 device;
+  private Pcf8591 pcf8591;
+
+  @Before
+  public void before() {
+    device = new SimPcf8591(new SimI2cBus());
+    pcf8591 = new Pcf8591(device);
+    for (int i = 0; i < 4; i++) {
+      device.setInput(i, 10 * (i + 1));
+    }
+  }
+
+  @Test
+  public void testReadChannel() {
+    assertEquals(30, pcf8591.readChannel(2));
+    assertEquals(-1, pcf8591.readChannel(4));
+  }
+
+  @Test
+  public void testReadAllChannels() {
+    int[] values = new int[4];
+    assertTrue(pcf8591.readAllChannels(values));
+    assertArrayEquals(new int[]{10, 20, 30, 40}, values);
+    assertArrayEquals(new int[]{10, 20, 30, 40}, pcf8591.readAllChannels());
+  }
+
+  @Test
+  public void testReadAllChannelsFailure() {
+    int[] values = {1, 2, 3, 4};
+    device.setFailing(true);
+    assertFalse(pcf8591.readAllChannels(values));
+    assertArrayEquals(new int[4], values);
+  }
+
+  @Test
+  public void testReadsDoNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    final int[] values = new int[4];
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        pcf8591.readChannel(1);
+        pcf8591.readAllChannels(values);
+        pcf8591.writeAnalogOutput(values[0]);
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+  }
+}
@@ -0,0 +1,114 @@
+package nz.geek.android.things.driver.pcf8591;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimPcf8591;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Pcf8591WaveformPlayerTest {
+
+  private SimPcf8591 device;
+  private Pcf8591 pcf8591;
+
+  @Before
+  public void before() {
+    device = new SimPcf8591(new SimI2cBus());
+    pcf8591 = new Pcf8591(device);
+  }
+
+  @Test
+  public void testWriteAnalogOutput() {
+    assertTrue(pcf8591.writeAnalogOutput(200));
+    assertEquals(200, device.getDac());
+    assertTrue(device.isAnalogOutputEnabled());
+
+    // later conversions keep the output enabled
+    pcf8591.readChannel(1);
+    assertTrue(device.isAnalogOutputEnabled());
+  }
+
+  @Test
+  public void testTransferIsOneTransaction() {
+    Pcf8591WaveformPlayer player = pcf8591.waveform()
+        .table(Pcf8591WaveformPlayer.ramp(256))
+        .frequencyHz(100)
+        .samplesPerTransfer(32)
+        .build();
+    assertTrue(player.writeTransfer());
+    assertEquals(1, device.getTransactionCount());
+    assertEquals(32, device.getDacWriteCount());
+  }
+
+  @Test
+  public void testPeriodCoversTransfer() {
+    SimI2cBus bus = SimI2cBus.standardMode();
+    Pcf8591 standard = new Pcf8591(new SimPcf8591(bus));
+    Pcf8591WaveformPlayer player = standard.waveform()
+        .table(Pcf8591WaveformPlayer.sine(64))
+        .build();
+    long start = bus.nanoTime();
+    player.writeTransfer();
+    long transfer = bus.nanoTime() - start;
+    assertTrue(transfer + " > " + player.getPeriodNanos(), transfer <= player.getPeriodNanos());
+    assertEquals(64e9 / player.getPeriodNanos(), player.getSampleRateHz(), 1e-6);
+  }
+
+  /**
+   * @return a player of a ramp that steps by one every sample
+   */
+  private Pcf8591WaveformPlayer rampPlayer() {
+    Pcf8591WaveformPlayer player = pcf8591.waveform()
+        .table(Pcf8591WaveformPlayer.ramp(256))
+        .samplesPerTransfer(16)
+        .build();
+    player.setFrequencyHz(player.getSampleRateHz() / 256);
+    return player;
+  }
+
+  @Test
+  public void testTransfersAreContinuous() {
+    Pcf8591WaveformPlayer player = rampPlayer();
+    byte[] buffer = player.getBuffer();
+    for (int transfer = 0; transfer < 20; transfer++) {
+      player.fill();
+      for (int i = 0; i < 16; i++) {
+        assertEquals((transfer * 16 + i) & 0xFF, buffer[i] & 0xFF);
+      }
+    }
+  }
+
+  @Test
+  public void testFrequencyChangeKeepsPhase() {
+    Pcf8591WaveformPlayer player = rampPlayer();
+    byte[] buffer = player.getBuffer();
+    player.fill();
+    player.setFrequencyHz(player.getFrequencyHz() * 2);
+    player.fill();
+    // carries on from the last sample, stepping by two
+    for (int i = 0; i < 16; i++) {
+      assertEquals(16 + 2 * i, buffer[i] & 0xFF);
+    }
+  }
+
+  @Test
+  public void testTables() {
+    int[] sine = Pcf8591WaveformPlayer.sine(64);
+    assertEquals(128, sine[0]);
+    assertEquals(255, sine[16]);
+    assertEquals(0, sine[48]);
+    int[] triangle = Pcf8591WaveformPlayer.triangle(512);
+    assertEquals(0, triangle[0]);
+    assertEquals(255, triangle[255]);
+    assertEquals(255, triangle[256]);
+    assertEquals(0, triangle[511]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFrequencyAboveNyquistRejected() {
+    pcf8591.waveform().table(Pcf8591WaveformPlayer.sine(64)).frequencyHz(6000).build();
+  }
+}
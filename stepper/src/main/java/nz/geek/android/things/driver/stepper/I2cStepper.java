@@ -0,0 +1,441 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.stepper;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import nz.geek.android.things.driver.pcf8574.Pcf8574;
+import nz.geek.android.things.driver.scheduler.BusScheduler;
+
+/**
+ * Driver for up to two unipolar stepper motors, e.g., 28BYJ-48 on a ULN2003 board, on
+ * the pins of a PCF8574. Each motor takes 4 consecutive pins, P0-P3 or P4-P7.
+ * <p>
+ * Steps are timed by the bus. While a motor moves the port is written in bursts, each a
+ * window of port states with the current state repeated until the next step is due, see
+ * {@link StepGenerator}. Both motors share the one stream of port states, pins not used
+ * by a motor are left as they are.
+ * <pre>
+ * I2cStepper stepper = I2cStepper.builder()
+ *     .address(0)
+ *     .addMotor(0, I2cStepper.Sequence.HALF)
+ *     .build();
+ * I2cStepper.Motor motor = stepper.getMotor(0);
+ * motor.setSpeed(50, 800, 2000);
+ * motor.move(4096);
+ * </pre>
+ */
+public class I2cStepper implements AutoCloseable {
+  private static final String TAG = I2cStepper.class.getSimpleName();
+
+  private static final int DEFAULT_BUS_SPEED_HZ = 100000;
+  private static final int DEFAULT_WINDOW_MS = 10;
+  private static final int BITS_PER_BYTE = 9; // 8 data bits and ACK
+
+  /**
+   * Step sequences, coil n in bit n
+   */
+  public enum Sequence {
+    /**
+     * one coil at a time, least torque and current
+     */
+    WAVE(new int[] {0x01, 0x02, 0x04, 0x08}),
+    /**
+     * two coils at a time, most torque
+     */
+    FULL(new int[] {0x03, 0x06, 0x0C, 0x09}),
+    /**
+     * one then two coils, twice the steps per revolution
+     */
+    HALF(new int[] {0x01, 0x03, 0x02, 0x06, 0x04, 0x0C, 0x08, 0x09});
+
+    private final int[] coils;
+
+    Sequence(int[] coils) {
+      this.coils = coils;
+    }
+  }
+
+  /**
+   * Acceleration profiles
+   */
+  public enum Profile {
+    /**
+     * constant acceleration
+     */
+    TRAPEZOIDAL,
+    /**
+     * acceleration ramps in and out, smoother but with a higher peak
+     */
+    S_CURVE
+  }
+
+  private final Pcf8574 pcf8574;
+  private final StepGenerator generator;
+  private final Motor[] motors;
+
+  /**
+   * port states of one window, only used while streaming
+   */
+  private final int[] window;
+  private final long stateNanos;
+
+  /**
+   * start and bus time of the last burst, only used while streaming
+   */
+  private long lastBurst;
+  private long lastBurstNanos;
+
+  /**
+   * set while bursts are being written
+   */
+  private final AtomicBoolean streaming = new AtomicBoolean(false);
+
+  /**
+   * when set the port is written on the scheduler, otherwise on a thread of its own
+   */
+  private final BusScheduler scheduler;
+  private HandlerThread handlerThread;
+  private Handler handler;
+
+  private I2cStepper(I2cStepperBuilder builder) {
+    this.scheduler = builder.scheduler;
+    if (scheduler != null) {
+      pcf8574 = Pcf8574.create(builder.address, scheduler.getBus(), builder.isPcf8574);
+    } else {
+      pcf8574 = Pcf8574.create(builder.address, builder.isPcf8574);
+      handlerThread = new HandlerThread(TAG);
+      handlerThread.start();
+      handler = new Handler(handlerThread.getLooper());
+    }
+
+    int count = builder.motorCount;
+    int[] firstPin = new int[count];
+    int[][] sequences = new int[count][];
+    for (int i = 0; i < count; i++) {
+      firstPin[i] = builder.firstPin[i];
+      sequences[i] = builder.sequence[i].coils;
+    }
+    generator = new StepGenerator(firstPin, sequences);
+    motors = new Motor[count];
+    for (int i = 0; i < count; i++) {
+      motors[i] = new Motor(i);
+      motors[i].setSpeed(builder.startSpeed, builder.maxSpeed, builder.acceleration);
+    }
+
+    stateNanos = 1000000000L * BITS_PER_BYTE / builder.busSpeedHz;
+    window = new int[(int) Math.max(1, builder.windowMs * 1000000L / stateNanos)];
+    // coils off until the first move
+    pcf8574.writeByte(generator.getMask(), generator.getState());
+  }
+
+  /**
+   * @param index index of the motor, in the order added to the builder
+   * @return the motor
+   */
+  public Motor getMotor(int index) {
+    return motors[index];
+  }
+
+  /**
+   * Start writing bursts if not already
+   */
+  private void startStreaming() {
+    if (!streaming.compareAndSet(false, true)) return;
+    lastBurst = 0;
+    post();
+  }
+
+  private void post() {
+    if (scheduler != null) {
+      scheduler.post(BusScheduler.PRIORITY_POLL, streamRunnable);
+    } else if (handler != null) {
+      handler.post(streamRunnable);
+    }
+  }
+
+  /**
+   * Write the next window of port states. Time since the last burst beyond the time it
+   * took to write is time the port was held, it is taken off the next steps.
+   */
+  private void writeBurst() {
+    long now = System.nanoTime();
+    if (lastBurst != 0) {
+      long held = now - lastBurst - lastBurstNanos;
+      if (held > 0) generator.stall(held);
+    }
+    lastBurst = now;
+
+    int count = generator.fill(window, window.length, stateNanos);
+    lastBurstNanos = count * stateNanos;
+    pcf8574.writeSequence(generator.getMask(), window, count);
+
+    if (generator.isMoving()) {
+      post();
+      return;
+    }
+    streaming.set(false);
+    // a release may have come after the last window was generated
+    writeState();
+    // a move may have started after the last check
+    if (generator.isMoving()) startStreaming();
+  }
+
+  /**
+   * Write the state of the coils when not streaming, e.g., after a release
+   */
+  private void writeState() {
+    if (!streaming.get()) {
+      pcf8574.writeByte(generator.getMask(), generator.getState());
+    }
+  }
+
+  private final Runnable streamRunnable = new Runnable() {
+    @Override
+    public void run() {
+      writeBurst();
+    }
+  };
+
+  /**
+   * A motor on the port
+   */
+  public final class Motor {
+    private final int index;
+    private Profile profile = Profile.TRAPEZOIDAL;
+    private double startSpeed;
+    private double maxSpeed;
+    private double acceleration;
+
+    private Motor(int index) {
+      this.index = index;
+    }
+
+    /**
+     * @param startSpeed speed of the first and last steps of a move, no faster than the
+     *                   motor can start from rest, in steps per second
+     * @param maxSpeed the most speed, in steps per second
+     * @param acceleration in steps per second per second
+     */
+    public void setSpeed(double startSpeed, double maxSpeed, double acceleration) {
+      generator.setProfile(index, startSpeed, maxSpeed, acceleration, profile == Profile.S_CURVE);
+      this.startSpeed = startSpeed;
+      this.maxSpeed = maxSpeed;
+      this.acceleration = acceleration;
+    }
+
+    /**
+     * @param profile the acceleration profile of moves, {@link Profile#TRAPEZOIDAL} by default
+     */
+    public void setProfile(Profile profile) {
+      this.profile = profile;
+      setSpeed(startSpeed, maxSpeed, acceleration);
+    }
+
+    /**
+     * Move by the given number of steps, replacing any move in progress
+     * @param steps steps to move, negative to move backward
+     */
+    public void move(int steps) {
+      generator.move(index, steps);
+      startStreaming();
+    }
+
+    /**
+     * Move to the given position, replacing any move in progress
+     * @param position the position in steps
+     */
+    public void moveTo(int position) {
+      move(position - generator.getPosition(index));
+    }
+
+    /**
+     * Slow down and stop as soon as the profile allows
+     */
+    public void stop() {
+      generator.stop(index);
+    }
+
+    /**
+     * Stop at once, the coils stay energised to hold the motor
+     */
+    public void halt() {
+      generator.halt(index);
+    }
+
+    /**
+     * Stop at once and turn the coils off, the motor no longer holds its position
+     */
+    public void release() {
+      generator.release(index);
+      writeState();
+    }
+
+    public boolean isMoving() {
+      return generator.isMoving(index);
+    }
+
+    /**
+     * @return position in steps, changed by every step taken
+     */
+    public int getPosition() {
+      return generator.getPosition(index);
+    }
+
+    /**
+     * @param position the position to count steps from
+     */
+    public void setPosition(int position) {
+      generator.setPosition(index, position);
+    }
+  }
+
+  @Override
+  public void close() {
+    for (Motor motor : motors) {
+      generator.release(motor.index);
+    }
+    if (scheduler != null) {
+      scheduler.removeCallbacks(streamRunnable);
+    }
+    if (handler != null) {
+      handler.removeCallbacks(streamRunnable);
+      handlerThread.quitSafely();
+      handler = null;
+      handlerThread = null;
+    }
+    if (pcf8574 != null) {
+      pcf8574.writeByte(generator.getMask(), generator.getState());
+      pcf8574.close();
+    }
+  }
+
+  public static I2cStepperBuilder builder() {
+    return new I2cStepperBuilder();
+  }
+
+  public static final class I2cStepperBuilder {
+    private int address;
+    private boolean isPcf8574 = false;
+    private BusScheduler scheduler;
+    private final int[] firstPin = new int[StepGenerator.MAX_MOTORS];
+    private final Sequence[] sequence = new Sequence[StepGenerator.MAX_MOTORS];
+    private int motorCount = 0;
+    private int busSpeedHz = DEFAULT_BUS_SPEED_HZ;
+    private int windowMs = DEFAULT_WINDOW_MS;
+    private double startSpeed = 100;
+    private double maxSpeed = 500;
+    private double acceleration = 1000;
+
+    private I2cStepperBuilder() {
+
+    }
+
+    /**
+     * Specify the I2C address of the PCF8574. This is the value of A0-A2 pins, not
+     * the base address of the PCF8574 which is inferred with {@link #isPcf8574(boolean)}
+     * @param address value of A0-A2 [0:7]
+     * @return builder
+     */
+    public final I2cStepperBuilder address(int address) {
+      this.address = address;
+      return this;
+    }
+
+    /**
+     * Specify that the motors are connected with a PCF8574. This uses a different
+     * base address to the more typical PCF8574A.
+     * @param isPcf8574 true when PCF8574 should be used
+     * @return builder
+     */
+    public final I2cStepperBuilder isPcf8574(boolean isPcf8574) {
+      this.isPcf8574 = isPcf8574;
+      return this;
+    }
+
+    /**
+     * Write the port on the given {@link BusScheduler}. The PCF8574 is opened on the
+     * scheduler's bus.
+     * @param scheduler the scheduler of the I2C bus the PCF8574 is connected to
+     * @return builder
+     */
+    public final I2cStepperBuilder withScheduler(BusScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
+    /**
+     * Add a motor with its 4 coils on consecutive pins
+     * @param firstPin the pin of the first coil, 0 for P0-P3 or 4 for P4-P7
+     * @param sequence the step sequence
+     * @return builder
+     */
+    public final I2cStepperBuilder addMotor(int firstPin, Sequence sequence) {
+      if (motorCount == StepGenerator.MAX_MOTORS) throw new IllegalStateException("too many motors");
+      if (firstPin != 0 && firstPin != 4) throw new IllegalArgumentException("first pin must be 0 or 4");
+      this.firstPin[motorCount] = firstPin;
+      this.sequence[motorCount] = sequence;
+      motorCount++;
+      return this;
+    }
+
+    /**
+     * Speed of the I2C bus, 100kHz by default. Steps are timed by the time it takes to
+     * write a byte, so this must match the bus.
+     * @param hz bus clock
+     * @return builder
+     */
+    public final I2cStepperBuilder busSpeed(int hz) {
+      if (hz < 10000 || hz > 1000000) throw new IllegalArgumentException("invalid bus speed");
+      this.busSpeedHz = hz;
+      return this;
+    }
+
+    /**
+     * Time of the port states written in each burst, 10ms by default. Longer bursts hold
+     * the bus for longer, shorter bursts have more gaps between them.
+     * @param ms burst time [1:100]
+     * @return builder
+     */
+    public final I2cStepperBuilder window(int ms) {
+      if (ms < 1 || ms > 100) throw new IllegalArgumentException("invalid window");
+      this.windowMs = ms;
+      return this;
+    }
+
+    /**
+     * Initial speed of every motor, see {@link Motor#setSpeed(double, double, double)}
+     * @return builder
+     */
+    public final I2cStepperBuilder speed(double startSpeed, double maxSpeed, double acceleration) {
+      if (startSpeed <= 0 || maxSpeed <= 0 || acceleration <= 0) {
+        throw new IllegalArgumentException("invalid speed or acceleration");
+      }
+      this.startSpeed = startSpeed;
+      this.maxSpeed = maxSpeed;
+      this.acceleration = acceleration;
+      return this;
+    }
+
+    public I2cStepper build() {
+      if (motorCount == 0) throw new IllegalStateException("no motors");
+      return new I2cStepper(this);
+    }
+  }
+}
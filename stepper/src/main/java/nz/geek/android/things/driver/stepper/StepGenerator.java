@@ -0,0 +1,245 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.stepper;
+
+/**
+ * Generates the port states that step up to two motors sharing one 8 bit port. Every
+ * port state written takes the same time on the bus, so a step is timed by repeating the
+ * current state until the next step is due, and the states are written in bursts.
+ * <p>
+ * Each motor counts down the time to its next step by the time of a port state. Any
+ * error is carried into the next interval, so the average rate is exact. Time the port
+ * was held between bursts is taken off with {@link #stall(long)}.
+ * <p>
+ * Each motor has 4 coils on consecutive port pins, energised by a high level.
+ */
+/* package */ final class StepGenerator {
+
+  static final int MAX_MOTORS = 2;
+
+  private final int motorCount;
+  private final int[] firstPin;
+  private final int[][] sequence;
+  private final StepPlanner[] planner;
+  private final int mask;
+
+  private final int[] phase;
+  private final int[] direction;
+  private final int[] step;
+  private final long[] countdown;
+  private final int[] position;
+  private final boolean[] moving;
+  private final boolean[] energised;
+
+  private final double[] startSpeed;
+  private final double[] maxSpeed;
+  private final double[] acceleration;
+  private final boolean[] sCurve;
+
+  /**
+   * @param firstPin the port pin of the first coil of each motor
+   * @param sequence the coil states of each motor's step sequence, coil n in bit n
+   */
+  StepGenerator(int[] firstPin, int[][] sequence) {
+    if (firstPin.length == 0 || firstPin.length > MAX_MOTORS || firstPin.length != sequence.length) {
+      throw new IllegalArgumentException("invalid motors");
+    }
+    motorCount = firstPin.length;
+    this.firstPin = firstPin.clone();
+    this.sequence = sequence.clone();
+    int used = 0;
+    for (int pin : firstPin) {
+      if (pin < 0 || pin > 4) throw new IllegalArgumentException("pin out of range");
+      if ((used & (0x0F << pin)) != 0) throw new IllegalArgumentException("motors share a pin");
+      used |= 0x0F << pin;
+    }
+    mask = 0xFF & ~used;
+
+    planner = new StepPlanner[motorCount];
+    phase = new int[motorCount];
+    direction = new int[motorCount];
+    step = new int[motorCount];
+    countdown = new long[motorCount];
+    position = new int[motorCount];
+    moving = new boolean[motorCount];
+    energised = new boolean[motorCount];
+    startSpeed = new double[motorCount];
+    maxSpeed = new double[motorCount];
+    acceleration = new double[motorCount];
+    sCurve = new boolean[motorCount];
+    for (int motor = 0; motor < motorCount; motor++) {
+      planner[motor] = new StepPlanner();
+    }
+  }
+
+  int getMotorCount() {
+    return motorCount;
+  }
+
+  /**
+   * @return pins not used by any motor, for use as a port mask
+   */
+  int getMask() {
+    return mask;
+  }
+
+  /**
+   * @param motor index of the motor
+   * @param startSpeed speed of the first and last steps of a move, in steps per second
+   * @param maxSpeed the most speed, in steps per second
+   * @param acceleration in steps per second per second
+   * @param sCurve true for an S-curve profile, false for trapezoidal
+   */
+  synchronized void setProfile(int motor, double startSpeed, double maxSpeed,
+                               double acceleration, boolean sCurve) {
+    if (startSpeed <= 0 || maxSpeed <= 0 || acceleration <= 0) {
+      throw new IllegalArgumentException("invalid speed or acceleration");
+    }
+    this.startSpeed[motor] = startSpeed;
+    this.maxSpeed[motor] = maxSpeed;
+    this.acceleration[motor] = acceleration;
+    this.sCurve[motor] = sCurve;
+  }
+
+  /**
+   * Start a move, replacing any move in progress. The first step is taken at the start of
+   * the next state generated.
+   * @param motor index of the motor
+   * @param steps steps to move, negative to move backward
+   */
+  synchronized void move(int motor, int steps) {
+    if (maxSpeed[motor] <= 0) throw new IllegalStateException("no profile");
+    planner[motor].plan(Math.abs(steps), startSpeed[motor], maxSpeed[motor],
+        acceleration[motor], sCurve[motor]);
+    direction[motor] = steps < 0 ? -1 : 1;
+    step[motor] = 0;
+    countdown[motor] = 0;
+    moving[motor] = steps != 0;
+    energised[motor] = true;
+  }
+
+  /**
+   * Slow down and stop as soon as the profile allows
+   * @param motor index of the motor
+   */
+  synchronized void stop(int motor) {
+    if (!moving[motor]) return;
+    planner[motor].stopFrom(step[motor]);
+    moving[motor] = step[motor] < planner[motor].getTotalSteps();
+  }
+
+  /**
+   * Stop at once, without slowing down
+   * @param motor index of the motor
+   */
+  synchronized void halt(int motor) {
+    moving[motor] = false;
+  }
+
+  /**
+   * Stop and turn every coil off
+   * @param motor index of the motor
+   */
+  synchronized void release(int motor) {
+    moving[motor] = false;
+    energised[motor] = false;
+  }
+
+  synchronized boolean isMoving(int motor) {
+    return moving[motor];
+  }
+
+  synchronized boolean isMoving() {
+    for (int motor = 0; motor < motorCount; motor++) {
+      if (moving[motor]) return true;
+    }
+    return false;
+  }
+
+  synchronized int getPosition(int motor) {
+    return position[motor];
+  }
+
+  synchronized void setPosition(int motor, int position) {
+    this.position[motor] = position;
+  }
+
+  /**
+   * Take time the port was held off the time to each motor's next step
+   * @param nanos time held, in nanoseconds
+   */
+  synchronized void stall(long nanos) {
+    for (int motor = 0; motor < motorCount; motor++) {
+      if (moving[motor]) {
+        // a step late by more than a state is taken straight away, not caught up
+        countdown[motor] = Math.max(0, countdown[motor] - nanos);
+      }
+    }
+  }
+
+  /**
+   * @return the port state of every motor as it stands
+   */
+  synchronized int getState() {
+    return state();
+  }
+
+  /**
+   * Generate the next port states
+   * @param states filled with the port states
+   * @param count the most states to generate
+   * @param stateNanos time each state is held for, the time to write a byte
+   * @return number of states generated, fewer than count when every motor stops
+   */
+  synchronized int fill(int[] states, int count, long stateNanos) {
+    for (int i = 0; i < count; i++) {
+      boolean anyMoving = false;
+      for (int motor = 0; motor < motorCount; motor++) {
+        if (!moving[motor]) continue;
+        if (countdown[motor] <= 0) {
+          takeStep(motor);
+        }
+        countdown[motor] -= stateNanos;
+        anyMoving |= moving[motor];
+      }
+      states[i] = state();
+      if (!anyMoving) return i + 1;
+    }
+    return count;
+  }
+
+  private void takeStep(int motor) {
+    int length = sequence[motor].length;
+    phase[motor] = (phase[motor] + direction[motor] + length) % length;
+    position[motor] += direction[motor];
+    int taken = step[motor]++;
+    if (step[motor] >= planner[motor].getTotalSteps()) {
+      moving[motor] = false;
+    } else {
+      countdown[motor] += planner[motor].intervalNanos(taken);
+    }
+  }
+
+  private int state() {
+    int value = 0;
+    for (int motor = 0; motor < motorCount; motor++) {
+      if (energised[motor]) {
+        value |= sequence[motor][phase[motor]] << firstPin[motor];
+      }
+    }
+    return value;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 Dave McKelvie <www.android.geek.nz>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.geek.android.things.driver.stepper;
+
+/**
+ * Plans the speed of each step of a move. The speed ramps up from the start speed to the
+ * maximum over the ramp, and back down over the same number of steps at the end of the
+ * move, a short move never reaches the maximum.
+ * <p>
+ * The speed is a function of the step, so the interval of any step can be worked out
+ * when it is needed without a table. With a trapezoidal profile the acceleration is
+ * constant through the ramp. With an S-curve profile the speed follows a smoothstep over
+ * the same ramp, so the acceleration starts and ends at 0, with a peak of 1.5 times that
+ * of the trapezoid.
+ */
+/* package */ final class StepPlanner {
+
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  private double startSpeed;
+  private double maxSpeed;
+  private boolean sCurve;
+
+  /**
+   * steps to reach the maximum speed
+   */
+  private double rampSteps;
+  private int totalSteps;
+
+  /**
+   * Plan a move
+   * @param steps number of steps in the move
+   * @param startSpeed speed of the first and last step, in steps per second
+   * @param maxSpeed the most speed, in steps per second
+   * @param acceleration in steps per second per second
+   * @param sCurve true for an S-curve profile, false for trapezoidal
+   */
+  void plan(int steps, double startSpeed, double maxSpeed, double acceleration, boolean sCurve) {
+    if (steps < 0) throw new IllegalArgumentException("invalid steps");
+    if (startSpeed <= 0 || maxSpeed <= 0 || acceleration <= 0) {
+      throw new IllegalArgumentException("invalid speed or acceleration");
+    }
+    this.totalSteps = steps;
+    this.startSpeed = Math.min(startSpeed, maxSpeed);
+    this.maxSpeed = maxSpeed;
+    this.sCurve = sCurve;
+    rampSteps = (maxSpeed * maxSpeed - this.startSpeed * this.startSpeed) / (2 * acceleration);
+  }
+
+  int getTotalSteps() {
+    return totalSteps;
+  }
+
+  /**
+   * @param step the step [0:total steps)
+   * @return time from the given step to the next, in nanoseconds
+   */
+  long intervalNanos(int step) {
+    double speed = Math.min(rampSpeed(step), rampSpeed(totalSteps - 1 - step));
+    return (long) (NANOS_PER_SECOND / speed);
+  }
+
+  private double rampSpeed(double step) {
+    if (step >= rampSteps) return maxSpeed;
+    if (step <= 0) return startSpeed;
+    if (sCurve) {
+      double f = step / rampSteps;
+      return startSpeed + (maxSpeed - startSpeed) * f * f * (3 - 2 * f);
+    }
+    double s2 = startSpeed * startSpeed;
+    return Math.sqrt(s2 + (maxSpeed * maxSpeed - s2) * step / rampSteps);
+  }
+
+  /**
+   * Shorten the move to stop as soon as the ramp allows
+   * @param step the next step to be taken
+   */
+  void stopFrom(int step) {
+    if (step >= totalSteps) return;
+    // the ramp down mirrors the ramp up, so it takes as many steps as it took to get here
+    int stopping = (int) Math.ceil(Math.min(step, rampSteps));
+    totalSteps = Math.min(totalSteps, step + stopping);
+  }
+}
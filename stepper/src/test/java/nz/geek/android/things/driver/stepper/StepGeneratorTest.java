@@ -0,0 +1,167 @@
+package nz.geek.android.things.driver.stepper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class StepGeneratorTest {
+
+  private static final int[] WAVE = {0x01, 0x02, 0x04, 0x08};
+  private static final int[] HALF = {0x01, 0x03, 0x02, 0x06, 0x04, 0x0C, 0x08, 0x09};
+
+  /**
+   * a state per 100us, a step every 10 states at 1000 steps per second
+   */
+  private static final long STATE_NANOS = 100000;
+
+  private final int[] states = new int[1000];
+  private StepGenerator generator;
+
+  @Before
+  public void before() {
+    generator = new StepGenerator(new int[] {0, 4}, new int[][] {WAVE, HALF});
+    generator.setProfile(0, 1000, 1000, 1000, false);
+    generator.setProfile(1, 500, 500, 1000, false);
+  }
+
+  @Test
+  public void testMaskKeepsOtherPins() {
+    assertEquals(0x00, generator.getMask());
+    StepGenerator one = new StepGenerator(new int[] {4}, new int[][] {WAVE});
+    assertEquals(0x0F, one.getMask());
+  }
+
+  @Test
+  public void testCoilsOffUntilMoved() {
+    assertEquals(0, generator.getState());
+    assertEquals(1, generator.fill(states, states.length, STATE_NANOS));
+    assertEquals(0, states[0]);
+  }
+
+  @Test
+  public void testStepsAreTimedByStates() {
+    generator.move(0, 4);
+    int count = generator.fill(states, states.length, STATE_NANOS);
+    // 3 intervals of 10 states, then the state of the last step
+    assertEquals(31, count);
+    assertEquals(0x02, states[0]);
+    assertEquals(0x02, states[9]);
+    assertEquals(0x04, states[10]);
+    assertEquals(0x08, states[20]);
+    assertEquals(0x01, states[30]);
+    assertEquals(4, generator.getPosition(0));
+    assertFalse(generator.isMoving());
+  }
+
+  @Test
+  public void testBackward() {
+    generator.move(1, -3);
+    generator.fill(states, states.length, STATE_NANOS);
+    assertEquals(0x09 << 4, states[0]);
+    assertEquals(0x08 << 4, states[20]);
+    assertEquals(0x0C << 4, states[40]);
+    assertEquals(-3, generator.getPosition(1));
+  }
+
+  @Test
+  public void testTwoMotorsShareThePort() {
+    generator.move(0, 100);
+    generator.move(1, 50);
+    int count = generator.fill(states, states.length, STATE_NANOS);
+    assertEquals(991, count);
+    assertEquals(0x02 | 0x03 << 4, states[0]);
+    assertEquals(0x04 | 0x03 << 4, states[10]);
+    assertEquals(0x08 | 0x02 << 4, states[20]);
+    assertEquals(100, generator.getPosition(0));
+    assertEquals(50, generator.getPosition(1));
+  }
+
+  @Test
+  public void testWindowsJoinUp() {
+    generator.move(0, 100);
+    int[] window = new int[25];
+    int total = 0;
+    int count;
+    do {
+      count = generator.fill(window, window.length, STATE_NANOS);
+      total += count;
+    } while (count == window.length);
+    // the same states as one long window
+    assertEquals(991, total);
+  }
+
+  @Test
+  public void testUnevenIntervalsAverageOut() {
+    // 1500 steps per second is 6.67 states per step
+    generator.setProfile(0, 1500, 1500, 1000, false);
+    generator.move(0, 31);
+    int count = generator.fill(states, states.length, STATE_NANOS);
+    assertEquals(201, count, 1);
+  }
+
+  @Test
+  public void testStallIsTakenOff() {
+    generator.move(0, 10);
+    assertEquals(25, generator.fill(states, 25, STATE_NANOS));
+    // port held for 4 states between bursts, the next step comes 4 states sooner
+    generator.stall(4 * STATE_NANOS);
+    generator.fill(states, 10, STATE_NANOS);
+    assertEquals(0x08, states[0]);
+    assertEquals(0x01, states[1]);
+  }
+
+  @Test
+  public void testStopAndRelease() {
+    generator.setProfile(0, 100, 1000, 10000, false);
+    generator.move(0, 1000);
+    generator.fill(states, 10, STATE_NANOS);
+    generator.stop(0);
+    assertTrue(generator.isMoving(0));
+    int total = 0;
+    int count;
+    do {
+      count = generator.fill(states, states.length, STATE_NANOS);
+      total += count;
+    } while (count == states.length);
+    assertFalse(generator.isMoving(0));
+    assertTrue(generator.getPosition(0) < 10);
+    assertTrue(generator.getState() != 0);
+
+    generator.release(0);
+    assertEquals(0, generator.getState());
+  }
+
+  @Test
+  public void testHalfStepSequence() {
+    StepGenerator half = new StepGenerator(new int[] {0}, new int[][] {HALF});
+    half.setProfile(0, 1000, 1000, 1000, false);
+    half.move(0, 8);
+    half.fill(states, states.length, STATE_NANOS);
+    int[] coils = new int[8];
+    for (int i = 0; i < 8; i++) {
+      coils[i] = states[i * 10];
+    }
+    assertArrayEquals(new int[] {0x03, 0x02, 0x06, 0x04, 0x0C, 0x08, 0x09, 0x01}, coils);
+  }
+
+  @Test
+  public void testFillDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    generator.move(0, Integer.MAX_VALUE);
+    generator.move(1, -Integer.MAX_VALUE);
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        generator.fill(states, states.length, STATE_NANOS);
+      }
+    }, 1000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 1000);
+  }
+}
@@ -0,0 +1,71 @@
+package nz.geek.android.things.driver.stepper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StepPlannerTest {
+
+  private static final long NANOS = 1000000000L;
+
+  @Test
+  public void testTrapezoid() {
+    StepPlanner planner = new StepPlanner();
+    // ramp of (1000^2 - 100^2) / (2 * 10000) = 49.5 steps
+    planner.plan(200, 100, 1000, 10000, false);
+    assertEquals(NANOS / 100, planner.intervalNanos(0));
+    assertEquals(NANOS / 100, planner.intervalNanos(199));
+    assertEquals(NANOS / 1000, planner.intervalNanos(100));
+    assertEquals(planner.intervalNanos(10), planner.intervalNanos(189));
+    // constant acceleration, speed squared rises linearly with steps
+    double v10 = NANOS / (double) planner.intervalNanos(10);
+    assertEquals(100 * 100 + 2 * 10000 * 10, v10 * v10, 100);
+    for (int step = 1; step < 50; step++) {
+      assertTrue(planner.intervalNanos(step) < planner.intervalNanos(step - 1));
+    }
+  }
+
+  @Test
+  public void testShortMoveNeverReachesMaxSpeed() {
+    StepPlanner planner = new StepPlanner();
+    planner.plan(20, 100, 1000, 10000, false);
+    long fastest = Long.MAX_VALUE;
+    for (int step = 0; step < 20; step++) {
+      fastest = Math.min(fastest, planner.intervalNanos(step));
+    }
+    assertTrue(fastest > NANOS / 1000);
+  }
+
+  @Test
+  public void testSCurveStartsAndEndsGently() {
+    StepPlanner trapezoid = new StepPlanner();
+    trapezoid.plan(200, 100, 1000, 10000, false);
+    StepPlanner sCurve = new StepPlanner();
+    sCurve.plan(200, 100, 1000, 10000, true);
+    // slower off the line and into the cruise, the same in the middle of the ramp
+    assertTrue(sCurve.intervalNanos(2) > trapezoid.intervalNanos(2));
+    assertEquals(NANOS / 1000, sCurve.intervalNanos(50));
+    assertEquals(NANOS / 550, sCurve.intervalNanos(25), NANOS / 5000);
+    assertEquals(sCurve.intervalNanos(5), sCurve.intervalNanos(194));
+  }
+
+  @Test
+  public void testStopFollowsRampDown() {
+    StepPlanner planner = new StepPlanner();
+    planner.plan(1000, 100, 1000, 10000, false);
+    planner.stopFrom(20);
+    assertEquals(40, planner.getTotalSteps());
+    assertEquals(planner.intervalNanos(19), planner.intervalNanos(20));
+
+    // at full speed it takes the whole ramp
+    planner.plan(1000, 100, 1000, 10000, false);
+    planner.stopFrom(500);
+    assertEquals(550, planner.getTotalSteps());
+
+    // never lengthens a move
+    planner.plan(100, 100, 1000, 10000, false);
+    planner.stopFrom(90);
+    assertEquals(100, planner.getTotalSteps());
+  }
+}
@@ -41,6 +41,17 @@ public class Colour {
     return new Colour(red, green, blue, clear);
   }
 
+  /**
+   * Decode the given byte array without creating a {@link Colour}
+   * @param data [CL, CH, RL, RH, GL, GR, BL, BH]
+   * @param dst destination for [clear, red, green, blue]
+   */
+  public static void fromByteArray(byte[] data, int[] dst) {
+    for (int i = 0; i < 4; i++) {
+      dst[i] = ((data[2 * i] & 0xFF) | (data[2 * i + 1] << 8)) & 0xFFFF;
+    }
+  }
+
   /**
    * Calculate lux (Illuminance) for the given RGB values
    * @param red sensor value
@@ -21,6 +21,8 @@ import com.google.android.things.pio.PeripheralManager;
 
 import java.io.IOException;
 
+import nz.geek.android.things.driver.scheduler.BusScheduler;
+
 
 /**
  * Wrapper class for the TCS34725 colour sensor
@@ -48,9 +50,10 @@ public class ColourSensor {
    * @param interruptGpio the {@link Gpio} to use as and interrupt from the sensor. (optional)
    * @param interruptGpioName the name of the {@link Gpio}, a String returned by {@link PeripheralManager#getGpioList()} (optional)
    * @param listener a {@link ColourSensor.Listener} interested in sensor readings (optional)
+   * @param scheduler the {@link BusScheduler} to take readings on (optional)
    */
   private ColourSensor(String bus, Gpio ledGpio, String ledGpioName, Gpio interruptGpio, String interruptGpioName,
-                       Tcs34725.Listener listener) {
+                       Tcs34725.Listener listener, BusScheduler scheduler) {
 
     this.ledGpio = ledGpio;
     this.ledGpioName = ledGpioName;
@@ -61,7 +64,9 @@ public class ColourSensor {
     initInterruptGpio();
 
     if (bus != null) {
-      tcs34725 = Tcs34725.create(bus);
+      tcs34725 = Tcs34725.create(bus, scheduler);
+    } else if (scheduler != null) {
+      tcs34725 = Tcs34725.create(scheduler.getBus(), scheduler);
     } else {
       tcs34725 = Tcs34725.create();
     }
@@ -176,6 +181,7 @@ public class ColourSensor {
     private Gpio interruptGpio;
     private String interruptGpioName;
     private Tcs34725.Listener listener = null;
+    private BusScheduler scheduler = null;
 
     /**
      * Specify the I2C bus that the colour sensor is connected to.
@@ -243,8 +249,19 @@ public class ColourSensor {
       return this;
     }
 
+    /**
+     * Take sensor readings on the given {@link BusScheduler} instead of a thread of their own.
+     * If no bus is given with {@link #withBus(String)} the scheduler's bus is used.
+     * @param scheduler the scheduler of the I2C bus the sensor is connected to
+     * @return the builder
+     */
+    public ColourSensorBuilder withScheduler(BusScheduler scheduler) {
+      this.scheduler = scheduler;
+      return this;
+    }
+
     public ColourSensor build() {
-      return new ColourSensor(bus, ledGpio, ledGpioName, interruptGpio, interruptGpioName, listener);
+      return new ColourSensor(bus, ledGpio, ledGpioName, interruptGpio, interruptGpioName, listener, scheduler);
     }
   }
 }
@@ -30,6 +30,8 @@ import com.google.android.things.userdriver.sensor.UserSensorReading;
 import java.io.IOException;
 import java.util.List;
 
+import nz.geek.android.things.driver.scheduler.BusScheduler;
+
 public class Tcs34725 implements Runnable, AutoCloseable {
   private static final String TAG = Tcs34725.class.getSimpleName();
 
@@ -90,6 +92,20 @@ public class Tcs34725 implements Runnable, AutoCloseable {
 
   protected final I2cDevice device;
 
+  /**
+   * index of each channel in the array filled by {@link #readColour(int[])}
+   */
+  public static final int CLEAR = 0;
+  public static final int RED = 1;
+  public static final int GREEN = 2;
+  public static final int BLUE = 3;
+
+  /**
+   * buffers reused by {@link #readColour(int[])} and {@link #run()}
+   */
+  private final byte[] colourBuffer = new byte[8];
+  private final int[] colour = new int[4];
+
   /**
    * A listener to be notified of sensor readings
    */
@@ -100,6 +116,11 @@ public class Tcs34725 implements Runnable, AutoCloseable {
   private Listener listener;
   private HandlerThread handlerThread;
   private Handler handler;
+
+  /**
+   * when set readings are taken on the scheduler instead of {@link #handlerThread}
+   */
+  private BusScheduler scheduler;
   private UserSensor luxSensor;
   private LuxSensorDriver luxSensorDriver;
 
@@ -162,6 +183,9 @@ public class Tcs34725 implements Runnable, AutoCloseable {
 
   @Override
   public void close() {
+    if (scheduler != null) {
+      scheduler.removeCallbacks(this);
+    }
     if (handler != null) {
       handler.removeCallbacks(this);
       handler = null;
@@ -190,6 +214,7 @@ public class Tcs34725 implements Runnable, AutoCloseable {
   }
 
   private void initHandler() {
+    if (scheduler != null) return;
     if (handlerThread == null) {
       handlerThread = new HandlerThread(TAG);
       handlerThread.start();
@@ -214,7 +239,19 @@ public class Tcs34725 implements Runnable, AutoCloseable {
    * @return newly created {@link Tcs34725}
    */
   public static Tcs34725 create(String bus) {
+    return create(bus, null);
+  }
+
+  /**
+   * Create a {@link Tcs34725} on the given I2C bus that takes readings on the given
+   * {@link BusScheduler} rather than a thread of its own.
+   * @param bus I2C bus, one of the Strings returned by {@link PeripheralManager#getI2cBusList()}
+   * @param scheduler the scheduler of the given bus, or null to use a thread of its own
+   * @return newly created {@link Tcs34725}
+   */
+  public static Tcs34725 create(String bus, @Nullable BusScheduler scheduler) {
     Tcs34725 tcs34725 = new Tcs34725(getDevice(bus, DEVICE_ADDRESS));
+    tcs34725.scheduler = scheduler;
     tcs34725.init();
     return tcs34725;
   }
@@ -299,7 +336,12 @@ public class Tcs34725 implements Runnable, AutoCloseable {
     int enableRegister = readRegister(ENABLE);
     int en = enable ? (enableRegister | PON | AEN) : (enableRegister & ~(PON | AEN));
     writeRegister(ENABLE, en);
-    if (enable) {
+    if (scheduler != null) {
+      scheduler.removeCallbacks(this);
+      if (enable) {
+        scheduler.schedulePeriodic(BusScheduler.PRIORITY_POLL, this, UPDATE_PERIOD, UPDATE_PERIOD);
+      }
+    } else if (enable) {
       handler.postDelayed(this, UPDATE_PERIOD);
     } else {
       handler.removeCallbacks(this);
@@ -347,33 +389,56 @@ public class Tcs34725 implements Runnable, AutoCloseable {
     }
   }
 
-  private Colour readColour() {
-    try {
-      byte[] buffer = new byte[8];
-      device.readRegBuffer((BLOCK_PROTOCOL | CDATAL), buffer, buffer.length);
-      return Colour.fromByteArray(buffer);
-    } catch (IOException e) {
-      return null;
+  /**
+   * Read the colour data registers
+   * @return the colour, or null on I2C exception
+   */
+  @Nullable
+  public Colour readColour() {
+    int[] values = new int[4];
+    if (!readColour(values)) return null;
+    return new Colour(values[RED], values[GREEN], values[BLUE], values[CLEAR]);
+  }
+
+  /**
+   * Read the colour data registers into the given array, without allocating
+   * @param dst destination for the values, indexed by {@link #CLEAR}, {@link #RED},
+   *            {@link #GREEN} and {@link #BLUE}
+   * @return true if the colour was read
+   */
+  public boolean readColour(int[] dst) {
+    if (dst.length < 4) throw new IllegalArgumentException("dst must hold 4 channels");
+    synchronized (colourBuffer) {
+      try {
+        device.readRegBuffer((BLOCK_PROTOCOL | CDATAL), colourBuffer, colourBuffer.length);
+      } catch (IOException e) {
+        return false;
+      }
+      Colour.fromByteArray(colourBuffer, dst);
+      return true;
     }
   }
 
-  private void updateLuxDriver(Colour colour) {
-      if (luxSensorDriver != null && colour != null) {
-        luxSensorDriver.setLux(colour.toLux());
+  private void updateLuxDriver(int[] colour) {
+      if (luxSensorDriver != null) {
+        luxSensorDriver.setLux(Colour.toLux(colour[RED], colour[GREEN], colour[BLUE]));
       }
   }
 
-  private void notifyListener(Colour colour) {
-    if (listener != null && colour != null) {
-      listener.onColourUpdated(colour.clear, colour.red, colour.green, colour.blue);
+  private void notifyListener(int[] colour) {
+    if (listener != null) {
+      listener.onColourUpdated(colour[CLEAR], colour[RED], colour[GREEN], colour[BLUE]);
     }
   }
 
   @Override
   public void run() {
-    Colour colour = readColour();
-    updateLuxDriver(colour);
-    notifyListener(colour);
-    handler.postDelayed(this, UPDATE_PERIOD);
+    if (readColour(colour)) {
+      updateLuxDriver(colour);
+      notifyListener(colour);
+    }
+    if (handler != null) {
+      handler.postDelayed(this, UPDATE_PERIOD);
+    }
   }
 }
@@ -0,0 +1,68 @@
+package nz.geek.android.things.driver.tcs34725;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import nz.geek.android.things.driver.sim.AllocationMeter;
+import nz.geek.android.things.driver.sim.SimI2cBus;
+import nz.geek.android.things.driver.sim.SimTcs34725;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class Tcs34725Test {
+
+  private SimI2cBus bus;
+  private SimTcs34725 device;
+  private Tcs34725 tcs34725;
+
+  @Before
+  public void before() throws IOException {
+    bus = new SimI2cBus();
+    device = new SimTcs34725(bus);
+    tcs34725 = new Tcs34725(device);
+    device.setLight(400, 100, 200, 300);
+    // power on and run the RGBC cycle without a handler
+    device.writeRegByte(Tcs34725.ENABLE, (byte) (Tcs34725.PON | Tcs34725.AEN));
+    bus.advance(10000000);
+  }
+
+  @Test
+  public void testReadColour() {
+    int[] colour = new int[4];
+    assertTrue(tcs34725.readColour(colour));
+    assertEquals(400, colour[Tcs34725.CLEAR]);
+    assertEquals(100, colour[Tcs34725.RED]);
+    assertEquals(200, colour[Tcs34725.GREEN]);
+    assertEquals(300, colour[Tcs34725.BLUE]);
+
+    Colour c = tcs34725.readColour();
+    assertEquals(400, c.clear);
+    assertEquals(100, c.red);
+  }
+
+  @Test
+  public void testReadColourFailure() {
+    device.setFailing(true);
+    assertFalse(tcs34725.readColour(new int[4]));
+    assertNull(tcs34725.readColour());
+  }
+
+  @Test
+  public void testReadColourDoesNotAllocate() {
+    assumeTrue(AllocationMeter.isSupported());
+    final int[] colour = new int[4];
+    long bytes = AllocationMeter.measure(new Runnable() {
+      @Override
+      public void run() {
+        tcs34725.readColour(colour);
+      }
+    }, 10000);
+    assertTrue("allocated " + bytes + " bytes", bytes < 10000);
+  }
+}